@@ -0,0 +1,15 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+SCALE=${4:-1}
+SECONDS_PER_BENCHMARK=${5:-10}
+THREADS=${6:-1}
+BASELINE=$7
+
+# Example: source ./bench.sh flightDB 5432 user 10 10 4 baseline-10.json
+# Replaces the data with a generated dataset of the given scale, then writes bench-<scale>.json
+# and, given a baseline report of an earlier run, fails when a benchmark regressed.
+OUTPUT=bench-$SCALE.json
+java -Ddbproject.pool.max=$(( THREADS > 10 ? THREADS : 10 )) -cp lib/*:bin/ DBproject $DBNAME $PORT $USER --generate $SCALE 42 --copy --truncate &&
+java -Ddbproject.pool.max=$(( THREADS > 10 ? THREADS : 10 )) -cp lib/*:bin/ DBproject $DBNAME $PORT $USER --bench $SECONDS_PER_BENCHMARK $THREADS $OUTPUT $BASELINE
@@ -0,0 +1,409 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class benchmarks the data access layer against the loaded database.
+ * Every operation first runs for a warm-up period, so the statement caches
+ * and the pool are filled and the JIT has compiled the hot paths, and is then
+ * measured for a fixed time from one or more threads.  Each call is timed on
+ * its own; the report gives throughput and latency percentiles per operation
+ * as JSON, and can be compared against an earlier report to catch
+ * regressions.  Rows written by the benchmark are removed at the end.
+ *
+ */
+
+public class Benchmark{
+	//result sizes of the executeQueryAndReturnResult benchmarks
+	static final int[] RESULT_SIZES = {1, 100, 10000};
+	//allowed drop in throughput or rise in p99 before a comparison fails
+	static final double TOLERANCE = Double.parseDouble (System.getProperty ("dbproject.bench.tolerance", "0.2"));
+	//rows sampled from the loaded data to drive the operations
+	static final int SAMPLES = 1000;
+	//scratch flights receiving the new reservations
+	static final int SCRATCH_FLIGHTS = 100;
+
+	/**
+	 * One call of a benchmarked operation.
+	 */
+	interface Operation{
+		void run (long i) throws SQLException;
+	}//end Operation
+
+	/**
+	 * Latencies of one benchmark, in nanoseconds, as recorded by one thread.
+	 */
+	static class Recorder{
+		long[] latencies = new long[1 << 12];
+		int count = 0;
+		long errors = 0;
+
+		void record (long nanos) {
+			if (this.count == this.latencies.length)
+				this.latencies = Arrays.copyOf (this.latencies, this.count * 2);
+			this.latencies[this.count++] = nanos;
+		}
+	}//end Recorder
+
+	/**
+	 * The measured figures of one benchmark.
+	 */
+	static class Result{
+		final String name;
+		final long ops;
+		final long errors;
+		final double throughput;
+		final long[] sorted;
+
+		Result(String name, List<Recorder> recorders, long elapsedNanos) {
+			int count = 0;
+			long errors = 0;
+			for (Recorder recorder : recorders){
+				count += recorder.count;
+				errors += recorder.errors;
+			}//end for
+			this.sorted = new long[count];
+			int at = 0;
+			for (Recorder recorder : recorders){
+				System.arraycopy (recorder.latencies, 0, this.sorted, at, recorder.count);
+				at += recorder.count;
+			}//end for
+			Arrays.sort (this.sorted);
+			this.name = name;
+			this.ops = count;
+			this.errors = errors;
+			this.throughput = count * 1e9 / Math.max (1, elapsedNanos);
+		}
+
+		//latency at quantile q in microseconds, nearest rank
+		double percentile (double q) {
+			if (this.sorted.length == 0)
+				return 0;
+			int rank = (int) Math.ceil (q * this.sorted.length) - 1;
+			return this.sorted[Math.max (0, Math.min (rank, this.sorted.length - 1))] / 1e3;
+		}
+
+		String toJson () {
+			return String.format (java.util.Locale.ROOT,
+				"{\"name\": \"%s\", \"ops\": %d, \"errors\": %d, \"throughput\": %.1f, \"p50_us\": %.1f, \"p90_us\": %.1f, \"p99_us\": %.1f, \"max_us\": %.1f}",
+				this.name, this.ops, this.errors, this.throughput,
+				percentile (0.50), percentile (0.90), percentile (0.99), percentile (1.0));
+		}
+	}//end Result
+
+	private final DBproject _esql;
+	private final long _warmupNanos;
+	private final long _measureNanos;
+	private final int _threads;
+	private final List<Result> _results = new ArrayList<Result>();
+
+	//samples of the loaded data
+	private int[] _flights;
+	private LocalDate[] _departures;
+	private int[] _rnums;
+	private int[] _cids;
+	private int[] _fids;
+	private String[] _statuses;
+	private int[] _customers;
+
+	//first ids written by the benchmark, everything from here on is removed
+	private int _technicianBase;
+	private int _flightBase;
+	private int _rnumBase;
+	private final AtomicLong _nextTechnician = new AtomicLong ();
+
+	public Benchmark(DBproject esql, double warmupSeconds, double seconds, int threads) {
+		this._esql = esql;
+		this._warmupNanos = (long) (warmupSeconds * 1e9);
+		this._measureNanos = (long) (seconds * 1e9);
+		this._threads = threads;
+	}
+
+	//waits for an asynchronous call, rethrowing its SQLException
+	private static <T> T join (CompletableFuture<T> future) throws SQLException {
+		try{
+			return future.join ();
+		}catch (CompletionException e){
+			if (e.getCause () instanceof SQLException)
+				throw (SQLException) e.getCause ();
+			throw e;
+		}//end try
+	}
+
+	private static int[] ints (List<List<String>> rows, int column) {
+		int[] values = new int[rows.size ()];
+		for (int i = 0; i < values.length; ++i)
+			values[i] = Integer.parseInt (rows.get (i).get (column).trim ());
+		return values;
+	}
+
+	//samples the rows the operations work on and remembers where new rows start
+	private void setUp () throws SQLException {
+		List<List<String>> flights = this._esql.executeQueryAndReturnResult (
+			"SELECT fnum, actual_departure_date FROM Flight ORDER BY random() LIMIT ?;", SAMPLES);
+		// the upsert sets every row of a pair to one status, so only pairs booked once, with a status
+		List<List<String>> reservations = this._esql.executeQueryAndReturnResult (
+			"SELECT MIN(rnum), cid, fid, MIN(status) FROM Reservation GROUP BY cid, fid\n" +
+			"HAVING COUNT(*) = 1 AND MIN(status) IS NOT NULL ORDER BY random() LIMIT ?;", SAMPLES);
+		List<List<String>> customers = this._esql.executeQueryAndReturnResult (
+			"SELECT id FROM Customer ORDER BY random() LIMIT ?;", SAMPLES);
+		if (flights.isEmpty () || reservations.isEmpty () || customers.isEmpty ())
+			throw new SQLException ("The benchmark needs a loaded database, run --generate or --load first");
+
+		this._flights = ints (flights, 0);
+		this._departures = new LocalDate[flights.size ()];
+		for (int i = 0; i < this._departures.length; ++i)
+			this._departures[i] = LocalDate.parse (flights.get (i).get (1));
+		this._rnums = ints (reservations, 0);
+		this._cids = ints (reservations, 1);
+		this._fids = ints (reservations, 2);
+		this._statuses = new String[reservations.size ()];
+		for (int i = 0; i < this._statuses.length; ++i)
+			this._statuses[i] = reservations.get (i).get (3).trim ();
+		this._customers = ints (customers, 0);
+
+		this._technicianBase = Integer.parseInt (this._esql.executeQueryAndReturnResult (
+			"SELECT COALESCE(MAX(id), 0) + 1 FROM Technician;").get (0).get (0));
+		this._nextTechnician.set (this._technicianBase);
+		this._flightBase = Integer.parseInt (this._esql.executeQueryAndReturnResult (
+			"SELECT COALESCE(MAX(fnum), 0) + 1 FROM Flight;").get (0).get (0));
+		for (int i = 0; i < SCRATCH_FLIGHTS; ++i)
+			DBproject.insertFlight (this._esql, this._flightBase + i, 100, 0, 1, LocalDate.now (), LocalDate.now ().plusDays (1),
+				"BENCH", "BENCH");
+		this._rnumBase = Integer.parseInt (this._esql.executeQueryAndReturnResult (
+			"SELECT COALESCE(MAX(rnum), 0) + 1 FROM Reservation;").get (0).get (0));
+		this._esql.executeQuery ("SELECT setval('reservation_rnum_seq', GREATEST(?, (SELECT last_value FROM reservation_rnum_seq)), false);",
+			this._rnumBase);
+	}
+
+	//removes the rows the write benchmarks added, waiting list rows hold no seat, and puts back the sampled statuses
+	private void tearDown () throws SQLException {
+		for (int i = 0; i < this._rnums.length; ++i)
+			this._esql.executeUpdate ("UPDATE Reservation SET status = ? WHERE rnum = ? AND status IS DISTINCT FROM ?;",
+				this._statuses[i], this._rnums[i], this._statuses[i]);
+		this._esql.executeUpdate ("DELETE FROM Reservation WHERE rnum >= ?;", this._rnumBase);
+		this._esql.executeUpdate ("DELETE FROM Flight WHERE fnum >= ?;", this._flightBase);
+		this._esql.executeUpdate ("DELETE FROM PassengersPerFlight WHERE fid >= ?;", this._flightBase);
+		this._esql.executeUpdate ("DELETE FROM Technician WHERE id >= ?;", this._technicianBase);
+	}
+
+	//runs the operation from every thread until the deadline
+	private List<Recorder> drive (final String name, final Operation op, long nanos) throws InterruptedException {
+		final List<Recorder> recorders = new ArrayList<Recorder>();
+		final AtomicLong calls = new AtomicLong ();
+		final CountDownLatch go = new CountDownLatch (1);
+		ExecutorService pool = Executors.newFixedThreadPool (this._threads);
+		final long[] deadline = new long[1];
+		for (int t = 0; t < this._threads; ++t){
+			final Recorder recorder = new Recorder ();
+			recorders.add (recorder);
+			pool.execute (() -> {
+				try{
+					go.await ();
+				}catch (InterruptedException e){
+					return;
+				}//end try
+				Metrics.Scope scope = this._esql.getMetrics ().begin (name);
+				while (System.nanoTime () < deadline[0]){
+					long i = calls.getAndIncrement ();
+					long start = System.nanoTime ();
+					try{
+						op.run (i);
+						recorder.record (System.nanoTime () - start);
+					}catch (SQLException e){
+						++recorder.errors;
+					}//end try
+				}//end while
+				this._esql.getMetrics ().end (scope);
+			});
+		}//end for
+		deadline[0] = System.nanoTime () + nanos;
+		go.countDown ();
+		pool.shutdown ();
+		pool.awaitTermination (1, TimeUnit.HOURS);
+		return recorders;
+	}
+
+	/**
+	 * Method to warm up and then measure one operation.
+	 *
+	 * @param name the name of the benchmark in the report
+	 * @param op the operation to call
+	 * @throws InterruptedException when interrupted while waiting for the threads
+	 */
+	void measure (String name, Operation op) throws InterruptedException {
+		drive (name, op, this._warmupNanos);
+		long start = System.nanoTime ();
+		List<Recorder> recorders = drive (name, op, this._measureNanos);
+		Result result = new Result (name, recorders, System.nanoTime () - start);
+		this._results.add (result);
+		System.out.println (String.format ("%-24s %9d ops %10.1f ops/s  p50 %9.1f us  p99 %9.1f us%s",
+			name, result.ops, result.throughput, result.percentile (0.50), result.percentile (0.99),
+			result.errors == 0 ? "" : "  " + result.errors + " errors"));
+	}
+
+	/**
+	 * Method to run every benchmark.
+	 *
+	 * @return the results in the order they ran
+	 * @throws Exception when the benchmark data cannot be set up
+	 */
+	public List<Result> run () throws Exception {
+		setUp ();
+		try{
+			final DBproject esql = this._esql;
+			final int n = this._flights.length;
+			final int m = this._cids.length;
+
+			measure ("insert_technician", i -> DBproject.insertTechnician (esql,
+				(int) this._nextTechnician.getAndIncrement (), "Benchmark"));
+			for (final int size : RESULT_SIZES)
+				measure ("query_rows_" + size, i -> esql.executeQueryAndReturnResult (
+					"SELECT rnum, cid, fid, status FROM Reservation WHERE rnum >= ? ORDER BY rnum LIMIT ?;",
+					(int) (i % 1000), size));
+			measure ("query_columns_" + RESULT_SIZES[RESULT_SIZES.length - 1], i -> esql.executeQueryForColumns (
+				"SELECT rnum, cid, fid, status FROM Reservation WHERE rnum >= ? ORDER BY rnum LIMIT ?;",
+				(int) (i % 1000), RESULT_SIZES[RESULT_SIZES.length - 1]));
+			measure ("seats_available", i -> esql.getSeatsAvailable (this._flights[(int) (i % n)], this._departures[(int) (i % n)]));
+			measure ("seats_available_async", i -> join (esql.getSeatsAvailableAsync (this._flights[(int) (i % n)],
+				this._departures[(int) (i % n)])));
+			measure ("repairs_per_plane", i -> esql.executeQueryAndReturnResult (DBproject.REPAIRS_PER_PLANE_SQL));
+			measure ("repairs_per_year", i -> esql.executeQueryAndReturnResult (DBproject.REPAIRS_PER_YEAR_SQL));
+			measure ("passengers_with_status", i -> esql.executeQueryAndReturnResult (DBproject.PASSENGERS_WITH_STATUS_SQL,
+				this._fids[(int) (i % m)], this._statuses[(int) (i % m)]));
+			// rewrites a reservation of a pair booked once with its own status, a no-op for the seats and counts
+			measure ("upsert_existing", i -> {
+				int k = (int) (i % m);
+				DBproject.bookFlight (esql, this._cids[k], this._fids[k], this._statuses[k]);
+			});
+			// waiting list entries on the scratch flights, inserts until every pair exists
+			measure ("upsert_new", i -> DBproject.bookFlight (esql, this._customers[(int) (i % this._customers.length)],
+				this._flightBase + (int) ((i / this._customers.length) % SCRATCH_FLIGHTS), "W"));
+		}finally{
+			tearDown ();
+		}
+		return this._results;
+	}
+
+	/**
+	 * Method to write the results as one JSON document.
+	 *
+	 * @param out where to write
+	 * @throws IOException when writing fails
+	 */
+	public void writeJson (Writer out) throws IOException {
+		PrintWriter json = new PrintWriter (out);
+		json.println ("{");
+		json.println ("  \"timestamp\": \"" + Instant.now () + "\",");
+		json.println ("  \"threads\": " + this._threads + ",");
+		json.println (String.format (java.util.Locale.ROOT, "  \"seconds\": %.1f,", this._measureNanos / 1e9));
+		json.println ("  \"benchmarks\": [");
+		for (int i = 0; i < this._results.size (); ++i)
+			json.println ("    " + this._results.get (i).toJson () + (i + 1 < this._results.size () ? "," : ""));
+		json.println ("  ]");
+		json.println ("}");
+		json.flush ();
+	}
+
+	static final Pattern BENCHMARK = Pattern.compile (
+		"\\{\"name\": \"(\\w+)\".*?\"throughput\": ([0-9.]+).*?\"p99_us\": ([0-9.]+)");
+
+	/**
+	 * Method to compare the results with an earlier report written by
+	 * writeJson.  A benchmark regresses when its throughput dropped or its
+	 * p99 latency rose by more than the tolerance.
+	 *
+	 * @param baseline the earlier report
+	 * @return the number of regressed benchmarks
+	 * @throws IOException when the report cannot be read
+	 */
+	public int compare (String baseline) throws IOException {
+		String text = new String (Files.readAllBytes (Paths.get (baseline)), StandardCharsets.UTF_8);
+		int regressions = 0;
+		for (Result result : this._results){
+			Matcher m = BENCHMARK.matcher (text);
+			while (m.find ()){
+				if (!m.group (1).equals (result.name))
+					continue;
+				double throughput = Double.parseDouble (m.group (2));
+				double p99 = Double.parseDouble (m.group (3));
+				boolean slower = result.throughput < throughput * (1 - TOLERANCE);
+				boolean tail = result.percentile (0.99) > p99 * (1 + TOLERANCE);
+				if (slower || tail){
+					++regressions;
+					System.out.println (String.format ("REGRESSION %s: %.1f ops/s (was %.1f), p99 %.1f us (was %.1f)",
+						result.name, result.throughput, throughput, result.percentile (0.99), p99));
+				}//end if
+				break;
+			}//end while
+		}//end for
+		return regressions;
+	}
+
+	/**
+	 * Method to run the --bench command.
+	 *
+	 * @param esql the database connection
+	 * @param args [seconds per benchmark] [threads] [output file|-] [baseline file]
+	 * @throws Exception when a benchmark cannot run or regressed against the baseline
+	 */
+	public static void main (DBproject esql, String[] args) throws Exception {
+		double seconds = args.length > 0 ? Double.parseDouble (args[0]) : 10;
+		int threads = args.length > 1 ? Integer.parseInt (args[1]) : 1;
+		String output = args.length > 2 ? args[2] : "-";
+		if (threads > esql.getPool ().getMaxSize ())
+			System.out.println ("Note: " + threads + " threads share " + esql.getPool ().getMaxSize ()
+				+ " connections, raise -Ddbproject.pool.max to avoid waiting");
+
+		Benchmark bench = new Benchmark (esql, Math.max (1, seconds / 5), seconds, threads);
+		bench.run ();
+		if (output.equals ("-")){
+			bench.writeJson (new java.io.OutputStreamWriter (System.out));
+		}else{
+			Writer out = new FileWriter (output);
+			try{
+				bench.writeJson (out);
+			}finally{
+				out.close ();
+			}
+		}//end if
+
+		if (args.length > 3){
+			int regressions = bench.compare (args[3]);
+			if (regressions > 0)
+				throw new IllegalStateException (regressions + " benchmark(s) regressed against " + args[3]);
+		}//end if
+	}
+}//end Benchmark
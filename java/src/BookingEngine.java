@@ -0,0 +1,273 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class books many (cid, fid, status) requests at once.  Requests are
+ * read as a stream and sent to the server in JDBC batches, each batch
+ * committed in its own transaction.  Each request is an upsert: the status
+ * of an existing reservation for the customer and flight is updated,
+ * otherwise a new reservation is inserted with the next reservation number.
+ *
+ */
+
+public class BookingEngine{
+	//requests sent to the server per JDBC batch
+	static final int BATCH_SIZE = Integer.getInteger ("dbproject.booking.batchSize", 1000);
+
+	/*
+	 * Reservation has no unique key on (cid, fid) - the sample data holds
+	 * duplicate pairs - so ON CONFLICT cannot be used.  The book_reservation
+	 * procedure of create.sql takes an advisory lock on the pair before the
+	 * update and the conditional insert, so two concurrent bookings of a new
+	 * pair cannot both insert.  Binds cid, fid, status.
+	 */
+	static final String UPSERT_SQL = "CALL book_reservation(?, ?, ?);";
+	//the lookup of book_reservation, explained by --check-plans
+	static final String PAIR_UPDATE_SQL = "UPDATE Reservation SET status = ?\nWHERE cid = ? AND fid = ?;";
+
+	/**
+	 * One booking request together with its outcome.
+	 */
+	public static class Booking{
+		public final int line;
+		public final int cid;
+		public final int fid;
+		public final String status;
+		//null while pending or when the booking succeeded
+		public String error;
+
+		public Booking(int line, int cid, int fid, String status) {
+			this.line = line;
+			this.cid = cid;
+			this.fid = fid;
+			this.status = status;
+		}
+
+		public boolean ok () {
+			return this.error == null;
+		}
+	}//end Booking
+
+	/**
+	 * Callback receiving every booking once its outcome is known.
+	 */
+	public interface Listener{
+		void outcome (Booking booking) throws IOException;
+	}//end Listener
+
+	/**
+	 * Totals of one bulk booking run.
+	 */
+	public static class Summary{
+		public long booked;
+		public long failed;
+		public long elapsedNanos;
+
+		public double perSecond () {
+			return this.elapsedNanos == 0 ? 0 : (this.booked + this.failed) * 1e9 / this.elapsedNanos;
+		}
+	}//end Summary
+
+	private final DBproject _esql;
+	private final int _batchSize;
+
+	public BookingEngine(DBproject esql, int batchSize) {
+		this._esql = esql;
+		this._batchSize = batchSize;
+	}
+
+	/**
+	 * Method to parse one request line of the form "cid fid status", with
+	 * the fields separated by commas or whitespace.  Malformed lines come
+	 * back as a booking that already carries its error.
+	 *
+	 * @param lineNo the line number, used in the report
+	 * @param line the request line
+	 * @return the parsed booking, or null for blank and comment lines
+	 */
+	public static Booking parse (int lineNo, String line) {
+		String trimmed = line.trim ();
+		if (trimmed.isEmpty () || trimmed.startsWith ("#"))
+			return null;
+		String[] fields = trimmed.split ("[,\\s]+");
+		try{
+			if (fields.length != 3)
+				throw new IllegalArgumentException ("expected cid, fid and status");
+			Booking booking = new Booking (lineNo, Integer.parseInt (fields[0]), Integer.parseInt (fields[1]), fields[2]);
+			if (!booking.status.equals ("W") && !booking.status.equals ("R") && !booking.status.equals ("C"))
+				booking.error = "invalid status " + booking.status;
+			return booking;
+		}catch (IllegalArgumentException e){
+			Booking booking = new Booking (lineNo, -1, -1, "");
+			booking.error = e instanceof NumberFormatException ? "invalid number: " + e.getMessage () : e.getMessage ();
+			return booking;
+		}//end try
+	}
+
+	/**
+	 * Method to book every request read from the input, a batch per
+	 * transaction.  Requests are buffered only up to the batch size.  When a
+	 * batch fails it is rolled back to its savepoint and replayed row by row
+	 * so that only the offending rows are reported as failed.  Outcomes are
+	 * reported once their batch is committed; when the commit fails, every
+	 * request of the batch is reported as failed.
+	 *
+	 * @param input the request lines
+	 * @param listener receives the outcome of every request, in input order
+	 * @return the totals of the run
+	 * @throws java.sql.SQLException when the requests cannot be read
+	 * @throws java.io.IOException when the listener fails
+	 */
+	public Summary book (final BufferedReader input, final Listener listener) throws SQLException, IOException {
+		final Summary summary = new Summary ();
+		long start = System.nanoTime ();
+		List<Booking> batch = new ArrayList<Booking>(this._batchSize);
+		int lineNo = 0;
+		String line;
+		while ((line = readLine (input)) != null){
+			Booking booking = parse (++lineNo, line);
+			if (booking == null)
+				continue;
+			batch.add (booking);
+			if (batch.size () >= this._batchSize){
+				commit (batch, summary, listener);
+				batch.clear ();
+			}//end if
+		}//end while
+		commit (batch, summary, listener);
+		summary.elapsedNanos = System.nanoTime () - start;
+		return summary;
+	}
+
+	private static String readLine (BufferedReader input) throws SQLException {
+		try{
+			return input.readLine ();
+		}catch (IOException e){
+			throw new SQLException ("Unable to read booking requests: " + e.getMessage (), e);
+		}//end try
+	}
+
+	//books one batch in its own transaction, then reports its outcomes
+	private void commit (final List<Booking> batch, Summary summary, Listener listener) throws IOException {
+		if (batch.isEmpty ())
+			return;
+		try{
+			this._esql.executeTransaction (conn -> {
+				flush (conn.connection, conn.statements.prepare (UPSERT_SQL), batch);
+				return null;
+			});
+		}catch (SQLException e){
+			// nothing of the batch was saved
+			for (Booking booking : batch)
+				if (booking.ok ())
+					booking.error = "not committed: " + e.getMessage ();
+		}//end try
+
+		for (Booking booking : batch){
+			if (booking.ok ())
+				++summary.booked;
+			else
+				++summary.failed;
+			listener.outcome (booking);
+		}//end for
+	}
+
+	//sends one batch, isolating failing rows when the batch is rejected
+	private void flush (Connection conn, PreparedStatement stmt, List<Booking> batch) throws SQLException {
+		int queued = 0;
+		for (Booking booking : batch){
+			if (!booking.ok ())
+				continue;
+			set (stmt, booking);
+			stmt.addBatch ();
+			++queued;
+		}//end for
+
+		if (queued > 0){
+			Savepoint savepoint = conn.setSavepoint ();
+			try{
+				stmt.executeBatch ();
+				conn.releaseSavepoint (savepoint);
+			}catch (BatchUpdateException e){
+				stmt.clearBatch ();
+				conn.rollback (savepoint);
+				retry (conn, stmt, batch);
+			}//end try
+		}//end if
+	}
+
+	//replays a rejected batch one row at a time, each behind its own savepoint
+	private void retry (Connection conn, PreparedStatement stmt, List<Booking> batch) throws SQLException {
+		for (Booking booking : batch){
+			if (!booking.ok ())
+				continue;
+			Savepoint savepoint = conn.setSavepoint ();
+			try{
+				set (stmt, booking);
+				stmt.executeUpdate ();
+				conn.releaseSavepoint (savepoint);
+			}catch (SQLException e){
+				conn.rollback (savepoint);
+				booking.error = e.getMessage ();
+			}//end try
+		}//end for
+	}
+
+	private static void set (PreparedStatement stmt, Booking booking) throws SQLException {
+		stmt.setInt (1, booking.cid);
+		stmt.setInt (2, booking.fid);
+		stmt.setString (3, booking.status);
+	}
+
+	/**
+	 * Method to run the --book command: reads requests from a file, or from
+	 * standard in when the name is "-", and prints one outcome line per
+	 * request followed by the totals.
+	 *
+	 * @param esql the database connection
+	 * @param source the request file name or "-"
+	 * @throws Exception when the input cannot be read
+	 */
+	public static void main (DBproject esql, String source) throws Exception {
+		BufferedReader input = source.equals ("-")
+			? new BufferedReader (new InputStreamReader (System.in), 1 << 16)
+			: new BufferedReader (new FileReader (source), 1 << 16);
+		final Writer out = new BufferedWriter (new OutputStreamWriter (System.out), 1 << 16);
+		try{
+			Summary summary = new BookingEngine (esql, BATCH_SIZE).book (input, booking -> {
+				out.write (booking.line + "\t" + booking.cid + "\t" + booking.fid + "\t" + booking.status + "\t"
+					+ (booking.ok () ? "OK" : "FAILED\t" + booking.error) + "\n");
+			});
+			out.write (String.format ("Booked %d, failed %d in %.1f ms (%.0f bookings/s)%n",
+				summary.booked, summary.failed, summary.elapsedNanos / 1e6, summary.perSecond ()));
+		}finally{
+			out.flush ();
+			input.close ();
+		}
+	}
+}//end BookingEngine
@@ -0,0 +1,478 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This class serves the menu operations as JSON over HTTP, on the JDK's
+ * built-in server.  Connections are accepted and read by the server's
+ * selector thread and kept alive between requests; each request is then
+ * handled on the asynchronous executor of DBproject (a virtual thread per
+ * request where available), on a pooled connection.
+ *
+ *   POST /planes        {"id", "make", "model", "age", "seats"}
+ *   POST /pilots        {"id", "fullname", "nationality"}
+ *   POST /flights       {"fnum", "cost", "num_sold", "num_stops", "departure", "arrival",
+ *                        "arrival_airport", "departure_airport"}
+ *   POST /technicians   {"id", "full_name"}
+ *   POST /bookings      {"cid", "fid", "status"}
+ *   GET  /flights/search?from=&amp;to=&amp;first=&amp;last=[&amp;order=departure|cost][&amp;offset=][&amp;limit=]
+ *   GET  /flights/connections?from=&amp;to=&amp;first=&amp;last=[&amp;objective=cheapest|fastest][&amp;legs=][&amp;layover=][&amp;limit=]
+ *   GET  /seats?fnum=&amp;departure=
+ *   GET  /reports/repairs-per-plane
+ *   GET  /reports/repairs-per-year
+ *   GET  /passengers?fnum=&amp;status=
+ *   GET  /metrics
+ *
+ * Requests carrying the same X-Session header count as one session for
+ * the replica routing: once it writes, its reads go to the primary.
+ *
+ * Dates are given as YYYY-MM-DD or "YYYY-MM-DD hh:mm".  Errors come back as
+ * {"error": message} with 400 for invalid input, 404 for an unknown flight
+ * or path, 409 when the data rejects the change (duplicate, full flight,
+ * missing reference) and 500 otherwise.
+ *
+ */
+
+public class BookingService{
+	static final String HOST = System.getProperty ("dbproject.http.host", "127.0.0.1");
+	//connections waiting to be accepted
+	static final int BACKLOG = Integer.getInteger ("dbproject.http.backlog", 1024);
+	//names the client session whose writes pin its reads to the primary
+	static final String SESSION_HEADER = "X-Session";
+	//largest request body accepted
+	static final int MAX_BODY = 64 * 1024;
+
+	/**
+	 * A request failing with a given HTTP status.
+	 */
+	static class HttpError extends Exception{
+		private static final long serialVersionUID = 1L;
+		final int status;
+
+		HttpError(int status, String message) {
+			super (message);
+			this.status = status;
+		}
+	}//end HttpError
+
+	/**
+	 * Handles the parameters of one request and returns the JSON body.
+	 */
+	interface Endpoint{
+		String handle (Map<String, String> params) throws Exception;
+	}//end Endpoint
+
+	private final DBproject _esql;
+	private final HttpServer _server;
+	private final ExecutorService _executor;
+
+	public BookingService(DBproject esql, int port) throws IOException {
+		this._esql = esql;
+		this._server = HttpServer.create (new InetSocketAddress (HOST, port), BACKLOG);
+		this._executor = DBproject.newAsyncExecutor ();
+		this._server.setExecutor (this._executor);
+
+		// the responses echo the parsed values, so "+5" or "007" come back as valid JSON numbers
+		route ("/planes", "POST", "AddPlane", 201, p -> {
+			int id = integer (p, "id");
+			DBproject.insertPlane (esql, id, string (p, "make"), string (p, "model"),
+				integer (p, "age"), integer (p, "seats"));
+			return "{\"id\": " + id + "}";
+		});
+		route ("/pilots", "POST", "AddPilot", 201, p -> {
+			int id = integer (p, "id");
+			DBproject.insertPilot (esql, id, string (p, "fullname"), string (p, "nationality"));
+			return "{\"id\": " + id + "}";
+		});
+		route ("/flights", "POST", "AddFlight", 201, p -> {
+			int fnum = integer (p, "fnum");
+			DBproject.insertFlight (esql, fnum, integer (p, "cost"), integer (p, "num_sold"),
+				integer (p, "num_stops"), ScriptRunner.date (string (p, "departure")), ScriptRunner.date (string (p, "arrival")),
+				string (p, "arrival_airport"), string (p, "departure_airport"));
+			return "{\"fnum\": " + fnum + "}";
+		});
+		route ("/flights/search", "GET", "SearchFlights", 200, p -> {
+			RouteIndex.Page page = esql.getRouteIndex ().search (string (p, "from"), string (p, "to"),
+				ScriptRunner.date (string (p, "first")), ScriptRunner.date (string (p, "last")),
+				p.containsKey ("order") ? RouteIndex.Order.of (p.get ("order")) : RouteIndex.Order.DEPARTURE,
+				p.containsKey ("offset") ? integer (p, "offset") : 0,
+				p.containsKey ("limit") ? integer (p, "limit") : RouteIndex.DEFAULT_LIMIT);
+			return matches (page);
+		});
+		route ("/flights/connections", "GET", "FindConnections", 200, p -> {
+			List<ConnectionFinder.Itinerary> itineraries = esql.getConnectionFinder ().search (string (p, "from"), string (p, "to"),
+				ScriptRunner.date (string (p, "first")), ScriptRunner.date (string (p, "last")),
+				p.containsKey ("objective") ? ConnectionFinder.Objective.of (p.get ("objective")) : ConnectionFinder.Objective.CHEAPEST,
+				p.containsKey ("legs") ? integer (p, "legs") : 2,
+				p.containsKey ("layover") ? integer (p, "layover") : 0,
+				p.containsKey ("limit") ? integer (p, "limit") : 10);
+			return itineraries (itineraries);
+		});
+		route ("/technicians", "POST", "AddTechnician", 201, p -> {
+			int id = integer (p, "id");
+			DBproject.insertTechnician (esql, id, string (p, "full_name"));
+			return "{\"id\": " + id + "}";
+		});
+		// 200, not 201: a booking is an upsert, updating the customer's reservation for the flight when there is one
+		route ("/bookings", "POST", "BookFlight", 200, p -> {
+			int cid = integer (p, "cid");
+			int fid = integer (p, "fid");
+			String status = ScriptRunner.status (string (p, "status"));
+			DBproject.bookFlight (esql, cid, fid, status);
+			return "{\"cid\": " + cid + ", \"fid\": " + fid + ", \"status\": " + quote (status) + "}";
+		});
+		route ("/seats", "GET", "ListNumberOfAvailableSeats", 200, p -> {
+			int fnum = integer (p, "fnum");
+			Integer available = esql.getSeatsAvailable (fnum, ScriptRunner.date (string (p, "departure")));
+			if (available == null)
+				throw new HttpError (404, "Flight " + fnum + " departing " + p.get ("departure") + " does not exist");
+			return "{\"fnum\": " + fnum + ", \"seats_available\": " + available + "}";
+		});
+		route ("/reports/repairs-per-plane", "GET", "ListsTotalNumberOfRepairsPerPlane", 200,
+			p -> rows (esql.executeQueryForColumns (DBproject.REPAIRS_PER_PLANE_SQL), "plane_id", "repairs"));
+		route ("/reports/repairs-per-year", "GET", "ListTotalNumberOfRepairsPerYear", 200,
+			p -> rows (esql.executeQueryForColumns (DBproject.REPAIRS_PER_YEAR_SQL), "year", "repairs"));
+		route ("/passengers", "GET", "FindPassengersCountWithStatus", 200, p -> {
+			int fnum = integer (p, "fnum");
+			String status = ScriptRunner.status (string (p, "status"));
+			long[] count = esql.executeQueryForColumns (DBproject.PASSENGERS_WITH_STATUS_SQL, fnum, status).longs (1);
+			return "{\"fnum\": " + fnum + ", \"status\": " + quote (status) + ", \"count\": " + count[0] + "}";
+		});
+		this._server.createContext ("/metrics", exchange -> {
+			exchange.getResponseHeaders ().set ("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			send (exchange, 200, esql.getMetrics ().render ());
+		});
+	}
+
+	//registers an endpoint answering exactly one path and method
+	private void route (final String path, final String method, final String operation, final int status, final Endpoint endpoint) {
+		this._server.createContext (path, exchange -> {
+			Metrics metrics = this._esql.getMetrics ();
+			Metrics.Scope scope = metrics.begin (operation);
+			// requests of one client session read their own writes
+			ReplicaRouter router = this._esql.getReplicaRouter ();
+			Object session = router.bind (exchange.getRequestHeaders ().getFirst (SESSION_HEADER));
+			int code = status;
+			String body;
+			try{
+				if (!exchange.getRequestURI ().getPath ().equals (path))
+					throw new HttpError (404, "No such resource " + exchange.getRequestURI ().getPath ());
+				if (!exchange.getRequestMethod ().equals (method)){
+					exchange.getResponseHeaders ().set ("Allow", method);
+					throw new HttpError (405, method + " only");
+				}//end if
+				Map<String, String> params = method.equals ("GET")
+					? query (exchange.getRequestURI ().getRawQuery ())
+					: object (body (exchange));
+				body = endpoint.handle (params);
+			}catch (Exception e){
+				metrics.error ();
+				code = statusOf (e);
+				body = "{\"error\": " + quote (e.getMessage () == null ? e.toString () : e.getMessage ()) + "}";
+			}finally{
+				router.bind (session);
+				metrics.end (scope);
+			}
+			exchange.getResponseHeaders ().set ("Content-Type", "application/json");
+			send (exchange, code, body);
+		});
+	}
+
+	//maps a failure to the HTTP status reported for it
+	static int statusOf (Exception e) {
+		if (e instanceof HttpError)
+			return ((HttpError) e).status;
+		if (e instanceof IllegalArgumentException || e instanceof DateTimeParseException)
+			return 400;
+		if (e instanceof SQLException){
+			String state = ((SQLException) e).getSQLState ();
+			// integrity constraint violations: full flight, duplicate key, missing reference
+			return state != null && state.startsWith ("23") ? 409 : 500;
+		}//end if
+		return 500;
+	}
+
+	private static void send (HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes (StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders (status, bytes.length);
+		OutputStream out = exchange.getResponseBody ();
+		try{
+			out.write (bytes);
+		}finally{
+			out.close ();
+		}
+	}
+
+	private static String body (HttpExchange exchange) throws IOException, HttpError {
+		InputStream in = exchange.getRequestBody ();
+		try{
+			byte[] bytes = in.readNBytes (MAX_BODY + 1);
+			if (bytes.length > MAX_BODY)
+				throw new HttpError (413, "Request body over " + MAX_BODY + " bytes");
+			return new String (bytes, StandardCharsets.UTF_8);
+		}finally{
+			in.close ();
+		}
+	}
+
+	static Map<String, String> query (String raw) throws UnsupportedEncodingException {
+		Map<String, String> params = new HashMap<String, String>();
+		if (raw == null || raw.isEmpty ())
+			return params;
+		for (String pair : raw.split ("&")){
+			int eq = pair.indexOf ('=');
+			if (eq < 0)
+				params.put (URLDecoder.decode (pair, "UTF-8"), "");
+			else
+				params.put (URLDecoder.decode (pair.substring (0, eq), "UTF-8"), URLDecoder.decode (pair.substring (eq + 1), "UTF-8"));
+		}//end for
+		return params;
+	}
+
+	/**
+	 * Method to parse a flat JSON object, the only shape the endpoints take.
+	 * Values are kept as their text: strings unescaped, numbers, true, false
+	 * and null as written.
+	 *
+	 * @param json the request body
+	 * @return the members by name
+	 * @throws IllegalArgumentException when the body is not a flat JSON object
+	 */
+	static Map<String, String> object (String json) {
+		Map<String, String> members = new HashMap<String, String>();
+		int[] at = { skip (json, 0) };
+		expect (json, at, '{');
+		if (peek (json, at) == '}'){
+			++at[0];
+		}else{
+			while (true){
+				String name = string (json, at);
+				expect (json, at, ':');
+				String value = peek (json, at) == '"' ? string (json, at) : literal (json, at);
+				members.put (name, value);
+				if (peek (json, at) == ','){
+					++at[0];
+					continue;
+				}//end if
+				expect (json, at, '}');
+				break;
+			}//end while
+		}//end if
+		if (skip (json, at[0]) != json.length ())
+			throw new IllegalArgumentException ("Trailing characters after the JSON object");
+		return members;
+	}
+
+	private static int skip (String json, int i) {
+		while (i < json.length () && Character.isWhitespace (json.charAt (i)))
+			++i;
+		return i;
+	}
+
+	private static char peek (String json, int[] at) {
+		at[0] = skip (json, at[0]);
+		if (at[0] >= json.length ())
+			throw new IllegalArgumentException ("Unexpected end of the JSON body");
+		return json.charAt (at[0]);
+	}
+
+	private static void expect (String json, int[] at, char c) {
+		if (peek (json, at) != c)
+			throw new IllegalArgumentException ("Expected '" + c + "' at offset " + at[0] + " of the JSON body");
+		++at[0];
+	}
+
+	private static String string (String json, int[] at) {
+		expect (json, at, '"');
+		StringBuilder value = new StringBuilder ();
+		while (at[0] < json.length ()){
+			char c = json.charAt (at[0]++);
+			if (c == '"')
+				return value.toString ();
+			if (c != '\\'){
+				value.append (c);
+				continue;
+			}//end if
+			if (at[0] >= json.length ())
+				break;
+			char e = json.charAt (at[0]++);
+			switch (e){
+				case 'b': value.append ('\b'); break;
+				case 'f': value.append ('\f'); break;
+				case 'n': value.append ('\n'); break;
+				case 'r': value.append ('\r'); break;
+				case 't': value.append ('\t'); break;
+				case 'u':
+					if (at[0] + 4 > json.length ())
+						throw new IllegalArgumentException ("Truncated \\u escape in the JSON body");
+					value.append ((char) Integer.parseInt (json.substring (at[0], at[0] + 4), 16));
+					at[0] += 4;
+					break;
+				default: value.append (e);
+			}
+		}//end while
+		throw new IllegalArgumentException ("Unterminated string in the JSON body");
+	}
+
+	private static String literal (String json, int[] at) {
+		int start = skip (json, at[0]);
+		int end = start;
+		while (end < json.length () && ",}".indexOf (json.charAt (end)) < 0 && !Character.isWhitespace (json.charAt (end)))
+			++end;
+		if (end == start)
+			throw new IllegalArgumentException ("Missing value at offset " + start + " of the JSON body");
+		at[0] = end;
+		return json.substring (start, end);
+	}
+
+	static String quote (String value) {
+		if (value == null)
+			return "null";
+		StringBuilder out = new StringBuilder (value.length () + 2).append ('"');
+		for (int i = 0; i < value.length (); ++i){
+			char c = value.charAt (i);
+			switch (c){
+				case '"': out.append ("\\\""); break;
+				case '\\': out.append ("\\\\"); break;
+				case '\n': out.append ("\\n"); break;
+				case '\r': out.append ("\\r"); break;
+				case '\t': out.append ("\\t"); break;
+				default:
+					if (c < 0x20)
+						out.append (String.format ("\\u%04x", (int) c));
+					else
+						out.append (c);
+			}
+		}//end for
+		return out.append ('"').toString ();
+	}
+
+	//renders report rows of integers as an array of objects
+	private static String rows (ResultColumns rows, String... names) {
+		int[][] columns = new int[names.length][];
+		for (int c = 0; c < names.length; ++c)
+			columns[c] = rows.ints (c + 1);
+		StringBuilder out = new StringBuilder (16 + rows.size () * 32).append ("{\"rows\": [");
+		for (int r = 0; r < rows.size (); ++r){
+			out.append (r == 0 ? "{" : ", {");
+			for (int c = 0; c < names.length; ++c)
+				out.append (c == 0 ? "" : ", ").append ('"').append (names[c]).append ("\": ").append (columns[c][r]);
+			out.append ('}');
+		}//end for
+		return out.append ("]}").toString ();
+	}
+
+	private static String matches (RouteIndex.Page page) {
+		StringBuilder out = new StringBuilder (64 + page.flights.size () * 128)
+			.append ("{\"total\": ").append (page.total).append (", \"offset\": ").append (page.offset).append (", \"flights\": [");
+		for (int i = 0; i < page.flights.size (); ++i){
+			RouteIndex.Match match = page.flights.get (i);
+			out.append (i == 0 ? "{" : ", {").append ("\"fnum\": ").append (match.fnum)
+				.append (", \"departure\": \"").append (match.departure).append ("\", \"arrival\": \"").append (match.arrival)
+				.append ("\", \"cost\": ").append (match.cost).append (", \"stops\": ").append (match.stops)
+				.append (", \"seats_left\": ").append (match.seatsLeft).append ('}');
+		}//end for
+		return out.append ("]}").toString ();
+	}
+
+	private static String itineraries (List<ConnectionFinder.Itinerary> itineraries) {
+		StringBuilder out = new StringBuilder (32 + itineraries.size () * 256).append ("{\"itineraries\": [");
+		for (int i = 0; i < itineraries.size (); ++i){
+			ConnectionFinder.Itinerary itinerary = itineraries.get (i);
+			out.append (i == 0 ? "{" : ", {").append ("\"cost\": ").append (itinerary.cost)
+				.append (", \"days\": ").append (itinerary.getDays ()).append (", \"legs\": [");
+			for (int l = 0; l < itinerary.legs.size (); ++l){
+				ConnectionFinder.Leg leg = itinerary.legs.get (l);
+				out.append (l == 0 ? "{" : ", {").append ("\"fnum\": ").append (leg.fnum)
+					.append (", \"from\": ").append (quote (leg.from)).append (", \"to\": ").append (quote (leg.to))
+					.append (", \"departure\": \"").append (leg.departure).append ("\", \"arrival\": \"").append (leg.arrival)
+					.append ("\", \"cost\": ").append (leg.cost).append ('}');
+			}//end for
+			out.append ("]}");
+		}//end for
+		return out.append ("]}").toString ();
+	}
+
+	private static String string (Map<String, String> params, String name) {
+		String value = params.get (name);
+		if (value == null || value.equals ("null"))
+			throw new IllegalArgumentException ("Missing " + name);
+		return value;
+	}
+
+	private static int integer (Map<String, String> params, String name) {
+		try{
+			return Integer.parseInt (string (params, name));
+		}catch (NumberFormatException e){
+			throw new IllegalArgumentException (name + " must be an integer, got " + params.get (name));
+		}//end try
+	}
+
+	public void start () {
+		this._server.start ();
+	}
+
+	/**
+	 * Method to stop accepting requests, give the running ones a moment to
+	 * finish, and release the request threads.
+	 */
+	public void stop () {
+		this._server.stop (1);
+		this._executor.shutdown ();
+	}
+
+	/**
+	 * Method to run the --serve command until the process is interrupted.
+	 *
+	 * @param esql the database connection
+	 * @param args [port], 8080 by default
+	 * @throws Exception when the server cannot be started
+	 */
+	public static void main (DBproject esql, String[] args) throws Exception {
+		int port = args.length > 0 ? Integer.parseInt (args[0]) : 8080;
+		BookingService service = new BookingService (esql, port);
+		final CountDownLatch stopped = new CountDownLatch (1);
+		final Thread main = Thread.currentThread ();
+		// on Ctrl-C, returns from main so the pool is closed before the JVM exits
+		Runtime.getRuntime ().addShutdownHook (new Thread (() -> {
+			stopped.countDown ();
+			try{
+				main.join (30000);
+			}catch (InterruptedException e){
+				// exiting anyway
+			}//end try
+		}));
+		service.start ();
+		System.out.println ("Serving on http://" + HOST + ":" + port + "/, " + esql.getPool ().getMaxSize ()
+			+ " pooled connections; Ctrl-C to stop");
+		stopped.await ();
+		service.stop ();
+	}
+}//end BookingService
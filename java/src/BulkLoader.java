@@ -0,0 +1,284 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * This class loads the data/ CSV files from the client through COPY FROM
+ * STDIN, so the files do not have to be on the database host.  Files are
+ * streamed, never read into memory.  Tables without foreign keys are loaded
+ * in parallel first, then the tables referencing them, again in parallel.
+ * User triggers are switched off while a table loads; the summaries they
+ * maintain are rebuilt at the end, also when a table failed to load after
+ * others were committed, and the ids of the partitioned tables are checked
+ * for duplicates.  The yearly partitions of the dates a source holds are
+ * created before its rows arrive, so no row has to be moved out of a
+ * default partition afterwards.
+ *
+ * ALTER TABLE ... DISABLE TRIGGER takes an ACCESS EXCLUSIVE lock, held
+ * until the table's load commits, so other sessions can neither read nor
+ * write a table while it loads.  Being part of the load transaction, the
+ * change is rolled back with it when the load fails or the connection
+ * drops, so the triggers are never left off.
+ *
+ */
+
+public class BulkLoader{
+
+	/**
+	 * Feeds the rows of one table into a COPY FROM STDIN statement.
+	 */
+	public interface Source{
+		long copy (PGConnection conn, Table table, String copySql) throws SQLException, IOException;
+
+		/**
+		 * The first and last date of the partition column of a partitioned
+		 * table, so its partitions exist before the rows arrive; null when
+		 * not known in advance.
+		 */
+		default LocalDate[] dates (Table table) {
+			return null;
+		}
+	}//end Source
+
+	/**
+	 * Source reading the CSV file of each table from a directory.
+	 */
+	static class FileSource implements Source{
+		private final File _dir;
+
+		FileSource(File dir) {
+			this._dir = dir;
+		}
+
+		public long copy (PGConnection conn, Table table, String copySql) throws SQLException, IOException {
+			CopyManager copy = conn.getCopyAPI ();
+			BufferedReader reader = new BufferedReader (new FileReader (new File (this._dir, table.file)), 1 << 16);
+			try{
+				return copy.copyIn (copySql, reader);
+			}finally{
+				reader.close ();
+			}
+		}
+
+		//scans the file for the first and last date of the partition column
+		public LocalDate[] dates (Table table) {
+			int t = Arrays.asList (Partitions.TABLES).indexOf (table.name);
+			if (t < 0)
+				return null;
+			int column = Arrays.asList (table.columns.split (",\\s*")).indexOf (Partitions.KEYS[t]);
+			LocalDate first = null;
+			LocalDate last = null;
+			try{
+				BufferedReader reader = new BufferedReader (new FileReader (new File (this._dir, table.file)), 1 << 16);
+				try{
+					String line;
+					while ((line = reader.readLine ()) != null){
+						String[] fields = line.split (",", column + 2);
+						if (fields.length <= column)
+							continue;
+						// dates or timestamps, the day comes first
+						LocalDate day = LocalDate.parse (fields[column].trim ().substring (0, 10));
+						if (first == null || day.isBefore (first))
+							first = day;
+						if (last == null || day.isAfter (last))
+							last = day;
+					}//end while
+				}finally{
+					reader.close ();
+				}
+			}catch (IOException | RuntimeException e){
+				// the rows go through the default partition, the load reports a bad file
+				return null;
+			}//end try
+			return first == null ? null : new LocalDate[] { first, last };
+		}
+	}//end FileSource
+
+	/**
+	 * One table, the CSV file feeding it and its column list.
+	 */
+	public static class Table{
+		final String name;
+		final String file;
+		final String columns;
+
+		Table(String name, String file, String columns) {
+			this.name = name;
+			this.file = file;
+			this.columns = columns;
+		}
+	}//end Table
+
+	//tables without foreign keys
+	static final Table[] INDEPENDENT = {
+		new Table ("Customer", "customer.csv", "id, fname, lname, gtype, dob, address, phone, zipcode"),
+		new Table ("Pilot", "pilots.csv", "id, fullname, nationality"),
+		new Table ("Plane", "planes.csv", "id, make, model, age, seats"),
+		new Table ("Technician", "technician.csv", "id, full_name"),
+		new Table ("Flight", "flights.csv", "fnum, cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport"),
+	};
+
+	//tables referencing only the independent ones
+	static final Table[] DEPENDENT = {
+		new Table ("Reservation", "reservation.csv", "rnum, cid, fid, status"),
+		new Table ("FlightInfo", "flightinfo.csv", "fiid, flight_id, pilot_id, plane_id"),
+		new Table ("Repairs", "repairs.csv", "rid, repair_date, repair_code, pilot_id, plane_id, technician_id"),
+		new Table ("Schedule", "schedule.csv", "id, flightNum, departure_time, arrival_time"),
+	};
+
+	private final DBproject _esql;
+	private final Source _source;
+
+	public BulkLoader(DBproject esql, Source source) {
+		this._esql = esql;
+		this._source = source;
+	}
+
+	/**
+	 * Method to stream one table from the source in its own transaction.
+	 *
+	 * @param table the table to load
+	 * @return the number of rows copied
+	 * @throws Exception when the source cannot be read or the COPY fails
+	 */
+	long copy (final Table table) throws Exception {
+		long start = System.nanoTime ();
+		long rows = this._esql.executeTransaction (conn -> {
+			Statement stmt = conn.connection.createStatement ();
+			try{
+				stmt.execute ("ALTER TABLE " + table.name + " DISABLE TRIGGER USER;");
+				long copied = this._source.copy (conn.connection.unwrap (PGConnection.class), table,
+					"COPY " + table.name + " (" + table.columns + ") FROM STDIN WITH DELIMITER ',';");
+				stmt.execute ("ALTER TABLE " + table.name + " ENABLE TRIGGER USER;");
+				return copied;
+			}catch (IOException e){
+				throw new SQLException ("Unable to read the rows of " + table.name + ": " + e.getMessage (), e);
+			}finally{
+				stmt.close ();
+			}
+		});
+		long elapsed = System.nanoTime () - start;
+		synchronized (System.out){
+			System.out.println (String.format ("%-12s %10d rows in %8.1f ms (%.0f rows/s)",
+				table.name, rows, elapsed / 1e6, rows * 1e9 / Math.max (1, elapsed)));
+		}
+		return rows;
+	}
+
+	//loads a group of tables in parallel and waits for all of them
+	private long copyAll (ExecutorService workers, Table[] tables) throws Exception {
+		List<Future<Long>> loads = new ArrayList<Future<Long>>();
+		for (final Table table : tables)
+			loads.add (workers.submit (() -> copy (table)));
+		long rows = 0;
+		Exception failure = null;
+		for (Future<Long> load : loads){
+			try{
+				rows += load.get ();
+			}catch (ExecutionException e){
+				if (failure == null)
+					failure = e.getCause () instanceof Exception ? (Exception) e.getCause () : e;
+			}//end try
+		}//end for
+		if (failure != null)
+			throw failure;
+		return rows;
+	}
+
+	/**
+	 * Method to load every table, optionally emptying them first.
+	 *
+	 * @param truncate whether to empty all tables before loading
+	 * @throws Exception when a table fails to load
+	 */
+	public void load (boolean truncate) throws Exception {
+		if (truncate)
+			this._esql.executeUpdate ("TRUNCATE Customer, Pilot, Plane, Technician, Flight, Reservation, FlightInfo, Repairs, Schedule, RepairsPerPlane, RepairsPerYear, PassengersPerFlight;");
+
+		long start = System.nanoTime ();
+		ExecutorService workers = Executors.newFixedThreadPool (INDEPENDENT.length);
+		long rows = 0;
+		Exception failure = null;
+		try{
+			rows = copyAll (workers, INDEPENDENT);
+			for (Table table : DEPENDENT){
+				LocalDate[] dates = this._source.dates (table);
+				if (dates != null)
+					Partitions.ensure (this._esql, table.name, dates[0], dates[1]);
+			}//end for
+			rows += copyAll (workers, DEPENDENT);
+
+			// rows of years without a partition went to the default partition
+			for (String table : Partitions.TABLES)
+				Partitions.split (this._esql, table);
+		}catch (Exception e){
+			failure = e;
+		}finally{
+			workers.shutdown ();
+		}
+
+		// the triggers were off for every table committed so far, bring what
+		// they maintain up to date even when a later table failed
+		try{
+			this._esql.executeQuery ("SELECT setval('reservation_rnum_seq', (SELECT COALESCE(MAX(rnum), 0) + 1 FROM Reservation), false);");
+			RepairStats.rebuild (this._esql);
+			PassengerCounts.rebuild (this._esql);
+		}catch (SQLException e){
+			if (failure == null)
+				throw e;
+			failure.addSuppressed (e);
+		}//end try
+		if (failure != null)
+			throw failure;
+		// the uniqueness trigger of rid and id was off as well
+		Partitions.checkIds (this._esql);
+		this._esql.executeUpdate ("ANALYZE;");
+
+		long elapsed = System.nanoTime () - start;
+		System.out.println (String.format ("%-12s %10d rows in %8.1f ms (%.0f rows/s)",
+			"Total", rows, elapsed / 1e6, rows * 1e9 / Math.max (1, elapsed)));
+	}
+
+	/**
+	 * Method to run the --load command.
+	 *
+	 * @param esql the database connection
+	 * @param args &lt;data directory&gt; [--truncate]
+	 * @throws Exception when loading fails
+	 */
+	public static void main (DBproject esql, String[] args) throws Exception {
+		if (args.length < 1 || args.length > 2 || (args.length == 2 && !args[1].equals ("--truncate")))
+			throw new IllegalArgumentException ("Usage: --load <data directory> [--truncate]");
+		if (esql.getPool ().getMaxSize () < INDEPENDENT.length)
+			System.out.println ("Note: " + esql.getPool ().getMaxSize () + " connections for " + INDEPENDENT.length
+				+ " parallel loads, raise -Ddbproject.pool.max to load every table at once");
+		new BulkLoader (esql, new FileSource (new File (args[0]))).load (args.length == 2);
+	}
+}//end BulkLoader
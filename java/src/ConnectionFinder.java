@@ -0,0 +1,560 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class finds itineraries of one or more connecting flights between
+ * two airports.  The flights form a graph with the airports as nodes and
+ * every flight as an edge from its departure to its arrival airport at its
+ * dates.  The graph is held in primitive arrays: the flights of each airport
+ * sorted by departure day (compressed sparse rows), so the connections out
+ * of an airport after a given day are a binary search and a scan.
+ *
+ * A search is a Dijkstra over partial itineraries, each ending in a flight.
+ * Reaching a flight fixes where and when the traveller is, but what can
+ * follow also depends on the legs left, on the day the trip started (it
+ * must end within the trip limit) and on the airports already visited (none
+ * twice).  A way to take a flight is therefore only dropped when one settled
+ * before it, so at no higher cost (or duration), took the same flight with
+ * as few legs, a start no earlier and no airport the dropped one has not
+ * visited too: it can go on wherever the dropped one could.  The best
+ * itineraries end in the first flights into the destination that are
+ * settled.  Flight only carries dates, so times and layovers are whole
+ * days; a connection departs at least the minimum layover after the day
+ * the previous leg arrives, and a trip lasts at most
+ * dbproject.connections.maxTripDays.
+ *
+ * The graph is immutable and replaced as a whole, so any number of searches
+ * run in parallel on the graph they started with.  Flights added by
+ * AddFlight go to a small unsorted extension of the graph, folded into the
+ * sorted arrays once it holds dbproject.connections.rebuildAt flights.
+ *
+ */
+
+public class ConnectionFinder{
+	//flights added before the sorted arrays are rebuilt
+	static final int REBUILD_AT = Integer.getInteger ("dbproject.connections.rebuildAt", 1024);
+	static final int MAX_TRIP_DAYS = Integer.getInteger ("dbproject.connections.maxTripDays", 7);
+	//states a single search may explore before it returns what it found
+	static final int MAX_STATES = Integer.getInteger ("dbproject.connections.maxStates", 1000000);
+	static final int MAX_LEGS = 4;
+	static final int MAX_RESULTS = 100;
+
+	static final String LOAD_SQL =
+		"SELECT fnum, cost, actual_departure_date, actual_arrival_date, departure_airport, arrival_airport\nFROM Flight;";
+
+	/**
+	 * What makes one itinerary better than another.
+	 */
+	public enum Objective{
+		//lowest total cost, then earliest arrival
+		CHEAPEST,
+		//fewest days from first departure to last arrival, then lowest cost
+		FASTEST;
+
+		public static Objective of (String name) {
+			try{
+				return valueOf (name.toUpperCase (Locale.ROOT));
+			}catch (IllegalArgumentException e){
+				throw new IllegalArgumentException ("Unknown objective " + name + ", expected cheapest or fastest");
+			}//end try
+		}
+	}//end Objective
+
+	/**
+	 * One flight of an itinerary.
+	 */
+	public static final class Leg{
+		public final int fnum;
+		public final String from;
+		public final String to;
+		public final LocalDate departure;
+		public final LocalDate arrival;
+		public final int cost;
+
+		Leg(int fnum, String from, String to, LocalDate departure, LocalDate arrival, int cost) {
+			this.fnum = fnum;
+			this.from = from;
+			this.to = to;
+			this.departure = departure;
+			this.arrival = arrival;
+			this.cost = cost;
+		}
+	}//end Leg
+
+	/**
+	 * Connecting flights from the origin to the destination.
+	 */
+	public static final class Itinerary{
+		public final List<Leg> legs;
+		public final int cost;
+
+		Itinerary(List<Leg> legs, int cost) {
+			this.legs = legs;
+			this.cost = cost;
+		}
+
+		public LocalDate getDeparture () {
+			return this.legs.get (0).departure;
+		}
+
+		public LocalDate getArrival () {
+			return this.legs.get (this.legs.size () - 1).arrival;
+		}
+
+		public long getDays () {
+			return getArrival ().toEpochDay () - getDeparture ().toEpochDay ();
+		}
+	}//end Itinerary
+
+	/**
+	 * An immutable flight graph.  Edges 0 to sorted - 1 are ordered by
+	 * departure airport and day, those of airport a from first[a] to
+	 * first[a + 1] - 1; the edges after them were added since and are in no
+	 * particular order.  Days are epoch days.
+	 */
+	static final class Graph{
+		final String[] airports;
+		final Map<String, Integer> ids;
+		final int[] first;
+		final int sorted;
+		final int size;
+		final int[] fnum;
+		final int[] cost;
+		final int[] dep;
+		final int[] arr;
+		final int[] from;
+		final int[] to;
+
+		Graph(String[] airports, Map<String, Integer> ids, int[] first, int sorted, int size,
+				int[] fnum, int[] cost, int[] dep, int[] arr, int[] from, int[] to) {
+			this.airports = airports;
+			this.ids = ids;
+			this.first = first;
+			this.sorted = sorted;
+			this.size = size;
+			this.fnum = fnum;
+			this.cost = cost;
+			this.dep = dep;
+			this.arr = arr;
+			this.from = from;
+			this.to = to;
+		}
+
+		//the first sorted edge of an airport departing on or after a day
+		int lowerBound (int airport, int day) {
+			if (airport >= this.first.length - 1)
+				return 0;
+			int lo = this.first[airport];
+			int hi = this.first[airport + 1];
+			while (lo < hi){
+				int mid = (lo + hi) >>> 1;
+				if (this.dep[mid] < day)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}//end while
+			return lo;
+		}
+
+		//the end of the sorted edges of an airport
+		int end (int airport) {
+			return airport >= this.first.length - 1 ? 0 : this.first[airport + 1];
+		}
+	}//end Graph
+
+	/**
+	 * The working arrays of one search, pooled between searches.  A flight's
+	 * settled states are valid only where its stamp is the current one, so
+	 * nothing is cleared between searches.
+	 */
+	static final class Scratch{
+		int[] stamp = new int[0];
+		//the last settled state of each flight, the others chained through settled
+		int[] label = new int[0];
+		int generation = 0;
+		//explored states
+		int states = 0;
+		int[] edge = new int[1024];
+		int[] parent = new int[1024];
+		int[] count = new int[1024];
+		int[] cost = new int[1024];
+		int[] start = new int[1024];
+		long[] key = new long[1024];
+		//the state settled before on the same flight, -1 for none
+		int[] settled = new int[1024];
+		//binary heap of states by key
+		int[] heap = new int[1024];
+		int heapSize = 0;
+
+		void reset (int edges) {
+			if (this.stamp.length < edges){
+				int capacity = Math.max (edges, this.stamp.length * 2);
+				this.stamp = new int[capacity];
+				this.label = new int[capacity];
+				this.generation = 0;
+			}//end if
+			if (++this.generation == 0){
+				Arrays.fill (this.stamp, 0);
+				this.generation = 1;
+			}//end if
+			this.states = 0;
+			this.heapSize = 0;
+		}
+
+		int push (int e, int parentState, int legs, int totalCost, int startDay, long order) {
+			if (this.states == this.edge.length){
+				int capacity = this.states * 2;
+				this.edge = Arrays.copyOf (this.edge, capacity);
+				this.parent = Arrays.copyOf (this.parent, capacity);
+				this.count = Arrays.copyOf (this.count, capacity);
+				this.cost = Arrays.copyOf (this.cost, capacity);
+				this.start = Arrays.copyOf (this.start, capacity);
+				this.key = Arrays.copyOf (this.key, capacity);
+				this.settled = Arrays.copyOf (this.settled, capacity);
+				this.heap = Arrays.copyOf (this.heap, capacity);
+			}//end if
+			int s = this.states++;
+			this.edge[s] = e;
+			this.parent[s] = parentState;
+			this.count[s] = legs;
+			this.cost[s] = totalCost;
+			this.start[s] = startDay;
+			this.key[s] = order;
+			int i = this.heapSize++;
+			while (i > 0){
+				int up = (i - 1) >>> 1;
+				if (this.key[this.heap[up]] <= order)
+					break;
+				this.heap[i] = this.heap[up];
+				i = up;
+			}//end while
+			this.heap[i] = s;
+			return s;
+		}
+
+		int pop () {
+			int top = this.heap[0];
+			int last = this.heap[--this.heapSize];
+			int i = 0;
+			while (true){
+				int child = 2 * i + 1;
+				if (child >= this.heapSize)
+					break;
+				if (child + 1 < this.heapSize && this.key[this.heap[child + 1]] < this.key[this.heap[child]])
+					++child;
+				if (this.key[this.heap[child]] >= this.key[last])
+					break;
+				this.heap[i] = this.heap[child];
+				i = child;
+			}//end while
+			if (this.heapSize > 0)
+				this.heap[i] = last;
+			return top;
+		}
+	}//end Scratch
+
+	private final DBproject _esql;
+	private volatile Graph _graph = null;
+	private final ConcurrentLinkedQueue<Scratch> _scratch = new ConcurrentLinkedQueue<Scratch>();
+
+	private final AtomicLong _searches = new AtomicLong ();
+	private final AtomicLong _rebuilds = new AtomicLong ();
+
+	public ConnectionFinder(DBproject esql) {
+		this._esql = esql;
+	}
+
+	static String airport (String code) {
+		return code.trim ().toUpperCase (Locale.ROOT);
+	}
+
+	private synchronized Graph load () throws SQLException {
+		if (this._graph != null)
+			return this._graph;
+		// every flight, streamed through a cursor so the driver does not hold them all twice
+		ResultColumns rows = new ResultColumns ();
+		this._esql.executeQueryAndStreamResult (LOAD_SQL, DBproject.FETCH_SIZE, rows);
+		rows.finish ();
+		int n = rows.size ();
+		LocalDate[] departure = rows.dates (3);
+		LocalDate[] arrival = rows.dates (4);
+		String[] from = rows.strings (5);
+		String[] to = rows.strings (6);
+		int[] dep = new int[n];
+		int[] arr = new int[n];
+		int[] fromId = new int[n];
+		int[] toId = new int[n];
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		List<String> names = new ArrayList<String>();
+		for (int r = 0; r < n; ++r){
+			dep[r] = (int) departure[r].toEpochDay ();
+			arr[r] = (int) arrival[r].toEpochDay ();
+			fromId[r] = id (ids, names, airport (from[r]));
+			toId[r] = id (ids, names, airport (to[r]));
+		}//end for
+		this._graph = build (names.toArray (new String[names.size ()]), ids, n, rows.ints (1), rows.ints (2), dep, arr, fromId, toId);
+		return this._graph;
+	}
+
+	private static int id (Map<String, Integer> ids, List<String> names, String code) {
+		Integer id = ids.get (code);
+		if (id == null){
+			id = names.size ();
+			ids.put (code, id);
+			names.add (code);
+		}//end if
+		return id;
+	}
+
+	//sorts the first n edges by departure airport (counting sort) and day
+	static Graph build (String[] airports, Map<String, Integer> ids, int n,
+			int[] fnum, int[] cost, int[] dep, int[] arr, int[] from, int[] to) {
+		int[] first = new int[airports.length + 1];
+		for (int e = 0; e < n; ++e)
+			++first[from[e] + 1];
+		for (int a = 0; a < airports.length; ++a)
+			first[a + 1] += first[a];
+		int[] next = Arrays.copyOf (first, airports.length);
+		int[] order = new int[n];
+		for (int e = 0; e < n; ++e)
+			order[next[from[e]]++] = e;
+		// within an airport by day: day in the high half, edge in the low half
+		long[] keys = new long[n];
+		for (int i = 0; i < n; ++i)
+			keys[i] = ((long) dep[order[i]] << 32) | order[i];
+		for (int a = 0; a < airports.length; ++a)
+			Arrays.sort (keys, first[a], first[a + 1]);
+		int[][] columns = { fnum, cost, dep, arr, from, to };
+		int[][] sorted = new int[columns.length][n];
+		for (int i = 0; i < n; ++i){
+			int e = (int) keys[i];
+			for (int c = 0; c < columns.length; ++c)
+				sorted[c][i] = columns[c][e];
+		}//end for
+		return new Graph (airports, ids, first, n, n, sorted[0], sorted[1], sorted[2], sorted[3], sorted[4], sorted[5]);
+	}
+
+	/**
+	 * Method to add a flight just written by AddFlight.  Nothing is done
+	 * before the first search, which loads the flight with all the others.
+	 *
+	 * @param fnum the flight number
+	 * @param cost the flight cost
+	 * @param departure the departure date
+	 * @param arrival the arrival date
+	 * @param from the departure airport
+	 * @param to the arrival airport
+	 */
+	public synchronized void add (int fnum, int cost, LocalDate departure, LocalDate arrival, String from, String to) {
+		Graph g = this._graph;
+		if (g == null)
+			return;
+		String[] airports = g.airports;
+		Map<String, Integer> ids = g.ids;
+		String[] codes = { airport (from), airport (to) };
+		for (String code : codes){
+			if (ids.containsKey (code))
+				continue;
+			// copied, the published graph keeps its own
+			ids = new HashMap<String, Integer>(ids);
+			ids.put (code, airports.length);
+			airports = Arrays.copyOf (airports, airports.length + 1);
+			airports[airports.length - 1] = code;
+		}//end for
+		int n = g.size + 1;
+		// the arrays have room past size, taken by copying when they do not
+		int capacity = g.fnum.length >= n ? g.fnum.length : Math.max (n, g.sorted + REBUILD_AT);
+		int[][] columns = { g.fnum, g.cost, g.dep, g.arr, g.from, g.to };
+		int[] values = { fnum, cost, (int) departure.toEpochDay (), (int) arrival.toEpochDay (), ids.get (codes[0]), ids.get (codes[1]) };
+		for (int c = 0; c < columns.length; ++c){
+			// published edges are never written, so an in-place append is safe
+			if (capacity != columns[c].length)
+				columns[c] = Arrays.copyOf (columns[c], capacity);
+			columns[c][g.size] = values[c];
+		}//end for
+		if (n - g.sorted >= REBUILD_AT){
+			this._graph = build (airports, ids, n, columns[0], columns[1], columns[2], columns[3], columns[4], columns[5]);
+			this._rebuilds.incrementAndGet ();
+		}else{
+			this._graph = new Graph (airports, ids, g.first, g.sorted, n, columns[0], columns[1], columns[2], columns[3], columns[4], columns[5]);
+		}//end if
+	}
+
+	/**
+	 * Method to find the best itineraries between two airports.
+	 *
+	 * @param from the origin airport
+	 * @param to the destination airport
+	 * @param first the first day the trip may start
+	 * @param last the last day the trip may start
+	 * @param objective cheapest or fastest
+	 * @param maxLegs the most flights per itinerary, 1 to MAX_LEGS
+	 * @param minLayover the fewest days between arriving and departing again
+	 * @param limit the number of itineraries wanted, up to MAX_RESULTS
+	 * @return the itineraries, best first, each ending with another flight
+	 * @throws java.sql.SQLException when the flights could not be loaded
+	 */
+	public List<Itinerary> search (String from, String to, LocalDate first, LocalDate last, Objective objective,
+			int maxLegs, int minLayover, int limit) throws SQLException {
+		if (maxLegs < 1 || maxLegs > MAX_LEGS)
+			throw new IllegalArgumentException ("Legs must be within 1 and " + MAX_LEGS);
+		if (minLayover < 0)
+			throw new IllegalArgumentException ("The layover must not be negative");
+		if (limit < 1 || limit > MAX_RESULTS)
+			throw new IllegalArgumentException ("The limit must be within 1 and " + MAX_RESULTS);
+		if (last.isBefore (first))
+			throw new IllegalArgumentException ("The last day " + last + " is before the first day " + first);
+		Graph g = this._graph;
+		if (g == null)
+			g = load ();
+		this._searches.incrementAndGet ();
+
+		Integer origin = g.ids.get (airport (from));
+		Integer destination = g.ids.get (airport (to));
+		if (origin == null || destination == null || origin.equals (destination))
+			return Collections.<Itinerary>emptyList ();
+
+		Scratch s = this._scratch.poll ();
+		if (s == null)
+			s = new Scratch ();
+		try{
+			return search (g, s, origin, destination, (int) first.toEpochDay (), (int) last.toEpochDay (),
+				objective == Objective.FASTEST, maxLegs, minLayover, limit);
+		}finally{
+			this._scratch.offer (s);
+		}
+	}
+
+	private List<Itinerary> search (Graph g, Scratch s, int origin, int destination, int firstDay, int lastDay,
+			boolean fastest, int maxLegs, int minLayover, int limit) {
+		s.reset (g.size);
+		int generation = s.generation;
+		List<Itinerary> found = new ArrayList<Itinerary>();
+
+		// the flights leaving the origin within the window start the trips
+		for (int e = g.lowerBound (origin, firstDay); e < g.end (origin) && g.dep[e] <= lastDay; ++e)
+			seed (g, s, e, fastest);
+		for (int e = g.sorted; e < g.size; ++e)
+			if (g.from[e] == origin && g.dep[e] >= firstDay && g.dep[e] <= lastDay)
+				seed (g, s, e, fastest);
+
+		while (s.heapSize > 0 && found.size () < limit && s.states < MAX_STATES){
+			int state = s.pop ();
+			int e = s.edge[state];
+			int legs = s.count[state];
+			if (s.stamp[e] != generation){
+				s.stamp[e] = generation;
+				s.label[e] = -1;
+			}else if (g.to[e] == destination || dominated (g, s, state)){
+				// one itinerary per final flight
+				continue;
+			}//end if
+			s.settled[state] = s.label[e];
+			s.label[e] = state;
+			if (g.to[e] == destination){
+				found.add (itinerary (g, s, state));
+				continue;
+			}//end if
+			if (legs == maxLegs)
+				continue;
+
+			int at = g.to[e];
+			int earliest = g.arr[e] + minLayover;
+			int horizon = s.start[state] + MAX_TRIP_DAYS;
+			for (int n = g.lowerBound (at, earliest); n < g.end (at) && g.dep[n] <= horizon; ++n)
+				extend (g, s, state, n, horizon, fastest);
+			for (int n = g.sorted; n < g.size; ++n)
+				if (g.from[n] == at && g.dep[n] >= earliest && g.dep[n] <= horizon)
+					extend (g, s, state, n, horizon, fastest);
+		}//end while
+		return found;
+	}
+
+	private void seed (Graph g, Scratch s, int e, boolean fastest) {
+		if (g.arr[e] - g.dep[e] <= MAX_TRIP_DAYS)
+			s.push (e, -1, 1, g.cost[e], g.dep[e], order (fastest, g.cost[e], g.arr[e] - g.dep[e]));
+	}
+
+	private void extend (Graph g, Scratch s, int state, int n, int horizon, boolean fastest) {
+		if (g.arr[n] > horizon)
+			return;
+		// no airport twice, the trip is short enough to walk back
+		for (int p = state; p >= 0; p = s.parent[p])
+			if (g.from[s.edge[p]] == g.to[n])
+				return;
+		int cost = s.cost[state] + g.cost[n];
+		int days = g.arr[n] - s.start[state];
+		s.push (n, state, s.count[state] + 1, cost, s.start[state], order (fastest, cost, days));
+	}
+
+	//whether a settled state of the same flight, at no higher cost, can go on wherever this one can
+	private static boolean dominated (Graph g, Scratch s, int state) {
+		for (int t = s.label[s.edge[state]]; t >= 0; t = s.settled[t])
+			if (s.count[t] <= s.count[state] && s.start[t] >= s.start[state] && visitedBy (g, s, t, state))
+				return true;
+		return false;
+	}
+
+	//whether every airport the trip of state t left from, the trip of state left from too
+	private static boolean visitedBy (Graph g, Scratch s, int t, int state) {
+		for (int p = s.parent[t]; p >= 0; p = s.parent[p]){
+			int q = s.parent[state];
+			while (q >= 0 && g.from[s.edge[q]] != g.from[s.edge[p]])
+				q = s.parent[q];
+			if (q < 0)
+				return false;
+		}//end for
+		return true;
+	}
+
+	//the objective in the high half, the other criterion in the low half
+	private static long order (boolean fastest, int cost, int days) {
+		return fastest ? ((long) days << 32) | cost : ((long) cost << 32) | days;
+	}
+
+	private static Itinerary itinerary (Graph g, Scratch s, int state) {
+		List<Leg> legs = new ArrayList<Leg>();
+		for (int p = state; p >= 0; p = s.parent[p]){
+			int e = s.edge[p];
+			legs.add (new Leg (g.fnum[e], g.airports[g.from[e]], g.airports[g.to[e]],
+				LocalDate.ofEpochDay (g.dep[e]), LocalDate.ofEpochDay (g.arr[e]), g.cost[e]));
+		}//end for
+		Collections.reverse (legs);
+		return new Itinerary (legs, s.cost[state]);
+	}
+
+	public int size () {
+		Graph g = this._graph;
+		return g == null ? 0 : g.size;
+	}
+
+	public long getSearches () {
+		return this._searches.get ();
+	}
+
+	public long getRebuilds () {
+		return this._rebuilds.get ();
+	}
+}//end ConnectionFinder
@@ -0,0 +1,487 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class defines a bounded pool of physical PostgreSQL connections.  Each
+ * pooled connection carries its own prepared statement cache.  Idle
+ * connections are validated on borrow and evicted after a timeout, and
+ * connections held longer than the leak threshold are reported together with
+ * the thread that borrowed them, and with its stack when started with
+ * -Ddbproject.pool.traceLeaks=true.
+ *
+ */
+
+public class ConnectionPool{
+	//capture the stack of every borrow for the leak report, costly on the query path
+	static final boolean TRACE_LEAKS = Boolean.getBoolean ("dbproject.pool.traceLeaks");
+
+	/**
+	 * A physical connection owned by the pool together with its statement
+	 * cache and bookkeeping.
+	 */
+	public static class Pooled{
+		public final Connection connection;
+		public final StatementCache statements;
+		long lastReleased;
+		long borrowedAt;
+		String borrowerThread;
+		//stack of the borrow, only captured when tracing leaks
+		Throwable borrower;
+		boolean leakReported;
+
+		Pooled(Connection connection, int cacheSize) {
+			this.connection = connection;
+			this.statements = new StatementCache (connection, cacheSize);
+			this.lastReleased = System.currentTimeMillis ();
+		}
+	}//end Pooled
+
+	private final String _url;
+	private final Properties _props;
+	private final int _minSize;
+	private final int _maxSize;
+	private final int _cacheSize;
+	private final long _maxWaitMillis;
+	private final long _idleTimeoutMillis;
+	private final long _validationIntervalMillis;
+	private final long _leakThresholdMillis;
+
+	private final ReentrantLock _lock = new ReentrantLock ();
+	private final Condition _available = this._lock.newCondition ();
+	//idle connections, most recently released first
+	private final Deque<Pooled> _idle = new ArrayDeque<Pooled>();
+	private final Map<Pooled, Boolean> _borrowed = new IdentityHashMap<Pooled, Boolean>();
+	//connections that exist or are being opened
+	private int _total = 0;
+	private boolean _closed = false;
+	private final ScheduledExecutorService _housekeeper;
+
+	private final AtomicLong _borrows = new AtomicLong ();
+	private final AtomicLong _waits = new AtomicLong ();
+	private final AtomicLong _waitNanos = new AtomicLong ();
+	private final AtomicLong _maxWaitNanos = new AtomicLong ();
+	private final AtomicLong _timeouts = new AtomicLong ();
+	private final AtomicLong _created = new AtomicLong ();
+	private final AtomicLong _destroyed = new AtomicLong ();
+	private final AtomicLong _validationFailures = new AtomicLong ();
+	private final AtomicLong _leaks = new AtomicLong ();
+	//statement cache counters of connections that were already destroyed
+	private final AtomicLong _retiredHits = new AtomicLong ();
+	private final AtomicLong _retiredMisses = new AtomicLong ();
+
+	public ConnectionPool(String url, Properties props, int minSize, int maxSize, int cacheSize,
+			long maxWaitMillis, long idleTimeoutMillis, long validationIntervalMillis,
+			long leakThresholdMillis) throws SQLException {
+		if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+			throw new IllegalArgumentException ("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+		this._url = url;
+		this._props = props;
+		this._minSize = minSize;
+		this._maxSize = maxSize;
+		this._cacheSize = cacheSize;
+		this._maxWaitMillis = maxWaitMillis;
+		this._idleTimeoutMillis = idleTimeoutMillis;
+		this._validationIntervalMillis = validationIntervalMillis;
+		this._leakThresholdMillis = leakThresholdMillis;
+
+		// open the minimum number of connections up front so that a bad URL
+		// or password fails here instead of on the first query
+		for (int i = 0; i < minSize; ++i){
+			Pooled conn = open ();
+			this._lock.lock ();
+			try{
+				++this._total;
+				this._idle.push (conn);
+			}finally{
+				this._lock.unlock ();
+			}
+		}//end for
+
+		this._housekeeper = Executors.newSingleThreadScheduledExecutor (r -> {
+			Thread t = new Thread (r, "pool-housekeeper");
+			t.setDaemon (true);
+			return t;
+		});
+		long period = Math.max (1000, Math.min (idleTimeoutMillis, leakThresholdMillis) / 2);
+		this._housekeeper.scheduleWithFixedDelay (this::housekeep, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	private Pooled open () throws SQLException {
+		Connection connection = DriverManager.getConnection (this._url, this._props);
+		this._created.incrementAndGet ();
+		return new Pooled (connection, this._cacheSize);
+	}
+
+	/**
+	 * Method to open a connection outside of the pool, with the URL and
+	 * properties of the pool, for a caller that keeps it for a long time
+	 * (e.g. to LISTEN) and closes it itself.
+	 *
+	 * @return a new physical connection
+	 * @throws java.sql.SQLException when the connection cannot be opened
+	 */
+	public Connection connect () throws SQLException {
+		return DriverManager.getConnection (this._url, this._props);
+	}
+
+	private void destroy (Pooled conn) {
+		this._retiredHits.addAndGet (conn.statements.getHits ());
+		this._retiredMisses.addAndGet (conn.statements.getMisses ());
+		conn.statements.close ();
+		try{
+			conn.connection.close ();
+		}catch (SQLException e){
+			// ignored.
+		}//end try
+		this._destroyed.incrementAndGet ();
+	}
+
+	/**
+	 * Method to borrow a connection from the pool.  Blocks for at most the
+	 * configured wait time when every connection is in use.
+	 *
+	 * @return a connection that must be handed back through release
+	 * @throws java.sql.SQLException when no connection could be obtained
+	 */
+	public Pooled borrow () throws SQLException {
+		long start = System.nanoTime ();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos (this._maxWaitMillis);
+		boolean waited = false;
+		while (true){
+			Pooled conn = null;
+			boolean grow = false;
+			this._lock.lock ();
+			try{
+				while (true){
+					if (this._closed)
+						throw new SQLException ("Connection pool is closed");
+					if (!this._idle.isEmpty ()){
+						conn = this._idle.pop ();
+						break;
+					}//end if
+					if (this._total < this._maxSize){
+						// reserve the slot, the connection is opened outside the lock
+						++this._total;
+						grow = true;
+						break;
+					}//end if
+					long remaining = deadline - System.nanoTime ();
+					if (remaining <= 0){
+						this._timeouts.incrementAndGet ();
+						throw new SQLException ("Timed out after " + this._maxWaitMillis
+							+ " ms waiting for a connection (pool size " + this._maxSize + ")");
+					}//end if
+					waited = true;
+					try{
+						this._available.awaitNanos (remaining);
+					}catch (InterruptedException e){
+						Thread.currentThread ().interrupt ();
+						throw new SQLException ("Interrupted while waiting for a connection");
+					}//end try
+				}//end while
+			}finally{
+				this._lock.unlock ();
+			}
+
+			if (grow){
+				try{
+					conn = open ();
+				}catch (SQLException e){
+					releaseSlot ();
+					throw e;
+				}//end try
+			}else if (!validate (conn)){
+				this._validationFailures.incrementAndGet ();
+				destroy (conn);
+				releaseSlot ();
+				continue;
+			}//end if
+
+			long waitNanos = System.nanoTime () - start;
+			this._borrows.incrementAndGet ();
+			if (waited){
+				this._waits.incrementAndGet ();
+				this._waitNanos.addAndGet (waitNanos);
+				this._maxWaitNanos.accumulateAndGet (waitNanos, Math::max);
+			}//end if
+			conn.borrowedAt = System.currentTimeMillis ();
+			conn.borrowerThread = Thread.currentThread ().getName ();
+			conn.borrower = TRACE_LEAKS ? new Throwable ("Connection borrowed by " + conn.borrowerThread) : null;
+			conn.leakReported = false;
+			this._lock.lock ();
+			try{
+				this._borrowed.put (conn, Boolean.TRUE);
+			}finally{
+				this._lock.unlock ();
+			}
+			return conn;
+		}//end while
+	}
+
+	//checks a connection that sat idle for longer than the validation interval
+	private boolean validate (Pooled conn) {
+		if (System.currentTimeMillis () - conn.lastReleased < this._validationIntervalMillis)
+			return true;
+		try{
+			return conn.connection.isValid (2);
+		}catch (SQLException e){
+			return false;
+		}//end try
+	}
+
+	//gives back a reserved slot whose connection was never handed out
+	private void releaseSlot () {
+		this._lock.lock ();
+		try{
+			--this._total;
+			this._available.signal ();
+		}finally{
+			this._lock.unlock ();
+		}
+	}
+
+	/**
+	 * Method to hand a borrowed connection back to the pool.  A connection
+	 * left outside autocommit mode is rolled back first; a broken connection
+	 * is discarded.
+	 *
+	 * @param conn the connection returned by borrow
+	 */
+	public void release (Pooled conn) {
+		boolean healthy;
+		try{
+			if (!conn.connection.getAutoCommit ()){
+				conn.connection.rollback ();
+				conn.connection.setAutoCommit (true);
+			}//end if
+			healthy = !conn.connection.isClosed ();
+		}catch (SQLException e){
+			healthy = false;
+		}//end try
+
+		conn.borrower = null;
+		conn.lastReleased = System.currentTimeMillis ();
+		this._lock.lock ();
+		try{
+			this._borrowed.remove (conn);
+			if (healthy && !this._closed){
+				this._idle.push (conn);
+				this._available.signal ();
+				return;
+			}//end if
+			--this._total;
+			this._available.signal ();
+		}finally{
+			this._lock.unlock ();
+		}
+		destroy (conn);
+	}
+
+	//evicts idle connections, tops the pool back up and reports leaks
+	private void housekeep () {
+		List<Pooled> expired = new ArrayList<Pooled>();
+		List<Pooled> leaked = new ArrayList<Pooled>();
+		int missing;
+		long now = System.currentTimeMillis ();
+		this._lock.lock ();
+		try{
+			if (this._closed)
+				return;
+			// the least recently used connections sit at the tail
+			while (this._total - expired.size () > this._minSize && !this._idle.isEmpty ()
+					&& now - this._idle.peekLast ().lastReleased > this._idleTimeoutMillis){
+				expired.add (this._idle.pollLast ());
+			}//end while
+			this._total -= expired.size ();
+			for (Pooled conn : this._borrowed.keySet ()){
+				if (!conn.leakReported && now - conn.borrowedAt > this._leakThresholdMillis){
+					conn.leakReported = true;
+					leaked.add (conn);
+				}//end if
+			}//end for
+			missing = this._minSize - this._total;
+			if (missing > 0)
+				this._total += missing;
+		}finally{
+			this._lock.unlock ();
+		}
+
+		for (Pooled conn : expired)
+			destroy (conn);
+		for (Pooled conn : leaked){
+			this._leaks.incrementAndGet ();
+			Throwable borrower = conn.borrower;
+			System.err.println ("Warning - connection held for more than " + this._leakThresholdMillis + " ms by "
+				+ conn.borrowerThread + ", possible leak" + (borrower == null ? " (-Ddbproject.pool.traceLeaks=true for its stack)" : ""));
+			if (borrower != null)
+				borrower.printStackTrace ();
+		}//end for
+		for (int i = 0; i < missing; ++i){
+			try{
+				Pooled conn = open ();
+				this._lock.lock ();
+				try{
+					this._idle.addLast (conn);
+					this._available.signal ();
+				}finally{
+					this._lock.unlock ();
+				}
+			}catch (SQLException e){
+				releaseSlot ();
+			}//end try
+		}//end for
+	}
+
+	/**
+	 * Method to close the pool and every idle connection.  Connections still
+	 * borrowed are closed when they are released.
+	 */
+	public void close () {
+		List<Pooled> idle;
+		this._lock.lock ();
+		try{
+			this._closed = true;
+			idle = new ArrayList<Pooled>(this._idle);
+			this._total -= idle.size ();
+			this._idle.clear ();
+			this._available.signalAll ();
+		}finally{
+			this._lock.unlock ();
+		}
+		this._housekeeper.shutdownNow ();
+		for (Pooled conn : idle)
+			destroy (conn);
+	}
+
+	public int getMaxSize () {
+		return this._maxSize;
+	}
+
+	public int getSize () {
+		this._lock.lock ();
+		try{
+			return this._total;
+		}finally{
+			this._lock.unlock ();
+		}
+	}
+
+	public int getActive () {
+		this._lock.lock ();
+		try{
+			return this._borrowed.size ();
+		}finally{
+			this._lock.unlock ();
+		}
+	}
+
+	public int getIdle () {
+		this._lock.lock ();
+		try{
+			return this._idle.size ();
+		}finally{
+			this._lock.unlock ();
+		}
+	}
+
+	public long getBorrows () {
+		return this._borrows.get ();
+	}
+
+	//number of borrows that had to wait for a connection
+	public long getWaits () {
+		return this._waits.get ();
+	}
+
+	public long getTotalWaitNanos () {
+		return this._waitNanos.get ();
+	}
+
+	public long getMaxWaitNanos () {
+		return this._maxWaitNanos.get ();
+	}
+
+	public long getTimeouts () {
+		return this._timeouts.get ();
+	}
+
+	public long getCreated () {
+		return this._created.get ();
+	}
+
+	public long getDestroyed () {
+		return this._destroyed.get ();
+	}
+
+	public long getValidationFailures () {
+		return this._validationFailures.get ();
+	}
+
+	public long getLeaks () {
+		return this._leaks.get ();
+	}
+
+	/**
+	 * Method to sum the statement cache hits of every connection the pool
+	 * ever owned.
+	 *
+	 * @return the number of cache hits
+	 */
+	public long getStatementCacheHits () {
+		long hits = this._retiredHits.get ();
+		for (Pooled conn : snapshot ())
+			hits += conn.statements.getHits ();
+		return hits;
+	}
+
+	/**
+	 * Method to sum the statement cache misses of every connection the pool
+	 * ever owned.
+	 *
+	 * @return the number of cache misses
+	 */
+	public long getStatementCacheMisses () {
+		long misses = this._retiredMisses.get ();
+		for (Pooled conn : snapshot ())
+			misses += conn.statements.getMisses ();
+		return misses;
+	}
+
+	private List<Pooled> snapshot () {
+		this._lock.lock ();
+		try{
+			List<Pooled> all = new ArrayList<Pooled>(this._idle);
+			all.addAll (this._borrowed.keySet ());
+			return all;
+		}finally{
+			this._lock.unlock ();
+		}
+	}
+}//end ConnectionPool
@@ -11,18 +11,24 @@
  */
 
 
-import java.sql.DriverManager;
 import java.sql.Connection;
-import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 /**
@@ -32,8 +38,38 @@ import java.time.format.DateTimeFormatter;
  */
 
 public class DBproject{
-	//reference to physical database connection
-	private Connection _connection = null;
+	//number of prepared statements kept per connection
+	static final int STATEMENT_CACHE_SIZE = Integer.getInteger ("dbproject.statementCache", 64);
+	//connection pool settings, overridable with -D system properties
+	static final int POOL_MIN_SIZE = Integer.getInteger ("dbproject.pool.min", 1);
+	static final int POOL_MAX_SIZE = Integer.getInteger ("dbproject.pool.max", 10);
+	static final long POOL_MAX_WAIT_MS = Long.getLong ("dbproject.pool.maxWaitMs", 30000L);
+	static final long POOL_IDLE_TIMEOUT_MS = Long.getLong ("dbproject.pool.idleTimeoutMs", 300000L);
+	static final long POOL_VALIDATION_INTERVAL_MS = Long.getLong ("dbproject.pool.validationIntervalMs", 1000L);
+	static final long POOL_LEAK_THRESHOLD_MS = Long.getLong ("dbproject.pool.leakThresholdMs", 60000L);
+	//rows fetched per round trip by streamed queries
+	static final int FETCH_SIZE = Integer.getInteger ("dbproject.fetchSize", 1000);
+	//platform threads running asynchronous calls where virtual threads are not available
+	static final int ASYNC_THREADS = Integer.getInteger ("dbproject.async.threads", POOL_MAX_SIZE);
+
+	//pool of physical database connections
+	private ConnectionPool _pool = null;
+	//read replicas and the choice between them and the primary
+	private ReplicaRouter _router = null;
+	//queue of the Add* rows, null unless dbproject.writeBehind is set
+	private WriteBehind _writeBehind = null;
+	//in-memory Plane, Pilot and Technician rows
+	private final ReferenceData _reference = new ReferenceData (this);
+	//flights by route and departure day, for the flight search
+	private final RouteIndex _routes = new RouteIndex (this);
+	//flight graph of the connection search
+	private final ConnectionFinder _connections = new ConnectionFinder (this);
+	//latencies, rows and errors per operation
+	private final Metrics _metrics = new Metrics (this);
+	//queries over the slow query threshold, with sampled plans
+	private final SlowQueryLog _slowLog = new SlowQueryLog (this);
+	//runs the asynchronous calls
+	private final ExecutorService _async = newAsyncExecutor ();
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
 	
 	public DBproject(String dbname, String dbport, String user, String passwd) throws SQLException {
@@ -43,8 +79,24 @@ public class DBproject{
 			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
 			System.out.println ("Connection URL: " + url + "\n");
 			
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
+			// prepare on the server from the first execution, since every
+			// statement is reused through the statement cache
+			Properties props = new Properties ();
+			props.setProperty ("user", user);
+			props.setProperty ("password", passwd);
+			props.setProperty ("prepareThreshold", "1");
+			// let the server infer the type of string bind values (dates, domains)
+			props.setProperty ("stringtype", "unspecified");
+
+			// open the pool of physical connections
+	        this._pool = new ConnectionPool (url, props, POOL_MIN_SIZE, POOL_MAX_SIZE, STATEMENT_CACHE_SIZE,
+	        		POOL_MAX_WAIT_MS, POOL_IDLE_TIMEOUT_MS, POOL_VALIDATION_INTERVAL_MS, POOL_LEAK_THRESHOLD_MS);
+	        this._router = openReplicas (dbname, props);
+	        if (WriteBehind.ENABLED){
+	        	this._writeBehind = new WriteBehind (this, WriteBehind.CAPACITY, WriteBehind.BATCH,
+	        		WriteBehind.FLUSH_MS, WriteBehind.MAX_WAIT_MS);
+	        }//end if
+	        this._metrics.start ();
 	        System.out.println("Done");
 		}catch(Exception e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
@@ -52,128 +104,410 @@ public class DBproject{
 	        System.exit(-1);
 		}
 	}
+
+	//opens a pool per replica; a replica that is down is left out
+	private static ReplicaRouter openReplicas (String dbname, Properties props) {
+		List<ConnectionPool> pools = new ArrayList<ConnectionPool>();
+		List<String> urls = new ArrayList<String>();
+		for (String url : ReplicaRouter.urls (ReplicaRouter.REPLICAS, dbname)){
+			try{
+				pools.add (new ConnectionPool (url, props, POOL_MIN_SIZE, POOL_MAX_SIZE, STATEMENT_CACHE_SIZE,
+					POOL_MAX_WAIT_MS, POOL_IDLE_TIMEOUT_MS, POOL_VALIDATION_INTERVAL_MS, POOL_LEAK_THRESHOLD_MS));
+				urls.add (url);
+			}catch (SQLException e){
+				System.err.println ("Skipping replica " + url + ": " + e.getMessage ());
+			}//end try
+		}//end for
+		ReplicaRouter router = new ReplicaRouter (pools, urls, ReplicaRouter.BALANCE, ReplicaRouter.PIN_MS,
+			ReplicaRouter.operations (ReplicaRouter.OPERATIONS));
+		if (router.hasReplicas ())
+			System.out.println ("Read replicas: " + router);
+		return router;
+	}
+
+	/**
+	 * Method to bind positional values to a prepared statement.  LocalDate
+	 * values are bound as SQL dates, everything else through setObject.
+	 *
+	 * @param stmt the prepared statement
+	 * @param params the values for the '?' placeholders, in order
+	 * @throws java.sql.SQLException when a value could not be bound
+	 */
+	static void bind (PreparedStatement stmt, Object[] params) throws SQLException {
+		for (int i = 0; i < params.length; ++i){
+			Object value = params[i];
+			if (value instanceof LocalDate)
+				value = java.sql.Date.valueOf ((LocalDate) value);
+			stmt.setObject (i + 1, value);
+		}//end for
+	}
 	
+	/**
+	 * Method to create the executor of the asynchronous calls.  A virtual
+	 * thread per call when the JVM has them (Java 21 and later), so thousands
+	 * of calls may wait for a pooled connection without a thread each;
+	 * otherwise a fixed number of daemon platform threads.
+	 *
+	 * @return the executor
+	 */
+	static ExecutorService newAsyncExecutor () {
+		try{
+			// looked up reflectively, the code still compiles for older releases
+			return (ExecutorService) Executors.class.getMethod ("newVirtualThreadPerTaskExecutor").invoke (null);
+		}catch (ReflectiveOperationException e){
+			ThreadPoolExecutor pool = new ThreadPoolExecutor (ASYNC_THREADS, ASYNC_THREADS, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), r -> {
+					Thread thread = new Thread (r, "dbproject-async");
+					thread.setDaemon (true);
+					return thread;
+				});
+			pool.allowCoreThreadTimeOut (true);
+			return pool;
+		}//end try
+	}
+
+	/**
+	 * A blocking call run by submit on the asynchronous executor.
+	 */
+	public interface Call<T>{
+		T call () throws SQLException;
+	}//end Call
+
+	/**
+	 * Method to run a blocking call on the asynchronous executor.  The call
+	 * is attributed to the operation and replica session of the calling
+	 * thread.
+	 *
+	 * @param call the work, typically one or more execute calls
+	 * @return a future completed with the result, or exceptionally with the
+	 *         SQLException or other exception the call threw
+	 */
+	public <T> CompletableFuture<T> submit (final Call<T> call) {
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		final Metrics.Scope caller = this._metrics.current ();
+		final Object session = this._router.current ();
+		this._async.execute (() -> {
+			Metrics.Scope previous = this._metrics.attach (caller);
+			Object previousSession = this._router.bind (session);
+			try{
+				future.complete (call.call ());
+			}catch (Throwable e){
+				future.completeExceptionally (e);
+			}finally{
+				this._router.bind (previousSession);
+				this._metrics.attach (previous);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Method to run executeUpdate asynchronously.
+	 *
+	 * @param sql the input SQL string, with '?' placeholders for bind values
+	 * @param params the values bound to the placeholders
+	 * @return a future completed when the update has run
+	 */
+	public CompletableFuture<Void> executeUpdateAsync (final String sql, final Object... params) {
+		return submit (() -> {
+			executeUpdate (sql, params);
+			return null;
+		});
+	}
+
+	/**
+	 * Method to run executeQueryAndReturnResult asynchronously.
+	 *
+	 * @param query the input query string, with '?' placeholders for bind values
+	 * @param params the values bound to the placeholders
+	 * @return a future completed with the rows
+	 */
+	public CompletableFuture<List<List<String>>> queryAsync (final String query, final Object... params) {
+		return submit (() -> executeQueryAndReturnResult (query, params));
+	}
+
+	/**
+	 * Method to run executeTransaction asynchronously.
+	 *
+	 * @param work the statements to run in one transaction
+	 * @return a future completed with the value returned by the work
+	 */
+	public <T> CompletableFuture<T> executeTransactionAsync (final Transaction<T> work) {
+		return submit (() -> executeTransaction (work));
+	}
+
 	/**
 	 * Method to execute an update SQL statement.  Update SQL instructions
 	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
 	 * 
-	 * @param sql the input SQL string
+	 * @param sql the input SQL string, with '?' placeholders for bind values
+	 * @param params the values bound to the placeholders
 	 * @throws java.sql.SQLException when update failed
 	 * */
-	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		// issues the update instruction
-		stmt.executeUpdate (sql);
+	public void executeUpdate (String sql, Object... params) throws SQLException { 
+		long start = System.nanoTime ();
+		int rowCount = 0;
+		boolean ok = false;
+		ConnectionPool.Pooled conn = this._pool.borrow ();
+		try{
+			// fetches the prepared statement for this template
+			PreparedStatement stmt = conn.statements.prepare (sql);
 
-		// close the instruction
-	    stmt.close ();
+			// issues the update instruction
+			bind (stmt, params);
+			rowCount = stmt.executeUpdate ();
+			ok = true;
+		}finally{
+			this._pool.release (conn);
+			this._router.wrote ();
+			this._metrics.record ("executeUpdate", start, rowCount, ok);
+		}
 	}//end executeUpdate
 
+	/**
+	 * Callback receiving the rows of a streamed query one at a time.  The
+	 * result set is positioned on the current row and must not be advanced
+	 * or kept by the handler.
+	 */
+	public interface RowHandler{
+		void row (ResultSet rs) throws SQLException;
+	}//end RowHandler
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) with a
+	 * server-side cursor.  Rows are fetched fetchSize at a time inside a
+	 * transaction and handed to the handler as they arrive, so memory stays
+	 * flat whatever the number of rows.
+	 *
+	 * @param query the input query string, with '?' placeholders for bind values
+	 * @param fetchSize the number of rows fetched per round trip, or 0 to
+	 *        fetch them all at once in autocommit mode, without a cursor
+	 * @param handler the callback invoked for every row
+	 * @param params the values bound to the placeholders
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryAndStreamResult (String query, int fetchSize, RowHandler handler, Object... params) throws SQLException {
+		return timedStream ("executeQueryAndStreamResult", query, fetchSize, handler, params);
+	}//end executeQueryAndStreamResult
+
+	//streams a query and records it under the public method it serves
+	private int timedStream (String method, String query, int fetchSize, RowHandler handler, Object[] params) throws SQLException {
+		long start = System.nanoTime ();
+		int rowCount = 0;
+		boolean ok = false;
+		try{
+			rowCount = stream (query, fetchSize, handler, params);
+			ok = true;
+			return rowCount;
+		}finally{
+			this._metrics.record (method, start, rowCount, ok);
+			long elapsed = System.nanoTime () - start;
+			if (this._slowLog.isSlow (elapsed))
+				this._slowLog.log (query, params, elapsed, rowCount, ok, this._metrics.getOperation ());
+		}
+	}
+
+	private int stream (String query, int fetchSize, RowHandler handler, Object[] params) throws SQLException {
+		ConnectionPool pool = readPool ();
+		ConnectionPool.Pooled conn = null;
+		if (pool != this._pool){
+			try{
+				conn = pool.borrow ();
+			}catch (SQLException e){
+				// a replica that is down or saturated costs the primary a read
+				this._router.fellBack ();
+				pool = this._pool;
+			}//end try
+		}//end if
+		if (conn == null)
+			conn = pool.borrow ();
+		try{
+			//the driver only uses a cursor outside autocommit mode; the pool
+			//rolls back and restores autocommit when the connection is released
+			boolean cursor = fetchSize > 0;
+			if (cursor)
+				conn.connection.setAutoCommit (false);
+			PreparedStatement stmt = conn.statements.prepare (query);
+			stmt.setFetchSize (fetchSize);
+
+			//issues the query instruction
+			bind (stmt, params);
+			ResultSet rs = stmt.executeQuery ();
+			int rowCount = 0;
+			try{
+				while (rs.next ()){
+					handler.row (rs);
+					++rowCount;
+				}//end while
+			}finally{
+				rs.close ();
+			}
+			if (cursor)
+				conn.connection.commit ();
+			return rowCount;
+		}finally{
+			pool.release (conn);
+		}
+	}
+
+	//the replica the current operation may read from, else the primary
+	private ConnectionPool readPool () {
+		int replica = this._router.choose (this._metrics.getOperation ());
+		return replica < 0 ? this._pool : this._router.getReplica (replica);
+	}
+
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and outputs the results to
 	 * standard out.
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with '?' placeholders for bind values
+	 * @param params the values bound to the placeholders
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+	public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+		//iterates through the result set and output them to standard out.
+		return timedWrite ("executeQueryAndPrintResult", query, ResultSink.text (System.out), params);
+	}
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and
+	 * write the rows to a sink, e.g. a CSV file.  The rows are streamed, and
+	 * the sink is flushed when the query is done.
+	 *
+	 * @param query the input query string, with '?' placeholders for bind values
+	 * @param sink the output format and stream
+	 * @param params the values bound to the placeholders
+	 * @return the number of rows written
+	 * @throws java.sql.SQLException when failed to execute the query or to write
+	 */
+	public int executeQueryAndWriteResult (String query, ResultSink sink, Object... params) throws SQLException {
+		return timedWrite ("executeQueryAndWriteResult", query, sink, params);
+	}
 
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
-		int rowCount = 0;
-		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
-			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
-		return rowCount;
+	private int timedWrite (String method, String query, ResultSink sink, Object[] params) throws SQLException {
+		try{
+			int rowCount = timedStream (method, query, FETCH_SIZE, sink, params);
+			sink.finish ();
+			return rowCount;
+		}catch (IOException | java.io.UncheckedIOException e){
+			throw new SQLException ("Unable to write the query result: " + e.getMessage (), e);
+		}//end try
 	}
 	
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and returns the results as
-	 * a list of records. Each record in turn is a list of attribute values
+	 * a list of records. Each record in turn is a list of attribute values.
+	 * The rows are kept in memory anyway, so they are fetched in one round
+	 * trip without a cursor or a transaction.
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with '?' placeholders for bind values
+	 * @param params the values bound to the placeholders
 	 * @return the query result as a list of records
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
-		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
-	 
-		/*
-		 * obtains the metadata object for the returned result set.  The metadata 
-		 * contains row and column info. 
-		*/ 
-		ResultSetMetaData rsmd = rs.getMetaData (); 
-		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
-	 
+	public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException { 
 		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
-		List<List<String>> result  = new ArrayList<List<String>>(); 
-		while (rs.next()){
-			List<String> record = new ArrayList<String>(); 
+		final List<List<String>> result  = new ArrayList<List<String>>(); 
+		timedStream ("executeQueryAndReturnResult", query, 0, rs -> {
+			int numCol = rs.getMetaData ().getColumnCount (); 
+			List<String> record = new ArrayList<String>(numCol); 
 			for (int i=1; i<=numCol; ++i) 
 				record.add(rs.getString (i)); 
 			result.add(record); 
-		}//end while 
-		stmt.close (); 
+		}, params);
 		return result; 
 	}//end executeQueryAndReturnResult
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and
+	 * return its result as typed columns.  Unlike executeQueryAndReturnResult
+	 * no value is formatted to text and parsed back, and no object is made
+	 * per row for integer columns.  Like it, the query runs without a
+	 * cursor; stream large results into a ResultColumns with
+	 * executeQueryAndStreamResult instead.
+	 *
+	 * @param query the input query string, with '?' placeholders for bind values
+	 * @param params the values bound to the placeholders
+	 * @return the query result, one array per column
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public ResultColumns executeQueryForColumns (String query, Object... params) throws SQLException {
+		ResultColumns columns = new ResultColumns ();
+		timedStream ("executeQueryForColumns", query, 0, columns, params);
+		return columns.finish ();
+	}//end executeQueryForColumns
 	
+	/**
+	 * Unit of work run by executeTransaction on a single pooled connection.
+	 */
+	public interface Transaction<T>{
+		T run (ConnectionPool.Pooled conn) throws SQLException;
+	}//end Transaction
+
+	/**
+	 * Method to run several statements in one transaction.  The work gets a
+	 * connection with autocommit off and is committed when it returns; any
+	 * exception rolls the whole transaction back.
+	 *
+	 * @param work the statements to run
+	 * @return the value returned by the work
+	 * @throws java.sql.SQLException when the work or the commit failed
+	 */
+	public <T> T executeTransaction (Transaction<T> work) throws SQLException {
+		long start = System.nanoTime ();
+		boolean ok = false;
+		ConnectionPool.Pooled conn = this._pool.borrow ();
+		try{
+			conn.connection.setAutoCommit (false);
+			T result = work.run (conn);
+			conn.connection.commit ();
+			ok = true;
+			return result;
+		}finally{
+			//rolls back anything left uncommitted
+			this._pool.release (conn);
+			this._router.wrote ();
+			this._metrics.record ("executeTransaction", start, 0, ok);
+		}
+	}//end executeTransaction
+
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and returns the number of results
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with '?' placeholders for bind values
+	 * @param params the values bound to the placeholders
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
-
+	public int executeQuery (String query, Object... params) throws SQLException {
+		long start = System.nanoTime ();
 		int rowCount = 0;
+		boolean ok = false;
+		ConnectionPool.Pooled conn = this._pool.borrow ();
+		try{
+			//fetches the prepared statement for this template
+			PreparedStatement stmt = conn.statements.prepare (query);
 
-		//iterates through the result set and count nuber of results.
-		if(rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
+			//issues the query instruction
+			bind (stmt, params);
+			ResultSet rs = stmt.executeQuery ();
+
+			//iterates through the result set and count nuber of results.
+			if(rs.next()){
+				rowCount++;
+			}//end while
+			rs.close ();
+			ok = true;
+			return rowCount;
+		}finally{
+			this._pool.release (conn);
+			this._metrics.record ("executeQuery", start, rowCount, ok);
+		}
 	}
 	
 	/**
@@ -187,24 +521,190 @@ public class DBproject{
 	 */
 	
 	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
-		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+		ConnectionPool.Pooled conn = this._pool.borrow ();
+		try{
+			PreparedStatement stmt = conn.statements.prepare ("SELECT currval(?::regclass)");
+			
+			bind (stmt, new Object[] { sequence });
+			ResultSet rs = stmt.executeQuery ();
+			try{
+				if (rs.next()) return rs.getInt(1);
+				return -1;
+			}finally{
+				rs.close ();
+			}
+		}finally{
+			this._pool.release (conn);
+		}
+	}
+
+	/**
+	 * Method to report how many statement lookups were served from the
+	 * prepared statement cache.
+	 *
+	 * @return the number of cache hits
+	 */
+	public long getStatementCacheHits() {
+		return this._pool.getStatementCacheHits ();
+	}
+
+	/**
+	 * Method to report how many statement lookups had to prepare a new
+	 * statement on the server.
+	 *
+	 * @return the number of cache misses
+	 */
+	public long getStatementCacheMisses() {
+		return this._pool.getStatementCacheMisses ();
+	}
+
+	/**
+	 * Method to expose the cached reference entities (Plane, Pilot and
+	 * Technician) and their hit ratios.
+	 *
+	 * @return the reference data of this instance
+	 */
+	public ReferenceData getReferenceData() {
+		return this._reference;
+	}
+
+	/**
+	 * Method to compute the seats left on a flight departing on a date.  The
+	 * flight's plane and sold seats come from one indexed query, the plane's
+	 * capacity from the reference cache.
+	 *
+	 * @param fnum the flight number
+	 * @param departure the departure date
+	 * @return the number of seats left, or null when no such flight has a plane
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public Integer getSeatsAvailable(int fnum, LocalDate departure) throws SQLException {
+		ResultColumns rows = executeQueryForColumns (FLIGHT_SALES_SQL, fnum, departure);
+		if (rows.size () == 0)
+			return null;
+		ReferenceData.Plane plane = this._reference.plane (rows.ints (1)[0]);
+		if (plane == null)
+			return null;
+		return plane.seats - rows.ints (2)[0];
+	}
+
+	/**
+	 * Method to compute the seats left on a flight without blocking.  The
+	 * capacity (the plane of the flight, through FlightInfo and the reference
+	 * cache) and the seats sold (Flight) are looked up concurrently, so a
+	 * plane missing from the cache costs no extra sequential round trip.
+	 *
+	 * @param fnum the flight number
+	 * @param departure the departure date
+	 * @return a future completed with the seats left, or null when no such
+	 *         flight has a plane
+	 */
+	public CompletableFuture<Integer> getSeatsAvailableAsync(final int fnum, final LocalDate departure) {
+		CompletableFuture<Integer> capacity = submit (() -> {
+			ResultColumns rows = executeQueryForColumns (FLIGHT_PLANE_SQL, fnum);
+			if (rows.size () == 0)
+				return null;
+			ReferenceData.Plane plane = this._reference.plane (rows.ints (1)[0]);
+			return plane == null ? null : plane.seats;
+		});
+		CompletableFuture<Integer> sold = submit (() -> {
+			ResultColumns rows = executeQueryForColumns (FLIGHT_SOLD_SQL, fnum, departure);
+			return rows.size () == 0 ? null : rows.ints (1)[0];
+		});
+		return capacity.thenCombine (sold, (seats, num_sold) -> seats == null || num_sold == null ? null : seats - num_sold);
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * Method to expose the connection pool, e.g. for its wait-time and leak
+	 * statistics.
+	 *
+	 * @return the pool backing this instance
+	 */
+	public ConnectionPool getPool() {
+		return this._pool;
+	}
+
+	/**
+	 * Method to expose the in-memory index of the flight search.
+	 *
+	 * @return the route index of this instance
+	 */
+	public RouteIndex getRouteIndex() {
+		return this._routes;
+	}
+
+	/**
+	 * Method to expose the flight graph of the connection search.
+	 *
+	 * @return the connection finder of this instance
+	 */
+	public ConnectionFinder getConnectionFinder() {
+		return this._connections;
+	}
+
+	/**
+	 * Method to expose the write-behind buffer of the Add* rows.
+	 *
+	 * @return the buffer, or null when inserts are written synchronously
+	 */
+	public WriteBehind getWriteBehind() {
+		return this._writeBehind;
+	}
+
+	/**
+	 * Method to expose the read replicas, e.g. to bind a session or for the
+	 * number of reads each one served.
+	 *
+	 * @return the replica router of this instance
+	 */
+	public ReplicaRouter getReplicaRouter() {
+		return this._router;
+	}
+
+	/**
+	 * Method to expose the latency, row and error figures of the operations
+	 * run through this instance.
+	 *
+	 * @return the metrics of this instance
+	 */
+	public Metrics getMetrics() {
+		return this._metrics;
+	}
+
+	/**
+	 * Method to expose the slow query log of the SELECT paths.
+	 *
+	 * @return the slow query log of this instance
+	 */
+	public SlowQueryLog getSlowQueryLog() {
+		return this._slowLog;
+	}
+
+	/**
+	 * Method to close the physical connections if they are open.
 	 */
 	public void cleanup(){
+		// lets running asynchronous calls finish while there are connections
+		this._async.shutdown ();
 		try{
-			if (this._connection != null){
-				this._connection.close ();
-			}//end if
-		}catch (SQLException e){
-	         // ignored.
+			this._async.awaitTermination (POOL_MAX_WAIT_MS, TimeUnit.MILLISECONDS);
+		}catch (InterruptedException e){
+			Thread.currentThread ().interrupt ();
 		}//end try
+		// writes the queued rows while there are connections
+		if (this._writeBehind != null){
+			this._writeBehind.close ();
+		}//end if
+		// dumped first, so the figures include the pool before it closes
+		this._metrics.close ();
+		// its pending plan captures still need connections
+		this._slowLog.close ();
+		if (this._router != null){
+			this._router.close ();
+		}//end if
+		if (this._pool != null){
+			this._pool.close ();
+		}//end if
 	}//end cleanup
 
 	/**
@@ -213,14 +713,16 @@ public class DBproject{
 	 * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
 	 */
 	public static void main (String[] args) {
-		if (args.length != 3) {
+		if (args.length < 3) {
 			System.err.println (
 				"Usage: " + "java [-classpath <classpath>] " + DBproject.class.getName () +
-		            " <dbname> <port> <user>");
+		            " <dbname> <port> <user> [command]");
+			System.err.println (COMMANDS);
 			return;
 		}//end if
 		
 		DBproject esql = null;
+		boolean failed = false;
 		
 		try{
 			System.out.println("(1)");
@@ -241,6 +743,12 @@ public class DBproject{
 			
 			esql = new DBproject (dbname, dbport, user, "");
 			
+			// runs a single non-interactive command instead of the menu
+			if (args.length > 3){
+				runCommand (esql, args[3], java.util.Arrays.copyOfRange (args, 4, args.length));
+				return;
+			}//end if
+
 			boolean keepon = true;
 			while(keepon){
 				System.out.println("MAIN MENU");
@@ -256,21 +764,34 @@ public class DBproject{
 				System.out.println("9. Find total number of passengers with a given status");
 				System.out.println("10. < EXIT");
 				
-				switch (readChoice()){
-					case 1: AddPlane(esql); break;
-					case 2: AddPilot(esql); break;
-					case 3: AddFlight(esql); break;
-					case 4: AddTechnician(esql); break;
-					case 5: BookFlight(esql); break;
-					case 6: ListNumberOfAvailableSeats(esql); break;
-					case 7: ListsTotalNumberOfRepairsPerPlane(esql); break;
-					case 8: ListTotalNumberOfRepairsPerYear(esql); break;
-					case 9: FindPassengersCountWithStatus(esql); break;
-					case 10: keepon = false; break;
+				int choice = readChoice();
+				if (choice == 10){
+					keepon = false;
+					continue;
+				}//end if
+				if (choice < 1 || choice > 9)
+					continue;
+				// times the whole option, prompts included
+				Metrics.Scope scope = esql.getMetrics ().begin (MENU_OPERATIONS[choice - 1]);
+				try{
+					switch (choice){
+						case 1: AddPlane(esql); break;
+						case 2: AddPilot(esql); break;
+						case 3: AddFlight(esql); break;
+						case 4: AddTechnician(esql); break;
+						case 5: BookFlight(esql); break;
+						case 6: ListNumberOfAvailableSeats(esql); break;
+						case 7: ListsTotalNumberOfRepairsPerPlane(esql); break;
+						case 8: ListTotalNumberOfRepairsPerYear(esql); break;
+						case 9: FindPassengersCountWithStatus(esql); break;
+					}
+				}finally{
+					esql.getMetrics ().end (scope);
 				}
 			}
 		}catch(Exception e){
 			System.err.println (e.getMessage ());
+			failed = true;
 		}finally{
 			try{
 				if(esql != null) {
@@ -282,6 +803,142 @@ public class DBproject{
 				// ignored.
 			}
 		}
+		// lets scripts notice a failed command
+		if (failed)
+			System.exit (1);
+	}
+
+	//operation names of menu options 1 to 9 in the metrics
+	static final String[] MENU_OPERATIONS = {
+		"AddPlane", "AddPilot", "AddFlight", "AddTechnician", "BookFlight", "ListNumberOfAvailableSeats",
+		"ListsTotalNumberOfRepairsPerPlane", "ListTotalNumberOfRepairsPerYear", "FindPassengersCountWithStatus"
+	};
+
+	//commands accepted after <dbname> <port> <user>
+	static final String COMMANDS =
+		"Commands:\n" +
+		"  --script <file|->    run menu operations from a command file, one per line\n" +
+		"  --book <file|->      book (cid, fid, status) lines in batches\n" +
+		"  --load <dir> [--truncate]\n" +
+		"                       stream the CSV files of a data directory into the tables with COPY\n" +
+		"  --generate <scale> <seed> (<dir> | --copy [--truncate])\n" +
+		"                       generate a synthetic dataset as CSV files or straight into the tables\n" +
+		"  --stress-seats [threads] [attempts] [hot seats]\n" +
+		"                       book scratch flights from many threads and check for oversells\n" +
+		"  --check-plans [min rows]\n" +
+		"                       fail if a menu query sequentially scans a table of at least min rows\n" +
+		"  --check-repair-stats [--fix] [year]\n" +
+		"                       compare the repair summaries with Repairs, optionally rebuild them\n" +
+		"  --check-passenger-counts [--fix]\n" +
+		"                       compare the passenger counts with Reservation, optionally rebuild them\n" +
+		"  --promote-waitlist [--once]\n" +
+		"                       move waitlisted reservations to reserved as seats free up, until interrupted\n" +
+		"  --partitions [years ahead]\n" +
+		"                       create the yearly Repairs and Schedule partitions up to some years ahead\n" +
+		"  --bench [seconds] [threads] [output file|-] [baseline file]\n" +
+		"                       benchmark the data access layer, report throughput and latency as JSON\n" +
+		"  --serve [port]       serve the menu operations as JSON over HTTP until interrupted\n" +
+		"  --export <text|csv|tsv|jsonl> <query> [output file|-]\n" +
+		"                       stream the rows of a query to a file or standard out\n";
+
+	/**
+	 * Method to run a non-interactive command given on the command line.
+	 *
+	 * @param esql the database connection
+	 * @param command the command name
+	 * @param args the arguments following the command name
+	 * @throws Exception when the command fails
+	 */
+	public static void runCommand(DBproject esql, String command, String[] args) throws Exception {
+		// queries of commands without finer operations are counted under the command
+		Metrics.Scope scope = esql.getMetrics ().begin (command.substring (command.startsWith ("--") ? 2 : 0));
+		try{
+			dispatch (esql, command, args);
+		}catch (Exception e){
+			esql.getMetrics ().error ();
+			throw e;
+		}finally{
+			esql.getMetrics ().end (scope);
+		}
+	}//end runCommand
+
+	private static void dispatch(DBproject esql, String command, String[] args) throws Exception {
+		switch (command){
+			case "--script":
+				if (args.length != 1)
+					throw new IllegalArgumentException ("Usage: --script <file|->");
+				ScriptRunner.main (esql, args[0]);
+				break;
+			case "--book":
+				if (args.length != 1)
+					throw new IllegalArgumentException ("Usage: --book <file|->");
+				BookingEngine.main (esql, args[0]);
+				break;
+			case "--load":
+				BulkLoader.main (esql, args);
+				break;
+			case "--generate":
+				DataGenerator.main (esql, args);
+				break;
+			case "--stress-seats":
+				SeatStress.main (esql, args);
+				break;
+			case "--check-plans":
+				PlanCheck.main (esql, args);
+				break;
+			case "--check-repair-stats":
+				RepairStats.main (esql, args);
+				break;
+			case "--check-passenger-counts":
+				PassengerCounts.main (esql, args);
+				break;
+			case "--promote-waitlist":
+				WaitlistPromoter.main (esql, args);
+				break;
+			case "--partitions":
+				Partitions.main (esql, args);
+				break;
+			case "--bench":
+				Benchmark.main (esql, args);
+				break;
+			case "--serve":
+				BookingService.main (esql, args);
+				break;
+			case "--export":
+				if (args.length < 2 || args.length > 3)
+					throw new IllegalArgumentException ("Usage: --export <text|csv|tsv|jsonl> <query> [output file|-]");
+				export (esql, args[0], args[1], args.length > 2 ? args[2] : "-");
+				break;
+			default:
+				throw new IllegalArgumentException ("Unknown command " + command + "\n" + COMMANDS);
+		}
+	}//end dispatch
+
+	/**
+	 * Method to run the --export command.  Rows go straight to the file, or
+	 * to the standard out file descriptor, bypassing System.out; the summary
+	 * goes to standard error.
+	 *
+	 * @param esql the database connection
+	 * @param format text, csv, tsv or jsonl
+	 * @param query the query whose rows are written
+	 * @param output the output file, "-" for standard out
+	 * @throws Exception when the query or the writes fail
+	 */
+	static void export(DBproject esql, String format, String query, String output) throws Exception {
+		java.io.OutputStream out = output.equals ("-")
+			? new java.io.FileOutputStream (java.io.FileDescriptor.out)
+			: new java.io.FileOutputStream (output);
+		long start = System.nanoTime ();
+		int rows;
+		try{
+			rows = esql.executeQueryAndWriteResult (query, ResultSink.forFormat (format, out));
+		}finally{
+			if (!output.equals ("-"))
+				out.close ();
+		}
+		long elapsed = System.nanoTime () - start;
+		System.err.println (String.format ("%d rows in %.1f ms (%.0f rows/s)", rows, elapsed / 1e6, rows * 1e9 / Math.max (1, elapsed)));
 	}
 
 	public static int readChoice() {
@@ -300,6 +957,214 @@ public class DBproject{
 		return input;
 	}//end readChoice
 
+	/*
+	 * Queries of the menu operations.  PlanCheck explains these, so keep every
+	 * lookup on an indexed column (see the INDEXES section of create.sql).
+	 */
+	//reservations of a customer on a flight (5)
+	static final String FIND_RESERVATION_SQL = "SELECT status\nFROM Reservation\nWHERE cid = ? AND fid = ?;";
+	//plane and seats sold of a flight departing on a date (6); the plane's seats come from the reference cache
+	static final String FLIGHT_SALES_SQL = "SELECT FI.plane_id, F.num_sold\nFROM Flight F, FlightInfo FI\nWHERE F.fnum = ? AND F.actual_departure_date = ? AND FI.flight_id = F.fnum;";
+	//the two halves of FLIGHT_SALES_SQL, run concurrently by getSeatsAvailableAsync
+	static final String FLIGHT_PLANE_SQL = "SELECT plane_id\nFROM FlightInfo\nWHERE flight_id = ?;";
+	static final String FLIGHT_SOLD_SQL = "SELECT num_sold\nFROM Flight\nWHERE fnum = ? AND actual_departure_date = ?;";
+	//repairs per plane (7), read from the summary maintained by a trigger on Repairs
+	static final String REPAIRS_PER_PLANE_SQL = "SELECT plane_id as id, repairs as count\nFROM RepairsPerPlane\nWHERE repairs > 0\nORDER BY count DESC;";
+	//repairs per year (8), read from the summary maintained by a trigger on Repairs
+	static final String REPAIRS_PER_YEAR_SQL = "SELECT year as \"Year\", repairs as count\nFROM RepairsPerYear\nWHERE repairs > 0\nORDER BY count ASC;";
+	//passengers of a flight with a status (9), read from the counts maintained by a trigger on Reservation
+	static final String PASSENGERS_WITH_STATUS_SQL =
+		"WITH Q AS (SELECT ?::int AS fid, ?::text AS status)\n" +
+		"SELECT COALESCE((SELECT CASE Q.status WHEN 'W' THEN P.waitlisted WHEN 'R' THEN P.reserved WHEN 'C' THEN P.cancelled END\n" +
+		"FROM PassengersPerFlight P WHERE P.fid = Q.fid), 0) AS count\n" +
+		"FROM Q;";
+
+	/*
+	 * The checks of the menu prompts, applied by every path that writes the
+	 * row: the menu, the script runner, the HTTP service and write-behind.
+	 */
+	static void checkPlane(String make, String model, int age, int seats) {
+		if(make == null || make.length() < 1 || make.length() >= 33)
+		{
+			throw new IllegalArgumentException("The Make you have entered is invalid.");
+		}
+		if(model == null || model.length() < 1 || model.length() >= 65)
+		{
+			throw new IllegalArgumentException("The model you entered is invalid.");
+		}
+		if(age < 0)
+		{
+			throw new IllegalArgumentException("Please enter a valid Plane age.");
+		}
+		if(seats <= 0 || seats > 499)
+		{
+			throw new IllegalArgumentException("You have entered an invalid amount of seats. Please try again.");
+		}
+	}
+
+	static void checkPilot(String fullname, String nationality) {
+		if(fullname == null || fullname.length() <= 0 || fullname.length() >= 129)
+		{
+			throw new IllegalArgumentException("Please enter a valid pilot name.");
+		}
+		if(nationality == null || nationality.length() <= 0 || nationality.length() >= 25)
+		{
+			throw new IllegalArgumentException("Please enter a valid Pilot nationality.");
+		}
+	}
+
+	static void checkFlight(int cost, int num_sold, int num_stops, LocalDate departureDate, LocalDate arrivalDate,
+			String arrival_airport, String departure_airport) {
+		if(cost < 1)
+		{
+			throw new IllegalArgumentException("Invalid Flight cost.");
+		}
+		if(num_sold <= -1)
+		{
+			throw new IllegalArgumentException("Please enter valid number of seats sold.");
+		}
+		if(num_stops < 1)
+		{
+			throw new IllegalArgumentException("Please enter valid number of stops.");
+		}
+		// the database does not check this one, and the connection search counts on it
+		if(departureDate == null || arrivalDate == null || arrivalDate.isAfter(departureDate) == false)
+		{
+			throw new IllegalArgumentException("The arrival must be after the departure.");
+		}
+		if(arrival_airport == null || arrival_airport.length() < 1 || arrival_airport.length() >= 6)
+		{
+			throw new IllegalArgumentException("Please enter a valid Arrival Airport.");
+		}
+		if(departure_airport == null || departure_airport.length() < 1 || departure_airport.length() >= 6)
+		{
+			throw new IllegalArgumentException("Please enter a valid Departure Airport.");
+		}
+	}
+
+	static void checkTechnician(String full_name) {
+		if(full_name == null || full_name.length() < 1 || full_name.length() >= 129)
+		{
+			throw new IllegalArgumentException("Please enter a valid Technician name.");
+		}
+	}
+
+	/*
+	 * Writes of the menu operations, shared by the interactive menu and the
+	 * script runner.  Invalid values throw IllegalArgumentException.
+	 */
+	public static void insertPlane(DBproject esql, int id, String make, String model, int age, int seats) throws SQLException {
+		if(esql.getWriteBehind() != null)
+		{
+			WriteBehind.await(queuePlane(esql, id, make, model, age, seats));
+			return;
+		}
+		checkPlane(make, model, age, seats);
+		if(esql.getReferenceData().plane(id) != null)
+		{
+			throw new SQLException("Plane " + id + " already exists.", "23505");
+		}
+		String query = "INSERT INTO Plane (id, make, model, age, seats) VALUES (?, ?, ?, ?, ?);";
+		esql.executeUpdate(query, id, make, model, age, seats);
+		esql.getReferenceData().planes.put(id, new ReferenceData.Plane(id, make, model, age, seats));
+	}
+
+	public static void insertPilot(DBproject esql, int id, String fullname, String nationality) throws SQLException {
+		if(esql.getWriteBehind() != null)
+		{
+			WriteBehind.await(queuePilot(esql, id, fullname, nationality));
+			return;
+		}
+		checkPilot(fullname, nationality);
+		if(esql.getReferenceData().pilot(id) != null)
+		{
+			throw new SQLException("Pilot " + id + " already exists.", "23505");
+		}
+		String query = "INSERT INTO Pilot (id, fullname, nationality) VALUES (?, ?, ?);";
+		esql.executeUpdate(query, id, fullname, nationality);
+		esql.getReferenceData().pilots.put(id, new ReferenceData.Pilot(id, fullname, nationality));
+	}
+
+	public static void insertFlight(DBproject esql, int fnum, int cost, int num_sold, int num_stops, LocalDate departureDate,
+			LocalDate arrivalDate, String arrival_airport, String departure_airport) throws SQLException {
+		if(esql.getWriteBehind() != null)
+		{
+			WriteBehind.await(queueFlight(esql, fnum, cost, num_sold, num_stops, departureDate, arrivalDate, arrival_airport, departure_airport));
+			return;
+		}
+		checkFlight(cost, num_sold, num_stops, departureDate, arrivalDate, arrival_airport, departure_airport);
+		String query = "INSERT INTO Flight (fnum, cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport) VALUES (?, ?, ?, ?, ?, ?, ?, ?);";
+		esql.executeUpdate(query, fnum, cost, num_sold, num_stops, departureDate, arrivalDate, arrival_airport, departure_airport);
+		esql.getRouteIndex().add(fnum, cost, num_sold, num_stops, departureDate, arrivalDate, departure_airport, arrival_airport);
+		esql.getConnectionFinder().add(fnum, cost, departureDate, arrivalDate, departure_airport, arrival_airport);
+	}
+
+	public static void insertTechnician(DBproject esql, int id, String full_name) throws SQLException {
+		if(esql.getWriteBehind() != null)
+		{
+			WriteBehind.await(queueTechnician(esql, id, full_name));
+			return;
+		}
+		checkTechnician(full_name);
+		if(esql.getReferenceData().technician(id) != null)
+		{
+			throw new SQLException("Technician " + id + " already exists.", "23505");
+		}
+		String query = "INSERT INTO Technician (id, full_name) VALUES (?, ?);";
+		esql.executeUpdate(query, id, full_name);
+		esql.getReferenceData().technicians.put(id, new ReferenceData.Technician(id, full_name));
+	}
+
+	/*
+	 * The same writes queued on the write-behind buffer, which must be on.
+	 * The futures complete once the row is committed, and only then are the
+	 * caches and search indexes told about it.
+	 */
+	public static CompletableFuture<Void> queuePlane(DBproject esql, int id, String make, String model, int age, int seats) throws SQLException {
+		checkPlane(make, model, age, seats);
+		if(esql.getReferenceData().plane(id) != null)
+		{
+			throw new SQLException("Plane " + id + " already exists.", "23505");
+		}
+		return esql.getWriteBehind().add(WriteBehind.PLANE, id, make, model, age, seats)
+			.thenRun(() -> esql.getReferenceData().planes.put(id, new ReferenceData.Plane(id, make, model, age, seats)));
+	}
+
+	public static CompletableFuture<Void> queuePilot(DBproject esql, int id, String fullname, String nationality) throws SQLException {
+		checkPilot(fullname, nationality);
+		if(esql.getReferenceData().pilot(id) != null)
+		{
+			throw new SQLException("Pilot " + id + " already exists.", "23505");
+		}
+		return esql.getWriteBehind().add(WriteBehind.PILOT, id, fullname, nationality)
+			.thenRun(() -> esql.getReferenceData().pilots.put(id, new ReferenceData.Pilot(id, fullname, nationality)));
+	}
+
+	public static CompletableFuture<Void> queueFlight(DBproject esql, int fnum, int cost, int num_sold, int num_stops, LocalDate departureDate,
+			LocalDate arrivalDate, String arrival_airport, String departure_airport) throws SQLException {
+		checkFlight(cost, num_sold, num_stops, departureDate, arrivalDate, arrival_airport, departure_airport);
+		return esql.getWriteBehind().add(WriteBehind.FLIGHT, fnum, cost, num_sold, num_stops, departureDate, arrivalDate, arrival_airport, departure_airport)
+			.thenRun(() -> {
+				esql.getRouteIndex().add(fnum, cost, num_sold, num_stops, departureDate, arrivalDate, departure_airport, arrival_airport);
+				esql.getConnectionFinder().add(fnum, cost, departureDate, arrivalDate, departure_airport, arrival_airport);
+			});
+	}
+
+	public static CompletableFuture<Void> queueTechnician(DBproject esql, int id, String full_name) throws SQLException {
+		checkTechnician(full_name);
+		if(esql.getReferenceData().technician(id) != null)
+		{
+			throw new SQLException("Technician " + id + " already exists.", "23505");
+		}
+		return esql.getWriteBehind().add(WriteBehind.TECHNICIAN, id, full_name)
+			.thenRun(() -> esql.getReferenceData().technicians.put(id, new ReferenceData.Technician(id, full_name)));
+	}
+
+	//books or rebooks a customer on a flight in one statement
+	public static void bookFlight(DBproject esql, int cid, int fid, String status) throws SQLException {
+		esql.executeUpdate(BookingEngine.UPSERT_SQL, cid, fid, status);
+	}
+
 	public static void AddPlane(DBproject esql) {//1
         int id;
 	String make;
@@ -405,11 +1270,11 @@ public class DBproject{
 		}
 		try 
 		{
-			String query = "INSERT INTO Plane (id, make, model, age, seats) VALUES (" + id + ", \'" + make + "\', \'" + model + "\', " + age + ", " + seats + ");";
-			esql.executeUpdate(query);
+			insertPlane(esql, id, make, model, age, seats);
 		}
 		catch (Exception e) 
 		{
+			esql.getMetrics ().error ();
 			System.err.println (e.getMessage());
 		}
 	}
@@ -468,11 +1333,11 @@ public class DBproject{
 		
 		try 
 		{
-			String query = "INSERT INTO Pilot (id, fullname, nationality) VALUES (" + id + ", \'" + fullname + "\', \'" + nationality + "\');";
-			esql.executeUpdate(query);
+			insertPilot(esql, id, fullname, nationality);
 		}
 		catch (Exception e)
 		{
+			esql.getMetrics ().error ();
 			System.err.println (e.getMessage());
 		}
 	}
@@ -646,11 +1511,11 @@ public class DBproject{
 		
 		try 
 		{
-			String query = "INSERT INTO Flight (fnum, cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport) VALUES (" + fnum + ", " + cost + ", " + num_sold + ", " + num_stops + ", \'" + actual_departure_date + "\', \'" + actual_arrival_date + "\', \'" + arrival_airport + "\', \'" + departure_airport + "\');";
-			esql.executeUpdate(query);
+			insertFlight(esql, fnum, cost, num_sold, num_stops, departureDate, arrivalDate, arrival_airport, departure_airport);
 		}
 		catch (Exception e) 
 		{
+			esql.getMetrics ().error ();
 			System.err.println (e.getMessage());
 		}
 	}
@@ -692,11 +1557,11 @@ public class DBproject{
 		}
 		try 
 		{
-			String query = "INSERT INTO Technician (id, full_name) VALUES (" + id + ", \'" + full_name + "\');";
-			esql.executeUpdate(query);
+			insertTechnician(esql, id, full_name);
 		}
 		catch (Exception e) 
 		{
+			esql.getMetrics ().error ();
 			System.err.println (e.getMessage());
 		}
 	}
@@ -736,9 +1601,9 @@ public class DBproject{
 
 		try 
 		{
-			String query = "SELECT status\nFROM Reservation\nWHERE cid = " + cid + " AND fid = " + fid + ";";
+			String query;
 			String booking;
-			if(esql.executeQueryAndPrintResult(query) == 0) 
+			if(esql.executeQueryAndPrintResult(FIND_RESERVATION_SQL, cid, fid) == 0) 
 			{
 				while(true) 
 				{
@@ -748,23 +1613,8 @@ public class DBproject{
 						booking = in.readLine();
 						if(booking.equals("y") == true) 
 						{
-							int rnum;
 							String status;
 							while(true)
-							{
-								System.out.print("Please input New Reservation Number: ");
-								try 
-								{
-									rnum = Integer.parseInt(in.readLine());
-									break;
-								}
-								catch (Exception e) 
-								{
-									System.out.println("Your input is invalid.");
-									continue;
-								}
-							}
-							while(true)
 							{
 								System.out.print("Please input New Reservation Status: ");
 								try {
@@ -783,10 +1633,12 @@ public class DBproject{
 							}
 							try 
 							{
-								query = "INSERT INTO Reservation (rnum, cid, fid, status) VALUES (" + rnum + ", " + cid + ", " + fid + ", \'" + status + "\');";
-								esql.executeUpdate(query);
+								// numbered from reservation_rnum_seq like every other booking path
+								bookFlight(esql, cid, fid, status);
+								esql.executeQueryAndPrintResult(FIND_RESERVATION_SQL, cid, fid);
 							}catch (Exception e) 
 							{
+								esql.getMetrics ().error ();
 								System.err.println (e.getMessage());
 							}
 						}
@@ -834,11 +1686,12 @@ public class DBproject{
 							}
 							try 
 							{
-								query = "UPDATE Reservation SET status = \'" + status + "\' WHERE cid = " + cid + " AND fid = " + fid + ";";
-								esql.executeUpdate(query);
+								query = "UPDATE Reservation SET status = ? WHERE cid = ? AND fid = ?;";
+								esql.executeUpdate(query, status, cid, fid);
 							}
 							catch (Exception e) 
 							{
+								esql.getMetrics ().error ();
 								System.err.println (e.getMessage());
 							}
 						}
@@ -858,6 +1711,7 @@ public class DBproject{
 		}
 		catch (Exception e) 
 		{
+			esql.getMetrics ().error ();
 			System.err.println (e.getMessage());
 		}
 	}
@@ -866,6 +1720,7 @@ public class DBproject{
 		// For flight number and date, find the number of availalbe seats (i.e. total plane capacity minus booked seats )
         int fnum;
 	String actual_departure_date;
+	LocalDate departDate;
 	DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
 		while(true)
 		{
@@ -888,7 +1743,7 @@ public class DBproject{
 			try 
 			{
 				actual_departure_date = in.readLine();
-				LocalDate departDate = LocalDate.parse(actual_departure_date, formatter);
+				departDate = LocalDate.parse(actual_departure_date, formatter);
 				break;
 			}
 			catch (Exception e) 
@@ -900,15 +1755,20 @@ public class DBproject{
 
 		try 
 		{
-			String query = "SELECT Total_Seats - Seats_Sold as \"Seats Available\"\nFROM(\nSELECT P.seats as Total_Seats\nFROM Plane P, FlightInfo FI\nWHERE FI.flight_id = " + fnum + " AND FI.plane_id = P.id\n)total,\n(\nSELECT F.num_sold as Seats_Sold\nFROM Flight F\nWHERE F.fnum = " + fnum + " AND F.actual_departure_date = \'" + actual_departure_date + "\'\n)sold;";
-			
-			if(esql.executeQueryAndPrintResult(query) == 0) 
+			Integer available = esql.getSeatsAvailable(fnum, departDate);
+			if(available == null) 
 			{
 				System.out.println("Does not exist.");
 			}
+			else
+			{
+				System.out.println("Seats Available\t");
+				System.out.println(available + "\t");
+			}
 		}
 		catch (Exception e) 
 		{
+			esql.getMetrics ().error ();
 			System.err.println (e.getMessage());
 		}
 	}
@@ -916,10 +1776,9 @@ public class DBproject{
 	public static void ListsTotalNumberOfRepairsPerPlane(DBproject esql) {//7
 		// Count number of repairs per planes and list them in descending order
 		try {
-			String query = "SELECT P.id, count(R.rid)\nFROM Plane P, Repairs R\nWHERE P.id = R.plane_id\nGROUP BY P.id\nORDER BY count DESC;";
-			
-			esql.executeQueryAndPrintResult(query);
+			esql.executeQueryAndPrintResult(REPAIRS_PER_PLANE_SQL);
 		}catch (Exception e) {
+			esql.getMetrics ().error ();
 			System.err.println (e.getMessage());
 		}
 	}
@@ -931,11 +1790,11 @@ public class DBproject{
 	public static void ListTotalNumberOfRepairsPerYear(DBproject esql) {//8
 		// Count repairs per year and list them in ascending order
         try {
-			String query = "SELECT EXTRACT (year FROM R.repair_date) as \"Year\", count(R.rid)\nFROM repairs R\nGROUP BY \"Year\"\nORDER BY count ASC;";
-			esql.executeQueryAndPrintResult(query);
+			esql.executeQueryAndPrintResult(REPAIRS_PER_YEAR_SQL);
 		}
 	catch (Exception e) 
  		{
+			esql.getMetrics ().error ();
 			System.err.println (e.getMessage());
 		}
 	}
@@ -978,11 +1837,11 @@ public class DBproject{
 
 		try 
 		{
-			String query = "SELECT COUNT(*)\nFROM Reservation\nWHERE fid = " + fnum + " AND status = \'" + status + "\';";
-			esql.executeQueryAndPrintResult(query);
+			esql.executeQueryAndPrintResult(PASSENGERS_WITH_STATUS_SQL, fnum, status);
 		}
 		catch (Exception e) 
 		{
+			esql.getMetrics ().error ();
 			System.err.println (e.getMessage());
 		}
 	}
@@ -0,0 +1,376 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+
+/**
+ * This class generates a synthetic airline dataset at a scale factor of the
+ * sample data in data/ (scale 1 gives 250 customers, 2000 flights and 9999
+ * reservations).  Every value is a hash of the seed, the table, the row and
+ * the column, so the output is deterministic, rows can be produced in any
+ * order and nothing is held in memory.  Rows are written as CSV files in the
+ * data/ layout or streamed straight into COPY.
+ *
+ * The rows satisfy every constraint of create.sql: the _SEATS, _STATUS,
+ * _GENDER and _CODE domains, all foreign keys, and the seat invariant kept
+ * by the Reservation trigger - num_sold of a flight equals its 'R'
+ * reservations and never exceeds the seats of its plane.  No customer holds
+ * two reservations on the same flight.
+ *
+ */
+
+public class DataGenerator implements BulkLoader.Source{
+	static final String[] FIRST_NAMES = { "Armand", "Alberto", "Wyatt", "Jane", "Maria", "Devang", "Justin", "Ana", "Li", "Omar",
+		"Sofia", "Kenji", "Priya", "Lucas", "Emma", "Noah", "Olivia", "Mateo", "Chloe", "Ivan" };
+	static final String[] LAST_NAMES = { "Enderle", "Scarlett", "Ruoff", "Aggarwal", "Luo", "Garcia", "Smith", "Nguyen", "Kim", "Ivanova",
+		"Rossi", "Muller", "Tanaka", "Silva", "Khan", "Cohen", "Dubois", "Novak", "Okafor", "Larsen" };
+	static final String[] STREETS = { "Chapel Drive", "Bald Hill Street", "Campfire Ave.", "Main St.", "Oak Lane", "Sunset Blvd." };
+	static final String[] CITIES = { "Melbourne", "Baton Rouge", "Cockeysville", "Riverside", "Portland", "Austin", "Denver" };
+	static final String[] STATES = { "FL", "LA", "MD", "CA", "OR", "TX", "CO", "NY" };
+	static final String[] NATIONALITIES = { "Argentina", "Australia", "Austria", "Belgium", "Brazil", "Canada", "China", "Egypt",
+		"France", "Germany", "India", "Italy", "Japan", "Mexico", "Morocco", "New Zealand", "South Africa" };
+	static final String[] MAKES = { "Airbus", "Boeing", "Bombadier", "Embraer", "Antonov" };
+	static final String[] MODELS = { "A300", "A320", "A350XWB", "737", "747", "787", "CRJ900", "E190", "An-148" };
+	static final String[] STATUSES = { "W", "R", "C" };
+	static final String[] CODES = { "MJ", "MN", "SV" };
+	static final LocalDate FLIGHT_EPOCH = LocalDate.of (2014, 1, 1);
+	static final LocalDate REPAIR_EPOCH = LocalDate.of (2013, 1, 1);
+
+	//one stream of random numbers per table
+	static final int CUSTOMER = 1, PILOT = 2, PLANE = 3, TECHNICIAN = 4, FLIGHT = 5,
+		RESERVATION = 6, FLIGHTINFO = 7, REPAIRS = 8;
+
+	private final long _seed;
+	final int customers;
+	final int pilots;
+	final int planes;
+	final int technicians;
+	final int flights;
+	final long reservations;
+	final int repairs;
+	final int airports;
+
+	public DataGenerator(double scale, long seed) {
+		if (scale <= 0 || 9999 * scale > Integer.MAX_VALUE)
+			throw new IllegalArgumentException ("Scale must be positive and keep every id within INTEGER");
+		this._seed = seed;
+		this.customers = count (250, scale);
+		this.pilots = count (250, scale);
+		this.planes = count (67, scale);
+		this.technicians = count (250, scale);
+		this.flights = count (2000, scale);
+		this.reservations = count (9999, scale);
+		this.repairs = count (549, scale);
+		if (reservationsOn (0) > this.customers)
+			throw new IllegalArgumentException ("Scale too small to give every reservation of a flight its own customer");
+		// routes repeat more often than with random airports, capped by 5-letter codes
+		this.airports = (int) Math.min (26L * 26 * 26 * 26 * 26, Math.max (20, Math.round (100 * Math.sqrt (scale))));
+	}
+
+	private static int count (int base, double scale) {
+		return (int) Math.max (1, Math.round (base * scale));
+	}
+
+	//splitmix64 finalizer
+	static long mix (long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	//uniform value in [0, bound) for one column of one row
+	int pick (int table, long row, int column, int bound) {
+		long h = mix (this._seed ^ mix (((long) table << 56) ^ ((long) column << 48) ^ row));
+		return (int) Long.remainderUnsigned (h, bound);
+	}
+
+	private String pick (int table, long row, int column, String[] values) {
+		return values[pick (table, row, column, values.length)];
+	}
+
+	/*
+	 * Flights, planes and reservations.  Reservation rnum goes to flight
+	 * rnum % flights as that flight's (rnum / flights)-th reservation, so the
+	 * reservations of a flight can be enumerated without a lookup.
+	 */
+	int planeOf (int fnum) {
+		return pick (FLIGHTINFO, fnum, 3, this.planes);
+	}
+
+	int seatsOf (int plane) {
+		return 20 + pick (PLANE, plane, 4, 480);
+	}
+
+	long reservationsOn (int fnum) {
+		return this.reservations / this.flights + (fnum < this.reservations % this.flights ? 1 : 0);
+	}
+
+	/**
+	 * Method to compute the status of a flight's k-th reservation.  A drawn
+	 * 'R' becomes 'W' once the plane is full, so the reserved rows never
+	 * exceed the seats.
+	 *
+	 * @param fnum the flight
+	 * @param k the reservation's position on the flight
+	 * @return W, R or C
+	 */
+	String statusOf (int fnum, long k) {
+		int seats = seatsOf (planeOf (fnum));
+		int reserved = 0;
+		for (long j = 0; j < k; ++j){
+			if (drawnStatus (fnum, j).equals ("R"))
+				++reserved;
+		}//end for
+		String status = drawnStatus (fnum, k);
+		return status.equals ("R") && reserved >= seats ? "W" : status;
+	}
+
+	private String drawnStatus (int fnum, long k) {
+		return STATUSES[pick (RESERVATION, ((long) fnum << 24) ^ k, 3, STATUSES.length)];
+	}
+
+	int soldOf (int fnum) {
+		int seats = seatsOf (planeOf (fnum));
+		int reserved = 0;
+		for (long k = 0; k < reservationsOn (fnum); ++k){
+			if (drawnStatus (fnum, k).equals ("R") && reserved < seats)
+				++reserved;
+		}//end for
+		return reserved;
+	}
+
+	//distinct customers for the reservations of one flight
+	int customerOf (int fnum, long k) {
+		return (int) ((pick (RESERVATION, fnum, 1, this.customers) + k) % this.customers);
+	}
+
+	LocalDate departureOf (int fnum) {
+		return FLIGHT_EPOCH.plusDays (pick (FLIGHT, fnum, 5, 3 * 365));
+	}
+
+	LocalDate arrivalOf (int fnum) {
+		return departureOf (fnum).plusDays (pick (FLIGHT, fnum, 6, 2));
+	}
+
+	String timeOf (int fnum, int column) {
+		return String.format ("%02d:%02d", pick (FLIGHT, fnum, column, 24), pick (FLIGHT, fnum, column + 1, 60));
+	}
+
+	//five-letter airport code, a bijection of the index over 26^5 codes
+	static String airport (int index) {
+		long code = (index * 7919L + 12345L) % (26L * 26 * 26 * 26 * 26);
+		char[] letters = new char[5];
+		for (int i = 4; i >= 0; --i){
+			letters[i] = (char) ('A' + code % 26);
+			code /= 26;
+		}//end for
+		return new String (letters);
+	}
+
+	int departureAirportOf (int fnum) {
+		return pick (FLIGHT, fnum, 9, this.airports);
+	}
+
+	int arrivalAirportOf (int fnum) {
+		return (departureAirportOf (fnum) + 1 + pick (FLIGHT, fnum, 10, this.airports - 1)) % this.airports;
+	}
+
+	/**
+	 * Method to write every row of a table as CSV in the data/ layout.
+	 *
+	 * @param table the table name, as in BulkLoader
+	 * @param out where the rows go
+	 * @return the number of rows written
+	 * @throws java.io.IOException when writing failed
+	 */
+	public long write (String table, Writer out) throws IOException {
+		StringBuilder row = new StringBuilder (256);
+		long rows = 0;
+		switch (table){
+			case "Customer":
+				for (int id = 0; id < this.customers; ++id, ++rows){
+					row.setLength (0);
+					LocalDate dob = LocalDate.of (1940, 1, 1).plusDays (pick (CUSTOMER, id, 4, 60 * 365));
+					row.append (id).append (',').append (pick (CUSTOMER, id, 1, FIRST_NAMES))
+						.append (',').append (pick (CUSTOMER, id, 2, LAST_NAMES))
+						.append (',').append (pick (CUSTOMER, id, 3, 2) == 0 ? 'F' : 'M')
+						.append (',').append (dob)
+						.append (',').append (1 + pick (CUSTOMER, id, 5, 9999)).append (' ').append (pick (CUSTOMER, id, 6, STREETS))
+						.append (' ').append (pick (CUSTOMER, id, 7, CITIES))
+						.append (',').append (String.format ("%010d", (long) pick (CUSTOMER, id, 8, 1000000000) * 10 + pick (CUSTOMER, id, 9, 10)))
+						.append (',').append (pick (CUSTOMER, id, 10, STATES)).append (' ').append (String.format ("%05d", pick (CUSTOMER, id, 11, 100000)))
+						.append ('\n');
+					out.append (row);
+				}//end for
+				break;
+			case "Pilot":
+				for (int id = 0; id < this.pilots; ++id, ++rows){
+					row.setLength (0);
+					row.append (id).append (',').append (pick (PILOT, id, 1, FIRST_NAMES)).append (' ').append (pick (PILOT, id, 2, LAST_NAMES))
+						.append (',').append (pick (PILOT, id, 3, NATIONALITIES)).append ('\n');
+					out.append (row);
+				}//end for
+				break;
+			case "Plane":
+				for (int id = 0; id < this.planes; ++id, ++rows){
+					row.setLength (0);
+					String make = pick (PLANE, id, 1, MAKES);
+					row.append (id).append (',').append (make).append (',').append (make).append (pick (PLANE, id, 2, MODELS))
+						.append (',').append (pick (PLANE, id, 3, 31)).append (',').append (seatsOf (id)).append ('\n');
+					out.append (row);
+				}//end for
+				break;
+			case "Technician":
+				for (int id = 0; id < this.technicians; ++id, ++rows){
+					row.setLength (0);
+					row.append (id).append (',').append (pick (TECHNICIAN, id, 1, FIRST_NAMES)).append (' ')
+						.append (pick (TECHNICIAN, id, 2, LAST_NAMES)).append ('\n');
+					out.append (row);
+				}//end for
+				break;
+			case "Flight":
+				for (int fnum = 0; fnum < this.flights; ++fnum, ++rows){
+					row.setLength (0);
+					row.append (fnum).append (',').append (100 + pick (FLIGHT, fnum, 1, 900))
+						.append (',').append (soldOf (fnum)).append (',').append (pick (FLIGHT, fnum, 2, 4))
+						.append (',').append (departureOf (fnum)).append (' ').append (timeOf (fnum, 11))
+						.append (',').append (arrivalOf (fnum)).append (' ').append (timeOf (fnum, 13))
+						.append (',').append (airport (arrivalAirportOf (fnum)))
+						.append (',').append (airport (departureAirportOf (fnum))).append ('\n');
+					out.append (row);
+				}//end for
+				break;
+			case "Reservation":
+				for (long rnum = 0; rnum < this.reservations; ++rnum, ++rows){
+					int fnum = (int) (rnum % this.flights);
+					long k = rnum / this.flights;
+					row.setLength (0);
+					row.append (rnum).append (',').append (customerOf (fnum, k)).append (',').append (fnum)
+						.append (',').append (statusOf (fnum, k)).append ('\n');
+					out.append (row);
+				}//end for
+				break;
+			case "FlightInfo":
+				for (int fnum = 0; fnum < this.flights; ++fnum, ++rows){
+					row.setLength (0);
+					row.append (fnum).append (',').append (fnum).append (',').append (pick (FLIGHTINFO, fnum, 2, this.pilots))
+						.append (',').append (planeOf (fnum)).append ('\n');
+					out.append (row);
+				}//end for
+				break;
+			case "Repairs":
+				for (int rid = 0; rid < this.repairs; ++rid, ++rows){
+					row.setLength (0);
+					row.append (rid).append (',').append (REPAIR_EPOCH.plusDays (pick (REPAIRS, rid, 1, 4 * 365)))
+						.append (',').append (pick (REPAIRS, rid, 2, CODES)).append (',').append (pick (REPAIRS, rid, 3, this.pilots))
+						.append (',').append (pick (REPAIRS, rid, 4, this.planes)).append (',').append (pick (REPAIRS, rid, 5, this.technicians))
+						.append ('\n');
+					out.append (row);
+				}//end for
+				break;
+			case "Schedule":
+				for (int fnum = 0; fnum < this.flights; ++fnum, ++rows){
+					row.setLength (0);
+					row.append (fnum).append (',').append (fnum)
+						.append (',').append (departureOf (fnum)).append (' ').append (timeOf (fnum, 11))
+						.append (',').append (arrivalOf (fnum)).append (' ').append (timeOf (fnum, 13)).append ('\n');
+					out.append (row);
+				}//end for
+				break;
+			default:
+				throw new IllegalArgumentException ("Unknown table " + table);
+		}
+		return rows;
+	}
+
+	public LocalDate[] dates (BulkLoader.Table table) {
+		switch (table.name){
+			case "Repairs": return new LocalDate[] { REPAIR_EPOCH, REPAIR_EPOCH.plusDays (4 * 365 - 1) };
+			case "Schedule": return new LocalDate[] { FLIGHT_EPOCH, FLIGHT_EPOCH.plusDays (3 * 365 - 1) };
+			default: return null;
+		}
+	}
+
+	/**
+	 * Method to stream a table straight into COPY FROM STDIN.
+	 */
+	public long copy (PGConnection conn, BulkLoader.Table table, String copySql) throws SQLException, IOException {
+		Writer out = new BufferedWriter (new OutputStreamWriter (new PGCopyOutputStream (conn, copySql, 1 << 16), StandardCharsets.UTF_8), 1 << 16);
+		try{
+			return write (table.name, out);
+		}finally{
+			// ends the COPY
+			out.close ();
+		}
+	}
+
+	/**
+	 * Method to write every table as a CSV file named like the files in data/.
+	 *
+	 * @param dir the output directory
+	 * @throws java.io.IOException when a file cannot be written
+	 */
+	public void writeFiles (File dir) throws IOException {
+		if (!dir.isDirectory () && !dir.mkdirs ())
+			throw new IOException ("Unable to create " + dir);
+		for (BulkLoader.Table[] group : new BulkLoader.Table[][] { BulkLoader.INDEPENDENT, BulkLoader.DEPENDENT }){
+			for (BulkLoader.Table table : group){
+				long start = System.nanoTime ();
+				OutputStream file = new FileOutputStream (new File (dir, table.file));
+				Writer out = new BufferedWriter (new OutputStreamWriter (file, StandardCharsets.UTF_8), 1 << 16);
+				long rows;
+				try{
+					rows = write (table.name, out);
+				}finally{
+					out.close ();
+				}
+				long elapsed = System.nanoTime () - start;
+				System.out.println (String.format ("%-12s %10d rows in %8.1f ms (%.0f rows/s)",
+					table.name, rows, elapsed / 1e6, rows * 1e9 / Math.max (1, elapsed)));
+			}//end for
+		}//end for
+	}
+
+	/**
+	 * Method to run the --generate command.
+	 *
+	 * @param esql the database connection
+	 * @param args &lt;scale&gt; &lt;seed&gt; (&lt;output directory&gt; | --copy [--truncate])
+	 * @throws Exception when the data cannot be written or loaded
+	 */
+	public static void main (DBproject esql, String[] args) throws Exception {
+		if (args.length < 3 || args.length > 4)
+			throw new IllegalArgumentException ("Usage: --generate <scale> <seed> (<output directory> | --copy [--truncate])");
+		DataGenerator generator = new DataGenerator (Double.parseDouble (args[0]), Long.parseLong (args[1]));
+		System.out.println (String.format ("Scale %s: %d customers, %d flights, %d reservations, %d repairs, %d airports",
+			args[0], generator.customers, generator.flights, generator.reservations, generator.repairs, generator.airports));
+		if (args[2].equals ("--copy")){
+			boolean truncate = args.length == 4 && args[3].equals ("--truncate");
+			new BulkLoader (esql, generator).load (truncate);
+		}else{
+			generator.writeFiles (new File (args[2]));
+		}//end if
+	}
+}//end DataGenerator
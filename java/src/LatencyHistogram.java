@@ -0,0 +1,111 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class records a latency distribution in logarithmic buckets, the way
+ * HdrHistogram does: every power of two is split into SUB_BUCKETS linear
+ * buckets, so any recorded value is known to within 1/SUB_BUCKETS (about 3%)
+ * whatever its magnitude.  Recording is lock free and allocation free; the
+ * footprint is fixed (about 10 KB) however many values are recorded.
+ *
+ */
+
+public class LatencyHistogram{
+	static final int SUB_BITS = 5;
+	static final int SUB_BUCKETS = 1 << SUB_BITS;
+	//values up to 2^42 ns (over an hour) get their own bucket, longer ones share the last
+	static final int MAX_EXPONENT = 42 - SUB_BITS;
+	static final int BUCKETS = (MAX_EXPONENT + 2) * SUB_BUCKETS;
+
+	private final AtomicLongArray _counts = new AtomicLongArray (BUCKETS);
+	private final LongAdder _count = new LongAdder ();
+	private final LongAdder _sum = new LongAdder ();
+	private final AtomicLong _max = new AtomicLong ();
+
+	//values below 2 * SUB_BUCKETS map to themselves, larger ones to (exponent, top bits)
+	static int bucketOf (long value) {
+		if (value < 2 * SUB_BUCKETS)
+			return (int) Math.max (0, value);
+		int exponent = 63 - Long.numberOfLeadingZeros (value) - SUB_BITS;
+		if (exponent > MAX_EXPONENT)
+			return BUCKETS - 1;
+		return exponent * SUB_BUCKETS + (int) (value >>> exponent);
+	}
+
+	//largest value falling into a bucket
+	static long upperBound (int bucket) {
+		if (bucket < 2 * SUB_BUCKETS)
+			return bucket;
+		int exponent = bucket / SUB_BUCKETS - 1;
+		long mantissa = bucket % SUB_BUCKETS + SUB_BUCKETS;
+		return ((mantissa + 1) << exponent) - 1;
+	}
+
+	/**
+	 * Method to add one value, in nanoseconds.
+	 *
+	 * @param nanos the recorded latency
+	 */
+	public void record (long nanos) {
+		this._counts.incrementAndGet (bucketOf (nanos));
+		this._count.increment ();
+		this._sum.add (nanos);
+		long max = this._max.get ();
+		while (nanos > max && !this._max.compareAndSet (max, nanos))
+			max = this._max.get ();
+	}
+
+	public long getCount () {
+		return this._count.sum ();
+	}
+
+	public long getSumNanos () {
+		return this._sum.sum ();
+	}
+
+	public long getMaxNanos () {
+		return this._max.get ();
+	}
+
+	/**
+	 * Method to read several quantiles from one pass over the buckets.
+	 *
+	 * @param quantiles the quantiles, ascending, between 0 and 1
+	 * @return the value in nanoseconds at or below which each quantile of
+	 *         the recorded values falls, 0 when nothing was recorded
+	 */
+	public long[] getQuantiles (double... quantiles) {
+		long[] values = new long[quantiles.length];
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; ++i)
+			total += counts[i] = this._counts.get (i);
+		if (total == 0)
+			return values;
+
+		long seen = 0;
+		int q = 0;
+		for (int i = 0; i < BUCKETS && q < quantiles.length; ++i){
+			seen += counts[i];
+			while (q < quantiles.length && seen >= Math.max (1, (long) Math.ceil (quantiles[q] * total)))
+				values[q++] = Math.min (upperBound (i), this._max.get ());
+		}//end for
+		while (q < quantiles.length)
+			values[q++] = this._max.get ();
+		return values;
+	}
+}//end LatencyHistogram
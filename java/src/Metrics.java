@@ -0,0 +1,391 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This class collects the latency, row and error counts of every operation.
+ * Two levels are recorded: operations (the menu options, script commands and
+ * other commands) and, within them, the DBproject execute methods they call.
+ * An operation is opened with begin() on the calling thread, so the queries
+ * it runs are attributed to it without being passed its name.
+ *
+ * The figures are rendered in the Prometheus text format, served on
+ * http://127.0.0.1:&lt;port&gt;/metrics when -Ddbproject.metrics.port is set, and
+ * written on exit to the file named by -Ddbproject.metrics.dump ("-" for
+ * standard error).
+ *
+ */
+
+public class Metrics{
+	static final int PORT = Integer.getInteger ("dbproject.metrics.port", 0);
+	static final String DUMP = System.getProperty ("dbproject.metrics.dump");
+	//operation of queries run outside of any begin()
+	static final String NO_OPERATION = "none";
+	static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+	/**
+	 * Latencies, rows and errors of one operation or one method within it.
+	 */
+	static class Stats{
+		final LatencyHistogram latency = new LatencyHistogram ();
+		final LongAdder rows = new LongAdder ();
+		final LongAdder errors = new LongAdder ();
+	}//end Stats
+
+	/**
+	 * An operation running on the current thread, closed by end().
+	 */
+	public static final class Scope{
+		final String operation;
+		final Scope outer;
+		final long start = System.nanoTime ();
+		//also set by asynchronous calls running on other threads
+		volatile boolean failed = false;
+
+		Scope(String operation, Scope outer) {
+			this.operation = operation;
+			this.outer = outer;
+		}
+	}//end Scope
+
+	private final ThreadLocal<Scope> _current = new ThreadLocal<Scope>();
+	//by operation name
+	private final Map<String, Stats> _operations = new ConcurrentHashMap<String, Stats>();
+	//by operation name and method, separated by a tab
+	private final Map<String, Stats> _queries = new ConcurrentHashMap<String, Stats>();
+	private final DBproject _esql;
+	private HttpServer _server;
+
+	public Metrics(DBproject esql) {
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to start the /metrics endpoint if a port is configured.
+	 *
+	 * @throws IOException when the port cannot be bound
+	 */
+	public void start () throws IOException {
+		if (PORT <= 0)
+			return;
+		this._server = HttpServer.create (new InetSocketAddress ("127.0.0.1", PORT), 0);
+		this._server.createContext ("/metrics", exchange -> {
+			byte[] body = render ().getBytes (StandardCharsets.UTF_8);
+			exchange.getResponseHeaders ().set ("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders (200, body.length);
+			OutputStream out = exchange.getResponseBody ();
+			try{
+				out.write (body);
+			}finally{
+				out.close ();
+			}
+		});
+		this._server.setExecutor (Executors.newSingleThreadExecutor (r -> {
+			Thread thread = new Thread (r, "metrics-http");
+			thread.setDaemon (true);
+			return thread;
+		}));
+		this._server.start ();
+	}
+
+	/**
+	 * Method to stop the endpoint and dump the figures if asked to.
+	 */
+	public void close () {
+		if (this._server != null){
+			this._server.stop (0);
+			this._server = null;
+		}//end if
+		if (DUMP == null)
+			return;
+		String text = render ();
+		if (DUMP.equals ("-")){
+			System.err.print (text);
+			return;
+		}//end if
+		try{
+			PrintStream out = new PrintStream (new FileOutputStream (DUMP), false, "UTF-8");
+			try{
+				out.print (text);
+			}finally{
+				out.close ();
+			}
+		}catch (IOException e){
+			System.err.println ("Unable to write the metrics to " + DUMP + ": " + e.getMessage ());
+		}//end try
+	}
+
+	private static Stats stats (Map<String, Stats> map, String key) {
+		Stats stats = map.get (key);
+		return stats != null ? stats : map.computeIfAbsent (key, k -> new Stats ());
+	}
+
+	/**
+	 * Method to open an operation on the current thread.  Operations nest;
+	 * queries are attributed to the innermost one.
+	 *
+	 * @param operation the operation name, e.g. AddFlight
+	 * @return the scope to hand to end()
+	 */
+	public Scope begin (String operation) {
+		Scope scope = new Scope (operation, this._current.get ());
+		this._current.set (scope);
+		return scope;
+	}
+
+	/**
+	 * Method to close an operation and record its latency.
+	 *
+	 * @param scope the scope returned by begin()
+	 */
+	public void end (Scope scope) {
+		this._current.set (scope.outer);
+		Stats stats = stats (this._operations, scope.operation);
+		stats.latency.record (System.nanoTime () - scope.start);
+		if (scope.failed)
+			stats.errors.increment ();
+	}
+
+	/**
+	 * Method to return the operation open on the current thread, to carry it
+	 * over to a task running on another thread.
+	 *
+	 * @return the innermost scope, or null
+	 */
+	public Scope current () {
+		return this._current.get ();
+	}
+
+	/**
+	 * Method to run the current thread's queries under a scope opened on
+	 * another thread, without timing it again.
+	 *
+	 * @param scope the scope to attach, or null
+	 * @return the scope attached before, to restore afterwards
+	 */
+	public Scope attach (Scope scope) {
+		Scope previous = this._current.get ();
+		this._current.set (scope);
+		return previous;
+	}
+
+	/**
+	 * Method to name the operation open on the current thread.
+	 *
+	 * @return the innermost operation, or "none"
+	 */
+	public String getOperation () {
+		Scope scope = this._current.get ();
+		return scope == null ? NO_OPERATION : scope.operation;
+	}
+
+	/**
+	 * Method to mark the current operation as failed, for handlers that
+	 * report an error instead of throwing it.
+	 */
+	public void error () {
+		Scope scope = this._current.get ();
+		if (scope != null)
+			scope.failed = true;
+	}
+
+	/**
+	 * Method to record one call of an execute method under the current
+	 * operation.
+	 *
+	 * @param method the execute method
+	 * @param start System.nanoTime() when the call started
+	 * @param rows the rows returned or changed
+	 * @param ok whether the call completed without an exception
+	 */
+	public void record (String method, long start, long rows, boolean ok) {
+		long elapsed = System.nanoTime () - start;
+		Scope scope = this._current.get ();
+		Stats stats = stats (this._queries, (scope == null ? NO_OPERATION : scope.operation) + "\t" + method);
+		stats.latency.record (elapsed);
+		stats.rows.add (rows);
+		if (!ok){
+			stats.errors.increment ();
+			if (scope != null)
+				scope.failed = true;
+		}//end if
+	}
+
+	private static String escape (String value) {
+		return value.replace ("\\", "\\\\").replace ("\"", "\\\"").replace ("\n", "\\n");
+	}
+
+	private static void summary (StringBuilder out, String name, String labels, LatencyHistogram latency) {
+		long[] values = latency.getQuantiles (QUANTILES);
+		for (int i = 0; i < QUANTILES.length; ++i)
+			out.append (String.format (Locale.ROOT, "%s{%s,quantile=\"%s\"} %.9f\n", name, labels, QUANTILES[i], values[i] / 1e9));
+		out.append (String.format (Locale.ROOT, "%s_sum{%s} %.9f\n", name, labels, latency.getSumNanos () / 1e9));
+		out.append (name).append ("_count{").append (labels).append ("} ").append (latency.getCount ()).append ('\n');
+	}
+
+	private static void header (StringBuilder out, String name, String type, String help) {
+		out.append ("# HELP ").append (name).append (' ').append (help).append ('\n');
+		out.append ("# TYPE ").append (name).append (' ').append (type).append ('\n');
+	}
+
+	private static void sample (StringBuilder out, String name, String labels, Object value) {
+		out.append (name);
+		if (labels != null)
+			out.append ('{').append (labels).append ('}');
+		out.append (' ').append (value).append ('\n');
+	}
+
+	/**
+	 * Method to render every figure in the Prometheus text format.
+	 *
+	 * @return the exposition text
+	 */
+	public String render () {
+		StringBuilder out = new StringBuilder (8192);
+		Map<String, Stats> operations = new TreeMap<String, Stats>(this._operations);
+		Map<String, Stats> queries = new TreeMap<String, Stats>(this._queries);
+
+		header (out, "dbproject_operation_seconds", "summary", "Latency of menu options, script commands and commands.");
+		for (Map.Entry<String, Stats> entry : operations.entrySet ())
+			summary (out, "dbproject_operation_seconds", "operation=\"" + escape (entry.getKey ()) + "\"", entry.getValue ().latency);
+		header (out, "dbproject_operation_max_seconds", "gauge", "Slowest run of each operation.");
+		for (Map.Entry<String, Stats> entry : operations.entrySet ())
+			sample (out, "dbproject_operation_max_seconds", "operation=\"" + escape (entry.getKey ()) + "\"",
+				String.format (Locale.ROOT, "%.9f", entry.getValue ().latency.getMaxNanos () / 1e9));
+		header (out, "dbproject_operation_errors_total", "counter", "Operations that reported an error.");
+		for (Map.Entry<String, Stats> entry : operations.entrySet ())
+			sample (out, "dbproject_operation_errors_total", "operation=\"" + escape (entry.getKey ()) + "\"", entry.getValue ().errors.sum ());
+
+		header (out, "dbproject_query_seconds", "summary", "Latency of the execute methods by calling operation.");
+		for (Map.Entry<String, Stats> entry : queries.entrySet ())
+			summary (out, "dbproject_query_seconds", labels (entry.getKey ()), entry.getValue ().latency);
+		header (out, "dbproject_query_max_seconds", "gauge", "Slowest call of each execute method by calling operation.");
+		for (Map.Entry<String, Stats> entry : queries.entrySet ())
+			sample (out, "dbproject_query_max_seconds", labels (entry.getKey ()),
+				String.format (Locale.ROOT, "%.9f", entry.getValue ().latency.getMaxNanos () / 1e9));
+		header (out, "dbproject_query_rows_total", "counter", "Rows returned or changed by the execute methods.");
+		for (Map.Entry<String, Stats> entry : queries.entrySet ())
+			sample (out, "dbproject_query_rows_total", labels (entry.getKey ()), entry.getValue ().rows.sum ());
+		header (out, "dbproject_query_errors_total", "counter", "Execute method calls that threw.");
+		for (Map.Entry<String, Stats> entry : queries.entrySet ())
+			sample (out, "dbproject_query_errors_total", labels (entry.getKey ()), entry.getValue ().errors.sum ());
+
+		ConnectionPool pool = this._esql.getPool ();
+		if (pool != null){
+			gauge (out, "dbproject_pool_connections", "Open connections.", pool.getSize ());
+			gauge (out, "dbproject_pool_active_connections", "Borrowed connections.", pool.getActive ());
+			gauge (out, "dbproject_pool_idle_connections", "Idle connections.", pool.getIdle ());
+			gauge (out, "dbproject_pool_max_connections", "Pool size limit.", pool.getMaxSize ());
+			counter (out, "dbproject_pool_borrows_total", "Connections borrowed.", pool.getBorrows ());
+			counter (out, "dbproject_pool_waits_total", "Borrows that had to wait for a connection.", pool.getWaits ());
+			counter (out, "dbproject_pool_wait_seconds_total", "Time spent waiting for a connection.",
+				String.format (Locale.ROOT, "%.9f", pool.getTotalWaitNanos () / 1e9));
+			gauge (out, "dbproject_pool_max_wait_seconds", "Longest wait for a connection.",
+				String.format (Locale.ROOT, "%.9f", pool.getMaxWaitNanos () / 1e9));
+			counter (out, "dbproject_pool_timeouts_total", "Borrows that gave up waiting.", pool.getTimeouts ());
+			counter (out, "dbproject_pool_created_total", "Connections opened.", pool.getCreated ());
+			counter (out, "dbproject_pool_destroyed_total", "Connections closed.", pool.getDestroyed ());
+			counter (out, "dbproject_pool_validation_failures_total", "Connections found broken.", pool.getValidationFailures ());
+			counter (out, "dbproject_pool_leaks_total", "Connections held past the leak threshold.", pool.getLeaks ());
+			counter (out, "dbproject_statement_cache_hits_total", "Prepared statements reused.", pool.getStatementCacheHits ());
+			counter (out, "dbproject_statement_cache_misses_total", "Statements prepared anew.", pool.getStatementCacheMisses ());
+		}//end if
+
+		ReplicaRouter router = this._esql.getReplicaRouter ();
+		if (router != null && router.hasReplicas ()){
+			header (out, "dbproject_replica_reads_total", "counter", "Queries routed to each read replica.");
+			for (int i = 0; i < router.getReplicaCount (); ++i)
+				sample (out, "dbproject_replica_reads_total", "replica=\"" + router.getUrl (i) + "\"", router.getReplicaReads (i));
+			header (out, "dbproject_replica_active_connections", "gauge", "Borrowed connections of each read replica.");
+			for (int i = 0; i < router.getReplicaCount (); ++i)
+				sample (out, "dbproject_replica_active_connections", "replica=\"" + router.getUrl (i) + "\"", router.getReplica (i).getActive ());
+			counter (out, "dbproject_replica_pinned_reads_total", "Replica-eligible queries kept on the primary after a write of the session.", router.getPinnedReads ());
+			counter (out, "dbproject_replica_fallbacks_total", "Replica-eligible queries run on the primary because no replica connection was available.", router.getFallbacks ());
+		}//end if
+
+		WriteBehind behind = this._esql.getWriteBehind ();
+		if (behind != null){
+			gauge (out, "dbproject_write_behind_queued_rows", "Rows waiting in the write-behind queue.", behind.getQueued ());
+			gauge (out, "dbproject_write_behind_capacity_rows", "Write-behind queue size limit.", behind.getCapacity ());
+			counter (out, "dbproject_write_behind_rows_total", "Rows committed by the write-behind buffer.", behind.getWritten ());
+			counter (out, "dbproject_write_behind_batches_total", "Batches committed in one transaction.", behind.getBatches ());
+			counter (out, "dbproject_write_behind_retries_total", "Failed batches written again row by row.", behind.getRetries ());
+			counter (out, "dbproject_write_behind_failed_rows_total", "Rows that could not be inserted.", behind.getFailed ());
+			counter (out, "dbproject_write_behind_waits_total", "Adds that waited for room in a full queue.", behind.getWaits ());
+			counter (out, "dbproject_write_behind_wait_seconds_total", "Time spent waiting for room in the queue.",
+				String.format (Locale.ROOT, "%.9f", behind.getWaitNanos () / 1e9));
+		}//end if
+
+		RouteIndex routes = this._esql.getRouteIndex ();
+		gauge (out, "dbproject_route_index_flights", "Flights in the route search index.", routes.size ());
+		counter (out, "dbproject_route_searches_total", "Flight searches answered.", routes.getSearches ());
+		counter (out, "dbproject_route_seat_refreshes_total", "Result pages whose sold counts were read again.", routes.getRefreshes ());
+
+		ConnectionFinder connections = this._esql.getConnectionFinder ();
+		gauge (out, "dbproject_connection_graph_flights", "Flights in the connection search graph.", connections.size ());
+		counter (out, "dbproject_connection_searches_total", "Connection searches answered.", connections.getSearches ());
+		counter (out, "dbproject_connection_graph_rebuilds_total", "Times added flights were sorted into the graph.", connections.getRebuilds ());
+
+		SlowQueryLog slow = this._esql.getSlowQueryLog ();
+		counter (out, "dbproject_slow_queries_total", "Queries written to the slow query log.", slow.getEntries ());
+		counter (out, "dbproject_slow_queries_explained_total", "Slow queries whose plan was captured.", slow.getExplained ());
+
+		ReferenceData reference = this._esql.getReferenceData ();
+		ReferenceCache<?, ?>[] caches = { reference.planes, reference.pilots, reference.technicians };
+		header (out, "dbproject_reference_cache_entries", "gauge", "Cached reference rows.");
+		for (ReferenceCache<?, ?> cache : caches)
+			sample (out, "dbproject_reference_cache_entries", "cache=\"" + cache.getName () + "\"", cache.size ());
+		header (out, "dbproject_reference_cache_hits_total", "counter", "Reference lookups served from memory.");
+		for (ReferenceCache<?, ?> cache : caches)
+			sample (out, "dbproject_reference_cache_hits_total", "cache=\"" + cache.getName () + "\"", cache.getHits ());
+		header (out, "dbproject_reference_cache_misses_total", "counter", "Reference lookups read from the database.");
+		for (ReferenceCache<?, ?> cache : caches)
+			sample (out, "dbproject_reference_cache_misses_total", "cache=\"" + cache.getName () + "\"", cache.getMisses ());
+		header (out, "dbproject_reference_cache_evictions_total", "counter", "Reference rows evicted for space.");
+		for (ReferenceCache<?, ?> cache : caches)
+			sample (out, "dbproject_reference_cache_evictions_total", "cache=\"" + cache.getName () + "\"", cache.getEvictions ());
+		header (out, "dbproject_reference_cache_expirations_total", "counter", "Reference rows expired by age.");
+		for (ReferenceCache<?, ?> cache : caches)
+			sample (out, "dbproject_reference_cache_expirations_total", "cache=\"" + cache.getName () + "\"", cache.getExpirations ());
+		return out.toString ();
+	}
+
+	private static String labels (String key) {
+		int tab = key.indexOf ('\t');
+		return "operation=\"" + escape (key.substring (0, tab)) + "\",method=\"" + escape (key.substring (tab + 1)) + "\"";
+	}
+
+	private static void gauge (StringBuilder out, String name, String help, Object value) {
+		header (out, name, "gauge", help);
+		sample (out, name, null, value);
+	}
+
+	private static void counter (StringBuilder out, String name, String help, Object value) {
+		header (out, name, "counter", help);
+		sample (out, name, null, value);
+	}
+}//end Metrics
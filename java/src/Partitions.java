@@ -0,0 +1,113 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * This class maintains the yearly partitions of Repairs (by repair_date)
+ * and Schedule (by departure_time).  Partitions are created by the
+ * ensure_year_partitions and split_default_partition functions of
+ * sql/create.sql; the loaders call them around a load, and the --partitions
+ * command creates the partitions of the coming years ahead of time.
+ *
+ */
+
+public class Partitions{
+	//the range partitioned tables
+	static final String[] TABLES = { "Repairs", "Schedule" };
+	//their partition columns
+	static final String[] KEYS = { "repair_date", "departure_time" };
+	//their ids, unique across the partitions
+	static final String[] IDS = { "rid", "id" };
+
+	static final String ENSURE_SQL = "SELECT ensure_year_partitions(?::regclass, ?, ?);";
+	static final String SPLIT_SQL = "SELECT split_default_partition(?::regclass);";
+	//partitions of a table with their estimated rows, oldest first
+	static final String LIST_SQL =
+		"SELECT C.relname, C.reltuples::bigint\n" +
+		"FROM pg_inherits I JOIN pg_class C ON C.oid = I.inhrelid\n" +
+		"WHERE I.inhparent = ?::regclass\n" +
+		"ORDER BY C.relname;";
+
+	/**
+	 * Method to create the partitions of a table for every year from first
+	 * to last.  Rows of those years waiting in the default partition are
+	 * moved into them.
+	 *
+	 * @param esql the database connection
+	 * @param table a partitioned table
+	 * @param first the first day to cover
+	 * @param last the last day to cover
+	 * @return the number of partitions created
+	 * @throws java.sql.SQLException when a partition cannot be created
+	 */
+	public static int ensure (DBproject esql, String table, LocalDate first, LocalDate last) throws SQLException {
+		return esql.executeQueryForColumns (ENSURE_SQL, table, first, last).ints (1)[0];
+	}
+
+	/**
+	 * Method to give every year found in the default partition of a table
+	 * its own partition, e.g. after loading rows of unknown dates.
+	 *
+	 * @param esql the database connection
+	 * @param table a partitioned table
+	 * @return the number of partitions created
+	 * @throws java.sql.SQLException when a partition cannot be created
+	 */
+	public static int split (DBproject esql, String table) throws SQLException {
+		return esql.executeQueryForColumns (SPLIT_SQL, table).ints (1)[0];
+	}
+
+	/**
+	 * Method to check that the ids of every partitioned table are unique,
+	 * e.g. after a load that ran with the partitioned_id_unique trigger off.
+	 *
+	 * @param esql the database connection
+	 * @throws java.sql.SQLException with SQLState 23505 naming the first
+	 *         duplicate id, or when the query fails
+	 */
+	public static void checkIds (DBproject esql) throws SQLException {
+		for (int t = 0; t < TABLES.length; ++t){
+			int[] duplicate = esql.executeQueryForColumns ("SELECT " + IDS[t] + " FROM " + TABLES[t]
+				+ " GROUP BY " + IDS[t] + " HAVING COUNT(*) > 1 LIMIT 1;").ints (1);
+			if (duplicate.length > 0)
+				throw new SQLException (TABLES[t] + " " + IDS[t] + " " + duplicate[0] + " is held by more than one row.", "23505");
+		}//end for
+	}
+
+	/**
+	 * Method to run the --partitions command: create the partitions of both
+	 * tables up to some years ahead, move the rows of the default partitions
+	 * and list what there is.
+	 *
+	 * @param esql the database connection
+	 * @param args [years ahead], 1 by default
+	 * @throws Exception when a partition cannot be created
+	 */
+	public static void main (DBproject esql, String[] args) throws Exception {
+		if (args.length > 1)
+			throw new IllegalArgumentException ("Usage: --partitions [years ahead]");
+		int ahead = args.length == 1 ? Integer.parseInt (args[0]) : 1;
+		if (ahead < 0)
+			throw new IllegalArgumentException ("Years ahead must not be negative");
+		LocalDate today = LocalDate.now ();
+		for (String table : TABLES){
+			int created = ensure (esql, table, today, today.plusYears (ahead)) + split (esql, table);
+			System.out.println (table + ": " + created + " partition(s) created");
+			for (List<String> row : esql.executeQueryAndReturnResult (LIST_SQL, table))
+				System.out.println (String.format ("  %-24s ~%s rows", row.get (0), row.get (1)));
+		}//end for
+	}
+}//end Partitions
@@ -0,0 +1,101 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * This class checks the passenger counts (PassengersPerFlight) that a trigger
+ * on Reservation keeps current for menu option 9, and can rebuild them from
+ * the live table, e.g. for reservations loaded with the trigger off.
+ *
+ */
+
+public class PassengerCounts{
+	//flights whose counts differ from the live aggregate, in one statement snapshot
+	static final String DIFF_SQL =
+		"SELECT COALESCE(S.fid, L.fid), COALESCE(S.waitlisted, 0), COALESCE(S.reserved, 0), COALESCE(S.cancelled, 0),\n" +
+		"COALESCE(L.waitlisted, 0), COALESCE(L.reserved, 0), COALESCE(L.cancelled, 0)\n" +
+		"FROM PassengersPerFlight S FULL OUTER JOIN\n" +
+		"(SELECT fid, COUNT(*) FILTER (WHERE status = 'W') AS waitlisted, COUNT(*) FILTER (WHERE status = 'R') AS reserved,\n" +
+		"COUNT(*) FILTER (WHERE status = 'C') AS cancelled FROM Reservation WHERE status IS NOT NULL GROUP BY fid) L ON L.fid = S.fid\n" +
+		"WHERE (COALESCE(S.waitlisted, 0), COALESCE(S.reserved, 0), COALESCE(S.cancelled, 0))\n" +
+		"<> (COALESCE(L.waitlisted, 0), COALESCE(L.reserved, 0), COALESCE(L.cancelled, 0))\n" +
+		"ORDER BY 1;";
+	static final String REBUILD_SQL =
+		"LOCK TABLE Reservation IN SHARE MODE;\n" +
+		"DELETE FROM PassengersPerFlight;\n" +
+		"INSERT INTO PassengersPerFlight (fid, waitlisted, reserved, cancelled)\n" +
+		"SELECT fid, COUNT(*) FILTER (WHERE status = 'W'), COUNT(*) FILTER (WHERE status = 'R'), COUNT(*) FILTER (WHERE status = 'C')\n" +
+		"FROM Reservation WHERE status IS NOT NULL GROUP BY fid;";
+
+	/**
+	 * Method to compare the counts with the live aggregates and print every
+	 * mismatch.
+	 *
+	 * @param esql the database connection
+	 * @return the number of flights whose counts are out of date
+	 * @throws java.sql.SQLException when the query fails
+	 */
+	public static int check (DBproject esql) throws SQLException {
+		int mismatches = 0;
+		for (List<String> row : esql.executeQueryAndReturnResult (DIFF_SQL)){
+			System.out.println ("Flight " + row.get (0) + ": counts W/R/C " + row.get (1) + "/" + row.get (2) + "/" + row.get (3)
+				+ ", actual " + row.get (4) + "/" + row.get (5) + "/" + row.get (6));
+			++mismatches;
+		}//end for
+		return mismatches;
+	}
+
+	/**
+	 * Method to recount every flight from Reservation.  Writers to
+	 * Reservation are blocked for the duration so no delta is lost.
+	 *
+	 * @param esql the database connection
+	 * @throws java.sql.SQLException when the rebuild fails
+	 */
+	public static void rebuild (DBproject esql) throws SQLException {
+		esql.executeTransaction (conn -> {
+			Statement stmt = conn.connection.createStatement ();
+			try{
+				stmt.execute (REBUILD_SQL);
+			}finally{
+				stmt.close ();
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Method to run the --check-passenger-counts command.
+	 *
+	 * @param esql the database connection
+	 * @param args [--fix] to rebuild the counts when they disagree
+	 * @throws Exception when the counts disagree and were not fixed
+	 */
+	public static void main (DBproject esql, String[] args) throws Exception {
+		boolean fix = args.length == 1 && args[0].equals ("--fix");
+		if (args.length > (fix ? 1 : 0))
+			throw new IllegalArgumentException ("Usage: --check-passenger-counts [--fix]");
+		int mismatches = check (esql);
+		if (mismatches == 0){
+			System.out.println ("Passenger counts match Reservation");
+			return;
+		}//end if
+		if (!fix)
+			throw new IllegalStateException (mismatches + " flight(s) with out of date passenger counts, rerun with --fix");
+		rebuild (esql);
+		System.out.println ("Rebuilt the passenger counts");
+	}
+}//end PassengerCounts
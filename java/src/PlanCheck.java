@@ -0,0 +1,138 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class guards the menu queries against sequential scans.  Every query
+ * is explained with parameters taken from the loaded data, and the check
+ * fails when a plan scans a table sequentially whose size reaches a row
+ * threshold.  Small tables are exempt since the planner rightly prefers a
+ * sequential scan for them; run the check after loading a scaled-up dataset.
+ *
+ */
+
+public class PlanCheck{
+	static final Pattern SEQ_SCAN = Pattern.compile ("Seq Scan on (\\w+)");
+
+	/**
+	 * A query to explain together with a query returning its parameters.
+	 */
+	static class Probe{
+		final String name;
+		final String sql;
+		final String sampleSql;
+		//reports aggregate whole tables, their plans are shown but not judged
+		final boolean report;
+
+		Probe(String name, String sql, String sampleSql, boolean report) {
+			this.name = name;
+			this.sql = sql;
+			this.sampleSql = sampleSql;
+			this.report = report;
+		}
+	}//end Probe
+
+	static List<Probe> probes () {
+		List<Probe> probes = new ArrayList<Probe>();
+		probes.add (new Probe ("BookFlight", DBproject.FIND_RESERVATION_SQL,
+			"SELECT cid, fid FROM Reservation LIMIT 1;", false));
+		probes.add (new Probe ("BookFlight upsert", BookingEngine.PAIR_UPDATE_SQL,
+			"SELECT status, cid, fid FROM Reservation LIMIT 1;", false));
+		probes.add (new Probe ("ListNumberOfAvailableSeats", DBproject.FLIGHT_SALES_SQL,
+			"SELECT fnum, actual_departure_date FROM Flight LIMIT 1;", false));
+		probes.add (new Probe ("ListNumberOfAvailableSeats capacity", DBproject.FLIGHT_PLANE_SQL,
+			"SELECT fnum FROM Flight LIMIT 1;", false));
+		probes.add (new Probe ("ListNumberOfAvailableSeats sold", DBproject.FLIGHT_SOLD_SQL,
+			"SELECT fnum, actual_departure_date FROM Flight LIMIT 1;", false));
+		probes.add (new Probe ("FindPassengersCountWithStatus", DBproject.PASSENGERS_WITH_STATUS_SQL,
+			"SELECT fid, status FROM Reservation LIMIT 1;", false));
+		probes.add (new Probe ("ListsTotalNumberOfRepairsPerPlane", DBproject.REPAIRS_PER_PLANE_SQL, null, true));
+		probes.add (new Probe ("ListTotalNumberOfRepairsPerYear", DBproject.REPAIRS_PER_YEAR_SQL, null, true));
+		return probes;
+	}
+
+	//planner estimate of the number of rows of a table
+	static long rows (DBproject esql, String table) throws SQLException {
+		List<List<String>> result = esql.executeQueryAndReturnResult (
+			"SELECT reltuples::bigint FROM pg_class WHERE relname = ? AND relkind IN ('r', 'p');", table);
+		return result.isEmpty () ? 0 : Long.parseLong (result.get (0).get (0));
+	}
+
+	/**
+	 * Method to explain every probe and count the plans that fall back to a
+	 * sequential scan on a large table.
+	 *
+	 * @param esql the database connection
+	 * @param minRows tables with at least this many rows must not be seq scanned
+	 * @return the number of offending plans
+	 * @throws java.sql.SQLException when a query cannot be explained
+	 */
+	public static int check (DBproject esql, long minRows) throws SQLException {
+		// fresh statistics, otherwise row estimates of a just loaded table are 0
+		esql.executeUpdate ("ANALYZE;");
+
+		int failures = 0;
+		for (Probe probe : probes ()){
+			Object[] params = new Object[0];
+			if (probe.sampleSql != null){
+				List<List<String>> sample = esql.executeQueryAndReturnResult (probe.sampleSql);
+				if (sample.isEmpty ()){
+					System.out.println ("SKIP " + probe.name + ": no sample data");
+					continue;
+				}//end if
+				params = sample.get (0).toArray ();
+			}//end if
+
+			List<List<String>> plan = esql.executeQueryAndReturnResult ("EXPLAIN " + probe.sql, params);
+			List<String> scanned = new ArrayList<String>();
+			for (List<String> line : plan){
+				Matcher m = SEQ_SCAN.matcher (line.get (0));
+				while (m.find ()){
+					String table = m.group (1);
+					if (rows (esql, table) >= minRows)
+						scanned.add (table);
+				}//end while
+			}//end for
+
+			if (scanned.isEmpty () || probe.report){
+				System.out.println ((probe.report ? "INFO " : "OK   ") + probe.name
+					+ (scanned.isEmpty () ? "" : " (report, scans " + scanned + ")"));
+				continue;
+			}//end if
+			++failures;
+			System.out.println ("FAIL " + probe.name + ": sequential scan on " + scanned);
+			for (List<String> line : plan)
+				System.out.println ("       " + line.get (0));
+		}//end for
+		return failures;
+	}
+
+	/**
+	 * Method to run the --check-plans command.
+	 *
+	 * @param esql the database connection
+	 * @param args [min rows], 100000 by default
+	 * @throws Exception when a menu query sequentially scans a large table
+	 */
+	public static void main (DBproject esql, String[] args) throws Exception {
+		long minRows = args.length > 0 ? Long.parseLong (args[0]) : 100000L;
+		int failures = check (esql, minRows);
+		if (failures > 0)
+			throw new IllegalStateException (failures + " menu quer" + (failures == 1 ? "y" : "ies") + " fell back to a sequential scan");
+	}
+}//end PlanCheck
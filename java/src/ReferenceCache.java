@@ -0,0 +1,161 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class defines a size-bounded, read-through cache for small reference
+ * rows.  Misses are loaded through the loader and kept for a fixed time to
+ * live; the least recently used entry is evicted once the cache is full.
+ * Absent rows are not cached, so a row inserted elsewhere is seen on the next
+ * lookup.
+ *
+ */
+
+public class ReferenceCache<K, V>{
+
+	/**
+	 * Loads the value for a key from the database, or returns null when the
+	 * row does not exist.
+	 */
+	public interface Loader<K, V>{
+		V load (K key) throws SQLException;
+	}//end Loader
+
+	private static class Entry<V>{
+		final V value;
+		final long loadedAt;
+
+		Entry(V value, long loadedAt) {
+			this.value = value;
+			this.loadedAt = loadedAt;
+		}
+	}//end Entry
+
+	private final String _name;
+	private final Loader<K, V> _loader;
+	private final int _maxSize;
+	private final long _ttlMillis;
+	private final LinkedHashMap<K, Entry<V>> _entries;
+
+	private final AtomicLong _hits = new AtomicLong ();
+	private final AtomicLong _misses = new AtomicLong ();
+	private final AtomicLong _evictions = new AtomicLong ();
+	private final AtomicLong _expirations = new AtomicLong ();
+
+	public ReferenceCache(String name, Loader<K, V> loader, int maxSize, long ttlMillis) {
+		this._name = name;
+		this._loader = loader;
+		this._maxSize = maxSize;
+		this._ttlMillis = ttlMillis;
+		// access ordered so that the eldest entry is the least recently used
+		this._entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+	}
+
+	/**
+	 * Method to look a key up, loading it on a miss or once its entry expired.
+	 * The database is queried outside the cache lock, so two threads missing
+	 * on the same key may both load it.
+	 *
+	 * @param key the key
+	 * @return the value, or null when the row does not exist
+	 * @throws java.sql.SQLException when loading failed
+	 */
+	public V get (K key) throws SQLException {
+		long now = System.currentTimeMillis ();
+		synchronized (this){
+			Entry<V> entry = this._entries.get (key);
+			if (entry != null){
+				if (now - entry.loadedAt < this._ttlMillis){
+					this._hits.incrementAndGet ();
+					return entry.value;
+				}//end if
+				this._entries.remove (key);
+				this._expirations.incrementAndGet ();
+			}//end if
+		}
+		this._misses.incrementAndGet ();
+		V value = this._loader.load (key);
+		if (value != null)
+			put (key, value);
+		return value;
+	}
+
+	/**
+	 * Method to store a value that was just written to the database.
+	 *
+	 * @param key the key
+	 * @param value the value as written
+	 */
+	public synchronized void put (K key, V value) {
+		this._entries.put (key, new Entry<V>(value, System.currentTimeMillis ()));
+		Iterator<Map.Entry<K, Entry<V>>> it = this._entries.entrySet ().iterator ();
+		while (this._entries.size () > this._maxSize && it.hasNext ()){
+			it.next ();
+			it.remove ();
+			this._evictions.incrementAndGet ();
+		}//end while
+	}
+
+	/**
+	 * Method to drop a key, e.g. after a write whose resulting row is unknown.
+	 *
+	 * @param key the key
+	 */
+	public synchronized void invalidate (K key) {
+		this._entries.remove (key);
+	}
+
+	public synchronized void clear () {
+		this._entries.clear ();
+	}
+
+	public String getName () {
+		return this._name;
+	}
+
+	public synchronized int size () {
+		return this._entries.size ();
+	}
+
+	public long getHits () {
+		return this._hits.get ();
+	}
+
+	public long getMisses () {
+		return this._misses.get ();
+	}
+
+	public long getEvictions () {
+		return this._evictions.get ();
+	}
+
+	public long getExpirations () {
+		return this._expirations.get ();
+	}
+
+	public double getHitRatio () {
+		long hits = this._hits.get ();
+		long total = hits + this._misses.get ();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	public String toString () {
+		return String.format ("%s: %d entries, hit ratio %.3f (%d hits, %d misses), %d evictions, %d expirations",
+			this._name, size (), getHitRatio (), getHits (), getMisses (), getEvictions (), getExpirations ());
+	}
+}//end ReferenceCache
@@ -0,0 +1,112 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * This class holds the in-memory copies of the reference entities (Plane,
+ * Pilot and Technician).  Lookups read through to the database on a miss;
+ * AddPlane, AddPilot and AddTechnician write their new rows through.
+ *
+ */
+
+public class ReferenceData{
+	static final int CACHE_SIZE = Integer.getInteger ("dbproject.cache.size", 10000);
+	static final long CACHE_TTL_MS = Long.getLong ("dbproject.cache.ttlMs", 300000L);
+
+	public static final class Plane{
+		public final int id;
+		public final String make;
+		public final String model;
+		public final int age;
+		public final int seats;
+
+		public Plane(int id, String make, String model, int age, int seats) {
+			this.id = id;
+			this.make = make;
+			this.model = model;
+			this.age = age;
+			this.seats = seats;
+		}
+	}//end Plane
+
+	public static final class Pilot{
+		public final int id;
+		public final String fullname;
+		public final String nationality;
+
+		public Pilot(int id, String fullname, String nationality) {
+			this.id = id;
+			this.fullname = fullname;
+			this.nationality = nationality;
+		}
+	}//end Pilot
+
+	public static final class Technician{
+		public final int id;
+		public final String full_name;
+
+		public Technician(int id, String full_name) {
+			this.id = id;
+			this.full_name = full_name;
+		}
+	}//end Technician
+
+	public final ReferenceCache<Integer, Plane> planes;
+	public final ReferenceCache<Integer, Pilot> pilots;
+	public final ReferenceCache<Integer, Technician> technicians;
+
+	public ReferenceData(final DBproject esql) {
+		this.planes = new ReferenceCache<Integer, Plane>("Plane", id -> {
+			ResultColumns row = esql.executeQueryForColumns ("SELECT make, model, age, seats FROM Plane WHERE id = ?;", id);
+			return row.size () == 0 ? null : new Plane (id, row.string (0, 1).trim (), row.string (0, 2).trim (),
+				row.ints (3)[0], row.ints (4)[0]);
+		}, CACHE_SIZE, CACHE_TTL_MS);
+		this.pilots = new ReferenceCache<Integer, Pilot>("Pilot", id -> {
+			List<String> row = first (esql.executeQueryAndReturnResult (
+				"SELECT fullname, nationality FROM Pilot WHERE id = ?;", id));
+			return row == null ? null : new Pilot (id, trim (row.get (0)), trim (row.get (1)));
+		}, CACHE_SIZE, CACHE_TTL_MS);
+		this.technicians = new ReferenceCache<Integer, Technician>("Technician", id -> {
+			List<String> row = first (esql.executeQueryAndReturnResult (
+				"SELECT full_name FROM Technician WHERE id = ?;", id));
+			return row == null ? null : new Technician (id, row.get (0).trim ());
+		}, CACHE_SIZE, CACHE_TTL_MS);
+	}
+
+	private static List<String> first (List<List<String>> rows) {
+		return rows.isEmpty () ? null : rows.get (0);
+	}
+
+	//CHAR columns come back blank padded, nullable ones may be missing
+	private static String trim (String value) {
+		return value == null ? null : value.trim ();
+	}
+
+	public Plane plane (int id) throws SQLException {
+		return this.planes.get (id);
+	}
+
+	public Pilot pilot (int id) throws SQLException {
+		return this.pilots.get (id);
+	}
+
+	public Technician technician (int id) throws SQLException {
+		return this.technicians.get (id);
+	}
+
+	public String toString () {
+		return this.planes + "\n" + this.pilots + "\n" + this.technicians;
+	}
+}//end ReferenceData
@@ -0,0 +1,167 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * This class checks the repair summaries (RepairsPerPlane, RepairsPerYear)
+ * that a trigger on Repairs keeps current for menu options 7 and 8, and can
+ * rebuild them from the live table.
+ *
+ */
+
+public class RepairStats{
+	//summary rows whose count differs from the live aggregate, one statement snapshot each
+	static final String PER_PLANE_DIFF_SQL =
+		"SELECT COALESCE(S.plane_id, L.plane_id), COALESCE(S.repairs, 0), COALESCE(L.repairs, 0)\n" +
+		"FROM RepairsPerPlane S FULL OUTER JOIN\n" +
+		"(SELECT plane_id, COUNT(*) AS repairs FROM Repairs GROUP BY plane_id) L ON L.plane_id = S.plane_id\n" +
+		"WHERE COALESCE(S.repairs, 0) <> COALESCE(L.repairs, 0)\n" +
+		"ORDER BY 1;";
+	static final String PER_YEAR_DIFF_SQL =
+		"SELECT COALESCE(S.year, L.year), COALESCE(S.repairs, 0), COALESCE(L.repairs, 0)\n" +
+		"FROM RepairsPerYear S FULL OUTER JOIN\n" +
+		"(SELECT EXTRACT(year FROM repair_date)::int AS year, COUNT(*) AS repairs FROM Repairs GROUP BY 1) L ON L.year = S.year\n" +
+		"WHERE COALESCE(S.repairs, 0) <> COALESCE(L.repairs, 0)\n" +
+		"ORDER BY 1;";
+	//the summary and live count of one year; the date range, unlike
+	//EXTRACT(year ...), lets the planner read only that year's partition
+	static final String YEAR_DIFF_SQL =
+		"SELECT COALESCE((SELECT repairs FROM RepairsPerYear WHERE year = ?), 0),\n" +
+		"(SELECT COUNT(*) FROM Repairs WHERE repair_date >= ? AND repair_date < ?);";
+	static final String YEAR_REBUILD_SQL =
+		"INSERT INTO RepairsPerYear (year, repairs)\n" +
+		"SELECT ?, COUNT(*) FROM Repairs WHERE repair_date >= ? AND repair_date < ?\n" +
+		"ON CONFLICT (year) DO UPDATE SET repairs = EXCLUDED.repairs;";
+
+	/**
+	 * Method to compare both summaries with the live aggregates and print
+	 * every mismatch.
+	 *
+	 * @param esql the database connection
+	 * @return the number of mismatching summary rows
+	 * @throws java.sql.SQLException when a query fails
+	 */
+	public static int check (DBproject esql) throws SQLException {
+		int mismatches = 0;
+		for (List<String> row : esql.executeQueryAndReturnResult (PER_PLANE_DIFF_SQL)){
+			System.out.println ("Plane " + row.get (0) + ": summary " + row.get (1) + ", actual " + row.get (2));
+			++mismatches;
+		}//end for
+		for (List<String> row : esql.executeQueryAndReturnResult (PER_YEAR_DIFF_SQL)){
+			System.out.println ("Year " + row.get (0) + ": summary " + row.get (1) + ", actual " + row.get (2));
+			++mismatches;
+		}//end for
+		return mismatches;
+	}
+
+	/**
+	 * Method to recompute both summaries from Repairs.  Writers to Repairs are
+	 * blocked for the duration so no delta is lost.
+	 *
+	 * @param esql the database connection
+	 * @throws java.sql.SQLException when the rebuild fails
+	 */
+	public static void rebuild (DBproject esql) throws SQLException {
+		esql.executeTransaction (conn -> {
+			Statement stmt = conn.connection.createStatement ();
+			try{
+				stmt.execute (
+					"LOCK TABLE Repairs IN SHARE MODE;\n" +
+					"DELETE FROM RepairsPerPlane;\n" +
+					"DELETE FROM RepairsPerYear;\n" +
+					"INSERT INTO RepairsPerPlane (plane_id, repairs) SELECT plane_id, COUNT(*) FROM Repairs GROUP BY plane_id;\n" +
+					"INSERT INTO RepairsPerYear (year, repairs) SELECT EXTRACT(year FROM repair_date), COUNT(*) FROM Repairs GROUP BY 1;");
+			}finally{
+				stmt.close ();
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Method to compare the summary of one year with its live count, which
+	 * only reads the partition of that year.
+	 *
+	 * @param esql the database connection
+	 * @param year the year to check
+	 * @return 1 when the summary is out of date, else 0
+	 * @throws java.sql.SQLException when a query fails
+	 */
+	public static int checkYear (DBproject esql, int year) throws SQLException {
+		LocalDate first = LocalDate.of (year, 1, 1);
+		ResultColumns row = esql.executeQueryForColumns (YEAR_DIFF_SQL, year, first, first.plusYears (1));
+		long summary = row.longs (1)[0];
+		long actual = row.longs (2)[0];
+		if (summary == actual)
+			return 0;
+		System.out.println ("Year " + year + ": summary " + summary + ", actual " + actual);
+		return 1;
+	}
+
+	/**
+	 * Method to recount the summary of one year.  Writers to Repairs are
+	 * blocked for the duration so no delta is lost.
+	 *
+	 * @param esql the database connection
+	 * @param year the year to rebuild
+	 * @throws java.sql.SQLException when the rebuild fails
+	 */
+	public static void rebuildYear (DBproject esql, final int year) throws SQLException {
+		final LocalDate first = LocalDate.of (year, 1, 1);
+		esql.executeTransaction (conn -> {
+			Statement stmt = conn.connection.createStatement ();
+			try{
+				stmt.execute ("LOCK TABLE Repairs IN SHARE MODE;");
+			}finally{
+				stmt.close ();
+			}
+			PreparedStatement rebuild = conn.statements.prepare (YEAR_REBUILD_SQL);
+			DBproject.bind (rebuild, new Object[] { year, first, first.plusYears (1) });
+			rebuild.executeUpdate ();
+			return null;
+		});
+	}
+
+	/**
+	 * Method to run the --check-repair-stats command.
+	 *
+	 * @param esql the database connection
+	 * @param args [--fix] to rebuild the summaries when they disagree,
+	 *        [year] to check only the per-year summary of that year
+	 * @throws Exception when the summaries disagree and were not fixed
+	 */
+	public static void main (DBproject esql, String[] args) throws Exception {
+		boolean fix = args.length > 0 && args[0].equals ("--fix");
+		int at = fix ? 1 : 0;
+		if (args.length > at + 1)
+			throw new IllegalArgumentException ("Usage: --check-repair-stats [--fix] [year]");
+		Integer year = args.length > at ? Integer.valueOf (args[at]) : null;
+		int mismatches = year == null ? check (esql) : checkYear (esql, year);
+		if (mismatches == 0){
+			System.out.println ("Repair summaries match Repairs");
+			return;
+		}//end if
+		if (!fix)
+			throw new IllegalStateException (mismatches + " repair summary row(s) out of date, rerun with --fix");
+		if (year == null)
+			rebuild (esql);
+		else
+			rebuildYear (esql, year);
+		System.out.println ("Rebuilt the repair summaries");
+	}
+}//end RepairStats
@@ -0,0 +1,250 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class picks the pool a query runs on when read replicas are
+ * configured.  Only the queries of the read-only operations (the seat
+ * lookup, the repair reports and the passenger count, as named in the
+ * metrics) may go to a replica; everything else runs on the primary.
+ * Replicas are chosen round-robin, or the one with the fewest borrowed
+ * connections when dbproject.replicas.balance is least-loaded.
+ *
+ * Replicas lag behind the primary, so a session that has just written is
+ * pinned to the primary for dbproject.replicas.pinMs and reads its own
+ * writes.  The session is the calling thread unless one is bound with
+ * bind, e.g. from a header of an HTTP request.
+ *
+ */
+
+public class ReplicaRouter{
+	//host:port[/dbname] or jdbc:postgresql:// URLs, comma separated
+	static final String REPLICAS = System.getProperty ("dbproject.replicas", "");
+	static final String BALANCE = System.getProperty ("dbproject.replicas.balance", "round-robin");
+	//how long reads of a session stay on the primary after its last write
+	static final long PIN_MS = Long.getLong ("dbproject.replicas.pinMs", 5000L);
+	static final String OPERATIONS = System.getProperty ("dbproject.replicas.operations",
+		"ListNumberOfAvailableSeats,ListsTotalNumberOfRepairsPerPlane,ListTotalNumberOfRepairsPerYear,FindPassengersCountWithStatus");
+	//pin entries kept before the expired ones are swept
+	static final int SWEEP_SIZE = 10000;
+
+	private final List<ConnectionPool> _replicas;
+	private final List<String> _urls;
+	private final boolean _leastLoaded;
+	private final long _pinNanos;
+	private final Set<String> _operations;
+	private final AtomicInteger _next = new AtomicInteger ();
+	//nanoTime of the last write per session
+	private final Map<Object, Long> _lastWrite = new ConcurrentHashMap<Object, Long>();
+	private final ThreadLocal<Object> _session = new ThreadLocal<Object>();
+
+	private final AtomicLong _pinnedReads = new AtomicLong ();
+	private final AtomicLong _fallbacks = new AtomicLong ();
+	private final AtomicLong[] _replicaReads;
+
+	/**
+	 * @param replicas one pool per replica, possibly none
+	 * @param urls the URL of each replica, for the metrics
+	 * @param balance round-robin or least-loaded
+	 * @param pinMs how long a session reads from the primary after a write
+	 * @param operations the operations whose queries may go to a replica
+	 */
+	public ReplicaRouter(List<ConnectionPool> replicas, List<String> urls, String balance, long pinMs, Set<String> operations) {
+		if (!balance.equals ("round-robin") && !balance.equals ("least-loaded"))
+			throw new IllegalArgumentException ("Unknown balancing " + balance + ", expected round-robin or least-loaded");
+		this._replicas = new ArrayList<ConnectionPool>(replicas);
+		this._urls = new ArrayList<String>(urls);
+		this._leastLoaded = balance.equals ("least-loaded");
+		this._pinNanos = TimeUnit.MILLISECONDS.toNanos (Math.max (0, pinMs));
+		this._operations = operations;
+		this._replicaReads = new AtomicLong[replicas.size ()];
+		for (int i = 0; i < this._replicaReads.length; ++i)
+			this._replicaReads[i] = new AtomicLong ();
+	}
+
+	/**
+	 * Method to parse a comma separated list of replicas.  An entry is a
+	 * jdbc:postgresql:// URL or host:port, optionally followed by /dbname;
+	 * the database defaults to the primary's.
+	 *
+	 * @param replicas the list, e.g. localhost:5433,localhost:5434
+	 * @param dbname the database of the primary
+	 * @return the JDBC URLs
+	 */
+	static List<String> urls (String replicas, String dbname) {
+		List<String> urls = new ArrayList<String>();
+		for (String entry : replicas.split (",")){
+			entry = entry.trim ();
+			if (entry.isEmpty ())
+				continue;
+			if (entry.startsWith ("jdbc:"))
+				urls.add (entry);
+			else
+				urls.add ("jdbc:postgresql://" + entry + (entry.contains ("/") ? "" : "/" + dbname));
+		}//end for
+		return urls;
+	}
+
+	static Set<String> operations (String operations) {
+		Set<String> names = new HashSet<String>();
+		for (String name : operations.split (","))
+			if (!name.trim ().isEmpty ())
+				names.add (name.trim ());
+		return Collections.unmodifiableSet (names);
+	}
+
+	public boolean hasReplicas () {
+		return !this._replicas.isEmpty ();
+	}
+
+	/**
+	 * Method to bind the calling thread to a session, so that the writes of
+	 * several threads pin the reads of all of them.
+	 *
+	 * @param session the session key, null for the thread itself
+	 * @return the previous session of the thread, to bind again afterwards
+	 */
+	public Object bind (Object session) {
+		Object previous = this._session.get ();
+		if (session == null)
+			this._session.remove ();
+		else
+			this._session.set (session);
+		return previous;
+	}
+
+	/**
+	 * Method to return the session of the calling thread, e.g. to bind it on
+	 * the thread running an asynchronous call.
+	 *
+	 * @return the bound session, or the thread itself
+	 */
+	public Object current () {
+		Object session = this._session.get ();
+		return session == null ? Thread.currentThread () : session;
+	}
+
+	/**
+	 * Method to note that the current session wrote to the primary.
+	 */
+	public void wrote () {
+		if (this._replicas.isEmpty () || this._pinNanos == 0)
+			return;
+		long now = System.nanoTime ();
+		this._lastWrite.put (current (), now);
+		if (this._lastWrite.size () > SWEEP_SIZE){
+			Iterator<Long> it = this._lastWrite.values ().iterator ();
+			while (it.hasNext ())
+				if (now - it.next () >= this._pinNanos)
+					it.remove ();
+		}//end if
+	}
+
+	//whether the session wrote within the pin interval
+	private boolean pinned () {
+		if (this._pinNanos == 0)
+			return false;
+		Object session = current ();
+		Long last = this._lastWrite.get (session);
+		if (last == null)
+			return false;
+		if (System.nanoTime () - last < this._pinNanos)
+			return true;
+		this._lastWrite.remove (session, last);
+		return false;
+	}
+
+	/**
+	 * Method to pick the replica for a query of an operation.
+	 *
+	 * @param operation the operation issuing the query
+	 * @return the replica's index, or -1 for the primary
+	 */
+	public int choose (String operation) {
+		if (this._replicas.isEmpty () || !this._operations.contains (operation))
+			return -1;
+		if (pinned ()){
+			this._pinnedReads.incrementAndGet ();
+			return -1;
+		}//end if
+		int n = this._replicas.size ();
+		// the rotation also breaks ties between equally loaded replicas
+		int start = Math.floorMod (this._next.getAndIncrement (), n);
+		int best = start;
+		if (this._leastLoaded){
+			int fewest = Integer.MAX_VALUE;
+			for (int i = 0; i < n; ++i){
+				int r = (start + i) % n;
+				int active = this._replicas.get (r).getActive ();
+				if (active < fewest){
+					fewest = active;
+					best = r;
+				}//end if
+			}//end for
+		}//end if
+		this._replicaReads[best].incrementAndGet ();
+		return best;
+	}
+
+	public ConnectionPool getReplica (int index) {
+		return this._replicas.get (index);
+	}
+
+	public int getReplicaCount () {
+		return this._replicas.size ();
+	}
+
+	public String getUrl (int index) {
+		return this._urls.get (index);
+	}
+
+	//a read the operation allowed on a replica but no replica could take
+	void fellBack () {
+		this._fallbacks.incrementAndGet ();
+	}
+
+	public long getReplicaReads (int index) {
+		return this._replicaReads[index].get ();
+	}
+
+	public long getPinnedReads () {
+		return this._pinnedReads.get ();
+	}
+
+	public long getFallbacks () {
+		return this._fallbacks.get ();
+	}
+
+	public String toString () {
+		return this._urls.isEmpty () ? "no replicas"
+			: this._urls + ", " + (this._leastLoaded ? "least-loaded" : "round-robin") + ", pinned "
+				+ TimeUnit.NANOSECONDS.toMillis (this._pinNanos) + " ms after a write, for " + Arrays.toString (this._operations.toArray ());
+	}
+
+	public void close () {
+		for (ConnectionPool pool : this._replicas)
+			pool.close ();
+	}
+}//end ReplicaRouter
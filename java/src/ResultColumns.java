@@ -0,0 +1,313 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * This class collects a query result column by column into typed arrays:
+ * int[] for integer columns, long[] for bigint, LocalDate[] for dates and
+ * String[] for everything else.  The column types and positions are read
+ * from the ResultSetMetaData once, on the first row; each further row is
+ * copied straight from the result set into the arrays, which grow by
+ * doubling, so integer columns cost no allocation per row at all.
+ *
+ * Columns are addressed 1-based as in JDBC, or by label.  A typed accessor
+ * asked for a column stored as text (e.g. a domain the driver does not map)
+ * parses it once.  SQL NULLs read as 0, null or are reported by isNull.
+ *
+ */
+
+public class ResultColumns implements DBproject.RowHandler{
+	static final int INT = 0;
+	static final int LONG = 1;
+	static final int DATE = 2;
+	static final int STRING = 3;
+
+	private String[] _labels = new String[0];
+	private int[] _types = new int[0];
+	private int[][] _ints;
+	private long[][] _longs;
+	private LocalDate[][] _dates;
+	private String[][] _strings;
+	//per column, allocated on the first NULL only
+	private boolean[][] _nulls;
+	private int _size = 0;
+	private int _capacity;
+	private boolean _resolved = false;
+
+	public ResultColumns() {
+		this (16);
+	}
+
+	/**
+	 * @param expectedRows initial capacity, e.g. the expected number of rows
+	 */
+	public ResultColumns(int expectedRows) {
+		this._capacity = Math.max (1, expectedRows);
+	}
+
+	//maps the column types once and allocates the arrays
+	private void resolve (ResultSetMetaData meta) throws SQLException {
+		int count = meta.getColumnCount ();
+		this._labels = new String[count];
+		this._types = new int[count];
+		this._ints = new int[count][];
+		this._longs = new long[count][];
+		this._dates = new LocalDate[count][];
+		this._strings = new String[count][];
+		this._nulls = new boolean[count][];
+		for (int c = 0; c < count; ++c){
+			this._labels[c] = meta.getColumnLabel (c + 1);
+			switch (meta.getColumnType (c + 1)){
+				case Types.INTEGER:
+				case Types.SMALLINT:
+				case Types.TINYINT:
+					this._types[c] = INT;
+					this._ints[c] = new int[this._capacity];
+					break;
+				case Types.BIGINT:
+					this._types[c] = LONG;
+					this._longs[c] = new long[this._capacity];
+					break;
+				case Types.DATE:
+					this._types[c] = DATE;
+					this._dates[c] = new LocalDate[this._capacity];
+					break;
+				default:
+					this._types[c] = STRING;
+					this._strings[c] = new String[this._capacity];
+			}
+		}//end for
+		this._resolved = true;
+	}
+
+	private void grow () {
+		this._capacity *= 2;
+		for (int c = 0; c < this._types.length; ++c){
+			switch (this._types[c]){
+				case INT: this._ints[c] = Arrays.copyOf (this._ints[c], this._capacity); break;
+				case LONG: this._longs[c] = Arrays.copyOf (this._longs[c], this._capacity); break;
+				case DATE: this._dates[c] = Arrays.copyOf (this._dates[c], this._capacity); break;
+				default: this._strings[c] = Arrays.copyOf (this._strings[c], this._capacity);
+			}
+			if (this._nulls[c] != null)
+				this._nulls[c] = Arrays.copyOf (this._nulls[c], this._capacity);
+		}//end for
+	}
+
+	private void setNull (int c) {
+		if (this._nulls[c] == null)
+			this._nulls[c] = new boolean[this._capacity];
+		this._nulls[c][this._size] = true;
+	}
+
+	public void row (ResultSet rs) throws SQLException {
+		if (!this._resolved)
+			resolve (rs.getMetaData ());
+		if (this._size == this._capacity)
+			grow ();
+		int row = this._size;
+		for (int c = 0; c < this._types.length; ++c){
+			switch (this._types[c]){
+				case INT:{
+					int value = rs.getInt (c + 1);
+					if (value == 0 && rs.wasNull ())
+						setNull (c);
+					this._ints[c][row] = value;
+					break;
+				}
+				case LONG:{
+					long value = rs.getLong (c + 1);
+					if (value == 0 && rs.wasNull ())
+						setNull (c);
+					this._longs[c][row] = value;
+					break;
+				}
+				case DATE:{
+					Date value = rs.getDate (c + 1);
+					if (value == null)
+						setNull (c);
+					this._dates[c][row] = value == null ? null : value.toLocalDate ();
+					break;
+				}
+				default:{
+					String value = rs.getString (c + 1);
+					if (value == null)
+						setNull (c);
+					this._strings[c][row] = value;
+				}
+			}
+		}//end for
+		++this._size;
+	}
+
+	/**
+	 * Method to trim the arrays to the number of rows, once the query is done.
+	 *
+	 * @return this
+	 */
+	ResultColumns finish () {
+		if (this._capacity == this._size)
+			return this;
+		this._capacity = Math.max (1, this._size);
+		for (int c = 0; c < this._types.length; ++c){
+			switch (this._types[c]){
+				case INT: this._ints[c] = Arrays.copyOf (this._ints[c], this._size); break;
+				case LONG: this._longs[c] = Arrays.copyOf (this._longs[c], this._size); break;
+				case DATE: this._dates[c] = Arrays.copyOf (this._dates[c], this._size); break;
+				default: this._strings[c] = Arrays.copyOf (this._strings[c], this._size);
+			}
+			if (this._nulls[c] != null)
+				this._nulls[c] = Arrays.copyOf (this._nulls[c], this._size);
+		}//end for
+		return this;
+	}
+
+	public int size () {
+		return this._size;
+	}
+
+	public int getColumnCount () {
+		return this._types.length;
+	}
+
+	public String getColumnLabel (int column) {
+		return this._labels[index (column)];
+	}
+
+	/**
+	 * Method to find a column by its label, ignoring case.
+	 *
+	 * @param label the column label
+	 * @return the 1-based column number
+	 * @throws IllegalArgumentException when there is no such column
+	 */
+	public int column (String label) {
+		for (int c = 0; c < this._labels.length; ++c)
+			if (this._labels[c].equalsIgnoreCase (label))
+				return c + 1;
+		throw new IllegalArgumentException ("No column " + label + " in " + Arrays.toString (this._labels));
+	}
+
+	private int index (int column) {
+		if (column < 1 || column > this._types.length)
+			throw new IllegalArgumentException ("No column " + column + " in " + this._types.length + " column(s)");
+		return column - 1;
+	}
+
+	public boolean isNull (int row, int column) {
+		boolean[] nulls = this._nulls[index (column)];
+		return nulls != null && nulls[row];
+	}
+
+	/**
+	 * Method to return an integer column.  The array is the one the rows were
+	 * collected into, not a copy; it must not be changed.
+	 *
+	 * @param column the 1-based column number
+	 * @return the values, one per row
+	 */
+	public int[] ints (int column) {
+		if (this._size == 0 && !this._resolved)
+			return new int[0];
+		int c = index (column);
+		if (this._types[c] == INT)
+			return this._ints[c];
+		int[] values = new int[this._size];
+		for (int r = 0; r < this._size; ++r)
+			values[r] = this._types[c] == LONG ? Math.toIntExact (this._longs[c][r])
+				: isNull (r, column) ? 0 : Integer.parseInt (string (r, column).trim ());
+		return values;
+	}
+
+	public int[] ints (String label) {
+		return this._resolved ? ints (column (label)) : new int[0];
+	}
+
+	public long[] longs (int column) {
+		if (this._size == 0 && !this._resolved)
+			return new long[0];
+		int c = index (column);
+		if (this._types[c] == LONG)
+			return this._longs[c];
+		long[] values = new long[this._size];
+		for (int r = 0; r < this._size; ++r)
+			values[r] = this._types[c] == INT ? this._ints[c][r]
+				: isNull (r, column) ? 0 : Long.parseLong (string (r, column).trim ());
+		return values;
+	}
+
+	public long[] longs (String label) {
+		return this._resolved ? longs (column (label)) : new long[0];
+	}
+
+	public LocalDate[] dates (int column) {
+		if (this._size == 0 && !this._resolved)
+			return new LocalDate[0];
+		int c = index (column);
+		if (this._types[c] == DATE)
+			return this._dates[c];
+		LocalDate[] values = new LocalDate[this._size];
+		for (int r = 0; r < this._size; ++r)
+			values[r] = isNull (r, column) ? null : LocalDate.parse (string (r, column).trim ().substring (0, 10));
+		return values;
+	}
+
+	public LocalDate[] dates (String label) {
+		return this._resolved ? dates (column (label)) : new LocalDate[0];
+	}
+
+	/**
+	 * Method to read one value as text, whatever the column type; CHAR
+	 * values keep their blank padding as with getString.
+	 *
+	 * @param row the 0-based row
+	 * @param column the 1-based column number
+	 * @return the value, null for SQL NULL
+	 */
+	public String string (int row, int column) {
+		int c = index (column);
+		if (row < 0 || row >= this._size)
+			throw new IndexOutOfBoundsException ("Row " + row + " of " + this._size);
+		if (isNull (row, column))
+			return null;
+		switch (this._types[c]){
+			case INT: return Integer.toString (this._ints[c][row]);
+			case LONG: return Long.toString (this._longs[c][row]);
+			case DATE: return this._dates[c][row].toString ();
+			default: return this._strings[c][row];
+		}
+	}
+
+	public String[] strings (int column) {
+		if (this._size == 0 && !this._resolved)
+			return new String[0];
+		int c = index (column);
+		if (this._types[c] == STRING)
+			return this._strings[c];
+		String[] values = new String[this._size];
+		for (int r = 0; r < this._size; ++r)
+			values[r] = string (r, column);
+		return values;
+	}
+
+	public String[] strings (String label) {
+		return this._resolved ? strings (column (label)) : new String[0];
+	}
+}//end ResultColumns
@@ -0,0 +1,397 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * This class writes streamed query rows to an output stream in one of
+ * several formats: the tab separated text of the menu, CSV, TSV or JSON
+ * lines.  Column labels and types are read from the metadata once; integer
+ * values are formatted straight into the buffer, everything else goes
+ * through getString.  Rows are collected in a 64K char buffer, reused by
+ * the next sink of the thread, and encoded to the stream in chunks of
+ * several kilobytes, so a million row dump costs a few thousand writes
+ * instead of several million.
+ *
+ */
+
+public abstract class ResultSink implements DBproject.RowHandler{
+	static final int BUFFER_SIZE = 1 << 16;
+	//buffer of the last finished sink of each thread, taken by the next one
+	private static final ThreadLocal<char[]> BUFFERS = new ThreadLocal<char[]>();
+
+	static final String[] FORMATS = { "text", "csv", "tsv", "jsonl" };
+
+	private final Writer _out;
+	private final char[] _buffer;
+	private int _length = 0;
+	private boolean _inUse = true;
+
+	protected String[] labels;
+	//whether a column is written with getLong rather than getString
+	protected boolean[] integral;
+	private boolean _resolved = false;
+
+	protected ResultSink(OutputStream out) {
+		this._out = new OutputStreamWriter (out, StandardCharsets.UTF_8);
+		char[] buffer = BUFFERS.get ();
+		if (buffer == null){
+			buffer = new char[BUFFER_SIZE];
+		}else{
+			// not shared with a sink created before this one finishes
+			BUFFERS.remove ();
+		}//end if
+		this._buffer = buffer;
+	}
+
+	/**
+	 * Method to create the sink of a format by name.
+	 *
+	 * @param format text, csv, tsv or jsonl
+	 * @param out where to write
+	 * @return the sink
+	 * @throws IllegalArgumentException for an unknown format
+	 */
+	public static ResultSink forFormat (String format, OutputStream out) {
+		switch (format.toLowerCase ()){
+			case "text": return text (out);
+			case "csv": return csv (out);
+			case "tsv": return tsv (out);
+			case "jsonl": return jsonLines (out);
+			default: throw new IllegalArgumentException ("Unknown format " + format + ", expected one of text, csv, tsv, jsonl");
+		}
+	}
+
+	public static ResultSink text (OutputStream out) {
+		return new Text (out);
+	}
+
+	public static ResultSink csv (OutputStream out) {
+		return new Csv (out);
+	}
+
+	public static ResultSink tsv (OutputStream out) {
+		return new Tsv (out);
+	}
+
+	public static ResultSink jsonLines (OutputStream out) {
+		return new JsonLines (out);
+	}
+
+	public final void row (ResultSet rs) throws SQLException {
+		if (!this._resolved){
+			ResultSetMetaData meta = rs.getMetaData ();
+			int count = meta.getColumnCount ();
+			this.labels = new String[count];
+			this.integral = new boolean[count];
+			for (int c = 0; c < count; ++c){
+				this.labels[c] = meta.getColumnLabel (c + 1);
+				int type = meta.getColumnType (c + 1);
+				this.integral[c] = type == Types.INTEGER || type == Types.SMALLINT || type == Types.TINYINT || type == Types.BIGINT;
+			}//end for
+			this._resolved = true;
+			header ();
+		}//end if
+		for (int c = 0; c < this.labels.length; ++c){
+			if (this.integral[c]){
+				long value = rs.getLong (c + 1);
+				if (rs.wasNull ())
+					cell (c, null);
+				else
+					cell (c, value);
+			}else{
+				cell (c, rs.getString (c + 1));
+			}//end if
+		}//end for
+		endRow ();
+	}
+
+	//written before the first row
+	protected abstract void header ();
+
+	protected abstract void cell (int column, String value);
+
+	protected abstract void cell (int column, long value);
+
+	protected abstract void endRow ();
+
+	protected final void append (char c) {
+		if (this._length == this._buffer.length)
+			drain ();
+		this._buffer[this._length++] = c;
+	}
+
+	protected final void append (String s) {
+		int at = 0;
+		int length = s.length ();
+		while (at < length){
+			if (this._length == this._buffer.length)
+				drain ();
+			int n = Math.min (length - at, this._buffer.length - this._length);
+			s.getChars (at, at + n, this._buffer, this._length);
+			this._length += n;
+			at += n;
+		}//end while
+	}
+
+	//formats the digits into the buffer without making a String
+	protected final void append (long value) {
+		if (value == Long.MIN_VALUE){
+			append (Long.toString (value));
+			return;
+		}//end if
+		if (this._buffer.length - this._length < 20)
+			drain ();
+		if (value < 0){
+			this._buffer[this._length++] = '-';
+			value = -value;
+		}//end if
+		int end = this._length + digits (value);
+		int at = end;
+		do{
+			this._buffer[--at] = (char) ('0' + value % 10);
+			value /= 10;
+		}while (value != 0);
+		this._length = end;
+	}
+
+	private static int digits (long value) {
+		int n = 1;
+		while (value >= 10){
+			value /= 10;
+			++n;
+		}//end while
+		return n;
+	}
+
+	private void drain () {
+		try{
+			this._out.write (this._buffer, 0, this._length);
+			this._length = 0;
+		}catch (IOException e){
+			throw new UncheckedIOException (e);
+		}//end try
+	}
+
+	/**
+	 * Method to write out what is buffered.  The stream is flushed, not
+	 * closed; the sink must not be used afterwards.
+	 *
+	 * @throws IOException when writing fails
+	 */
+	public void finish () throws IOException {
+		if (!this._inUse)
+			return;
+		this._inUse = false;
+		this._out.write (this._buffer, 0, this._length);
+		this._length = 0;
+		this._out.flush ();
+		BUFFERS.set (this._buffer);
+	}
+
+	/**
+	 * The tab separated output of the menu: a header line of column names,
+	 * then one line per row, every value followed by a tab.
+	 */
+	static class Text extends ResultSink{
+		Text(OutputStream out) {
+			super (out);
+		}
+
+		protected void header () {
+			for (String label : this.labels){
+				append (label);
+				append ('\t');
+			}//end for
+			append ('\n');
+		}
+
+		protected void cell (int column, String value) {
+			append (value == null ? "null" : value);
+			append ('\t');
+		}
+
+		protected void cell (int column, long value) {
+			append (value);
+			append ('\t');
+		}
+
+		protected void endRow () {
+			append ('\n');
+		}
+	}//end Text
+
+	/**
+	 * RFC 4180 CSV with a header line; values holding a separator, quote or
+	 * line break are quoted, NULL is an empty field.
+	 */
+	static class Csv extends ResultSink{
+		Csv(OutputStream out) {
+			super (out);
+		}
+
+		protected void header () {
+			for (int c = 0; c < this.labels.length; ++c)
+				cell (c, this.labels[c]);
+			endRow ();
+		}
+
+		protected void cell (int column, String value) {
+			if (column > 0)
+				append (',');
+			if (value == null)
+				return;
+			boolean quote = false;
+			for (int i = 0; i < value.length () && !quote; ++i){
+				char c = value.charAt (i);
+				quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+			}//end for
+			if (!quote){
+				append (value);
+				return;
+			}//end if
+			append ('"');
+			for (int i = 0; i < value.length (); ++i){
+				char c = value.charAt (i);
+				if (c == '"')
+					append ('"');
+				append (c);
+			}//end for
+			append ('"');
+		}
+
+		protected void cell (int column, long value) {
+			if (column > 0)
+				append (',');
+			append (value);
+		}
+
+		protected void endRow () {
+			append ('\r');
+			append ('\n');
+		}
+	}//end Csv
+
+	/**
+	 * Tab separated values with a header line, escaped like the text format
+	 * of COPY: backslash, tab and line breaks as \\, \t, \n, \r and NULL as \N.
+	 */
+	static class Tsv extends ResultSink{
+		Tsv(OutputStream out) {
+			super (out);
+		}
+
+		protected void header () {
+			for (int c = 0; c < this.labels.length; ++c)
+				cell (c, this.labels[c]);
+			endRow ();
+		}
+
+		protected void cell (int column, String value) {
+			if (column > 0)
+				append ('\t');
+			if (value == null){
+				append ("\\N");
+				return;
+			}//end if
+			for (int i = 0; i < value.length (); ++i){
+				char c = value.charAt (i);
+				switch (c){
+					case '\\': append ("\\\\"); break;
+					case '\t': append ("\\t"); break;
+					case '\n': append ("\\n"); break;
+					case '\r': append ("\\r"); break;
+					default: append (c);
+				}
+			}//end for
+		}
+
+		protected void cell (int column, long value) {
+			if (column > 0)
+				append ('\t');
+			append (value);
+		}
+
+		protected void endRow () {
+			append ('\n');
+		}
+	}//end Tsv
+
+	/**
+	 * One JSON object per line, keyed by column label; integer columns are
+	 * numbers, everything else strings, NULL is null.
+	 */
+	static class JsonLines extends ResultSink{
+		//"label": prefixes, escaped once
+		private String[] _keys;
+
+		JsonLines(OutputStream out) {
+			super (out);
+		}
+
+		protected void header () {
+			this._keys = new String[this.labels.length];
+			for (int c = 0; c < this.labels.length; ++c)
+				this._keys[c] = (c == 0 ? "{" : ",") + BookingService.quote (this.labels[c]) + ":";
+		}
+
+		protected void cell (int column, String value) {
+			append (this._keys[column]);
+			if (value == null){
+				append ("null");
+				return;
+			}//end if
+			append ('"');
+			for (int i = 0; i < value.length (); ++i){
+				char c = value.charAt (i);
+				switch (c){
+					case '"': append ("\\\""); break;
+					case '\\': append ("\\\\"); break;
+					case '\n': append ("\\n"); break;
+					case '\r': append ("\\r"); break;
+					case '\t': append ("\\t"); break;
+					default:
+						if (c < 0x20){
+							append ("\\u00");
+							append (Character.forDigit (c >> 4, 16));
+							append (Character.forDigit (c & 0xf, 16));
+						}else{
+							append (c);
+						}//end if
+				}
+			}//end for
+			append ('"');
+		}
+
+		protected void cell (int column, long value) {
+			append (this._keys[column]);
+			append (value);
+		}
+
+		protected void endRow () {
+			if (this.labels.length == 0)
+				append ('{');
+			append ('}');
+			append ('\n');
+		}
+	}//end JsonLines
+}//end ResultSink
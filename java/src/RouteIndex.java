@@ -0,0 +1,356 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class finds the flights between two airports departing within a
+ * range of days.  Flights are held in memory by route, each route a sorted
+ * map from departure day to the flights of that day, so a search reads the
+ * days of its window and nothing else.  The index is loaded from Flight and
+ * FlightInfo on the first search and AddFlight adds to it as it goes.
+ *
+ * Seats left are the capacity of the plane less num_sold.  The sold count
+ * of a flight is re-read, together with its plane, once it is older than
+ * dbproject.routes.seatsMaxAgeMs when the flight lands on a result page, so
+ * repeated searches of a hot route are answered from memory.  A flight found
+ * deleted at that point is dropped from the index.
+ *
+ */
+
+public class RouteIndex{
+	//how long a sold count is shown before it is read again
+	static final long SEATS_MAX_AGE_MS = Long.getLong ("dbproject.routes.seatsMaxAgeMs", 1000L);
+	static final int DEFAULT_LIMIT = 20;
+	static final int MAX_LIMIT = 1000;
+
+	static final String LOAD_SQL =
+		"SELECT F.fnum, F.cost, F.num_sold, F.num_stops, F.actual_departure_date, F.actual_arrival_date,\n" +
+		"F.departure_airport, F.arrival_airport, FI.plane_id\n" +
+		"FROM Flight F LEFT JOIN FlightInfo FI ON FI.flight_id = F.fnum;";
+	//the current sold count and plane of a page of flights, given as {1,2,3}
+	static final String SEATS_SQL =
+		"SELECT F.fnum, F.num_sold, FI.plane_id\n" +
+		"FROM Flight F LEFT JOIN FlightInfo FI ON FI.flight_id = F.fnum\n" +
+		"WHERE F.fnum = ANY (?::int[]);";
+
+	/**
+	 * The order of the results.
+	 */
+	public enum Order{
+		DEPARTURE (Comparator.comparingLong ((Entry e) -> e.departure.toEpochDay ()).thenComparingInt (e -> e.cost).thenComparingInt (e -> e.fnum)),
+		COST (Comparator.comparingInt ((Entry e) -> e.cost).thenComparingLong (e -> e.departure.toEpochDay ()).thenComparingInt (e -> e.fnum));
+
+		final Comparator<Entry> comparator;
+
+		Order(Comparator<Entry> comparator) {
+			this.comparator = comparator;
+		}
+
+		public static Order of (String name) {
+			try{
+				return valueOf (name.toUpperCase (Locale.ROOT));
+			}catch (IllegalArgumentException e){
+				throw new IllegalArgumentException ("Unknown order " + name + ", expected departure or cost");
+			}//end try
+		}
+	}//end Order
+
+	//one indexed flight; the sold count and plane change after loading
+	static final class Entry{
+		final int fnum;
+		final int cost;
+		final int stops;
+		final LocalDate departure;
+		final LocalDate arrival;
+		final String route;
+		volatile int sold;
+		//0 when the flight has no FlightInfo row
+		volatile int plane;
+		volatile long checkedAt;
+
+		Entry(int fnum, int cost, int sold, int stops, LocalDate departure, LocalDate arrival, String route, int plane) {
+			this.fnum = fnum;
+			this.cost = cost;
+			this.sold = sold;
+			this.stops = stops;
+			this.departure = departure;
+			this.arrival = arrival;
+			this.route = route;
+			this.plane = plane;
+			this.checkedAt = System.nanoTime ();
+		}
+	}//end Entry
+
+	/**
+	 * One flight of a result page.
+	 */
+	public static final class Match{
+		public final int fnum;
+		public final int cost;
+		public final int stops;
+		public final LocalDate departure;
+		public final LocalDate arrival;
+		//null when the flight has no plane
+		public final Integer seatsLeft;
+
+		Match(Entry entry, Integer seatsLeft) {
+			this.fnum = entry.fnum;
+			this.cost = entry.cost;
+			this.stops = entry.stops;
+			this.departure = entry.departure;
+			this.arrival = entry.arrival;
+			this.seatsLeft = seatsLeft;
+		}
+	}//end Match
+
+	/**
+	 * A page of results together with the number of flights matching.
+	 */
+	public static final class Page{
+		public final int total;
+		public final int offset;
+		public final List<Match> flights;
+
+		Page(int total, int offset, List<Match> flights) {
+			this.total = total;
+			this.offset = offset;
+			this.flights = flights;
+		}
+	}//end Page
+
+	private final DBproject _esql;
+	private final long _maxAgeNanos;
+	//route -> departure day -> flights of that day, arrays replaced on change
+	private final Map<String, ConcurrentSkipListMap<Long, Entry[]>> _routes = new ConcurrentHashMap<String, ConcurrentSkipListMap<Long, Entry[]>>();
+	private final Map<Integer, Entry> _flights = new ConcurrentHashMap<Integer, Entry>();
+	private volatile boolean _loaded = false;
+
+	private final AtomicLong _searches = new AtomicLong ();
+	private final AtomicLong _refreshes = new AtomicLong ();
+
+	public RouteIndex(DBproject esql) {
+		this._esql = esql;
+		this._maxAgeNanos = TimeUnit.MILLISECONDS.toNanos (SEATS_MAX_AGE_MS);
+	}
+
+	//airport codes are CHAR(5), compared trimmed and case-insensitively
+	static String route (String from, String to) {
+		return from.trim ().toUpperCase (Locale.ROOT) + '>' + to.trim ().toUpperCase (Locale.ROOT);
+	}
+
+	//reads every flight once, blocking additions meanwhile
+	private synchronized void load () throws SQLException {
+		if (this._loaded)
+			return;
+		// every flight, streamed through a cursor so the driver does not hold them all twice
+		ResultColumns rows = new ResultColumns ();
+		this._esql.executeQueryAndStreamResult (LOAD_SQL, DBproject.FETCH_SIZE, rows);
+		rows.finish ();
+		int[] fnum = rows.ints (1);
+		int[] cost = rows.ints (2);
+		int[] sold = rows.ints (3);
+		int[] stops = rows.ints (4);
+		LocalDate[] departure = rows.dates (5);
+		LocalDate[] arrival = rows.dates (6);
+		String[] from = rows.strings (7);
+		String[] to = rows.strings (8);
+		int[] plane = rows.ints (9);
+		for (int r = 0; r < rows.size (); ++r)
+			put (new Entry (fnum[r], cost[r], sold[r], stops[r], departure[r], arrival[r], route (from[r], to[r]), plane[r]));
+		this._loaded = true;
+	}
+
+	//called with the lock held
+	private void put (Entry entry) {
+		Entry previous = this._flights.put (entry.fnum, entry);
+		if (previous != null)
+			unlink (previous);
+		ConcurrentSkipListMap<Long, Entry[]> days = this._routes.get (entry.route);
+		if (days == null){
+			days = new ConcurrentSkipListMap<Long, Entry[]>();
+			this._routes.put (entry.route, days);
+		}//end if
+		Long day = entry.departure.toEpochDay ();
+		Entry[] flights = days.get (day);
+		if (flights == null){
+			days.put (day, new Entry[] { entry });
+		}else{
+			Entry[] grown = Arrays.copyOf (flights, flights.length + 1);
+			grown[flights.length] = entry;
+			days.put (day, grown);
+		}//end if
+	}
+
+	//called with the lock held
+	private void unlink (Entry entry) {
+		ConcurrentSkipListMap<Long, Entry[]> days = this._routes.get (entry.route);
+		if (days == null)
+			return;
+		Long day = entry.departure.toEpochDay ();
+		Entry[] flights = days.get (day);
+		if (flights == null)
+			return;
+		List<Entry> kept = new ArrayList<Entry>(Arrays.asList (flights));
+		kept.remove (entry);
+		if (kept.isEmpty ())
+			days.remove (day);
+		else
+			days.put (day, kept.toArray (new Entry[kept.size ()]));
+	}
+
+	/**
+	 * Method to index a flight just written by AddFlight.  Nothing is done
+	 * before the first search, which loads the flight with all the others.
+	 *
+	 * @param fnum the flight number
+	 * @param cost the flight cost
+	 * @param sold the seats sold
+	 * @param stops the number of stops
+	 * @param departure the departure date
+	 * @param arrival the arrival date
+	 * @param from the departure airport
+	 * @param to the arrival airport
+	 */
+	public synchronized void add (int fnum, int cost, int sold, int stops, LocalDate departure, LocalDate arrival, String from, String to) {
+		if (this._loaded)
+			put (new Entry (fnum, cost, sold, stops, departure, arrival, route (from, to), 0));
+	}
+
+	/**
+	 * Method to drop a flight from the index, e.g. once it is deleted.
+	 *
+	 * @param fnum the flight number
+	 */
+	public synchronized void remove (int fnum) {
+		Entry entry = this._flights.remove (fnum);
+		if (entry != null)
+			unlink (entry);
+	}
+
+	/**
+	 * Method to search the flights of a route departing between two days.
+	 *
+	 * @param from the departure airport
+	 * @param to the arrival airport
+	 * @param first the first departure day
+	 * @param last the last departure day, inclusive
+	 * @param order the order of the results
+	 * @param offset the number of results to skip
+	 * @param limit the page size, up to MAX_LIMIT
+	 * @return the page of results
+	 * @throws java.sql.SQLException when loading or the seat refresh failed
+	 */
+	public Page search (String from, String to, LocalDate first, LocalDate last, Order order, int offset, int limit) throws SQLException {
+		if (offset < 0 || limit < 1 || limit > MAX_LIMIT)
+			throw new IllegalArgumentException ("Offset must not be negative and the limit within 1 and " + MAX_LIMIT);
+		if (last.isBefore (first))
+			throw new IllegalArgumentException ("The last day " + last + " is before the first day " + first);
+		if (!this._loaded)
+			load ();
+		this._searches.incrementAndGet ();
+
+		List<Entry> matches = new ArrayList<Entry>();
+		ConcurrentSkipListMap<Long, Entry[]> days = this._routes.get (route (from, to));
+		if (days != null){
+			NavigableMap<Long, Entry[]> window = days.subMap (first.toEpochDay (), true, last.toEpochDay (), true);
+			for (Entry[] flights : window.values ())
+				Collections.addAll (matches, flights);
+		}//end if
+		matches.sort (order.comparator);
+
+		List<Entry> page = offset >= matches.size () ? Collections.<Entry>emptyList ()
+			: matches.subList (offset, Math.min (matches.size (), offset + limit));
+		int dropped = refresh (page);
+		List<Match> flights = new ArrayList<Match>(page.size ());
+		for (Entry entry : page){
+			if (!this._flights.containsKey (entry.fnum))
+				continue;
+			ReferenceData.Plane plane = entry.plane == 0 ? null : this._esql.getReferenceData ().plane (entry.plane);
+			flights.add (new Match (entry, plane == null ? null : plane.seats - entry.sold));
+		}//end for
+		return new Page (matches.size () - dropped, offset, flights);
+	}
+
+	//re-reads the stale sold counts of a page in one query; returns the number of flights gone
+	private int refresh (List<Entry> page) throws SQLException {
+		long now = System.nanoTime ();
+		StringBuilder stale = new StringBuilder ("{");
+		List<Entry> entries = new ArrayList<Entry>();
+		for (Entry entry : page){
+			if (now - entry.checkedAt < this._maxAgeNanos)
+				continue;
+			if (!entries.isEmpty ())
+				stale.append (',');
+			stale.append (entry.fnum);
+			entries.add (entry);
+		}//end for
+		if (entries.isEmpty ())
+			return 0;
+		this._refreshes.incrementAndGet ();
+		ResultColumns rows = this._esql.executeQueryForColumns (SEATS_SQL, stale.append ('}').toString ());
+		Map<Integer, Integer> found = new HashMap<Integer, Integer>();
+		int[] fnum = rows.ints (1);
+		int[] sold = rows.ints (2);
+		int[] plane = rows.ints (3);
+		for (int r = 0; r < rows.size (); ++r)
+			found.put (fnum[r], r);
+		int dropped = 0;
+		for (Entry entry : entries){
+			Integer r = found.get (entry.fnum);
+			if (r == null){
+				remove (entry.fnum);
+				++dropped;
+				continue;
+			}//end if
+			entry.sold = sold[r];
+			entry.plane = plane[r];
+			entry.checkedAt = now;
+		}//end for
+		return dropped;
+	}
+
+	public boolean isLoaded () {
+		return this._loaded;
+	}
+
+	public int size () {
+		return this._flights.size ();
+	}
+
+	public int getRoutes () {
+		return this._routes.size ();
+	}
+
+	public long getSearches () {
+		return this._searches.get ();
+	}
+
+	public long getRefreshes () {
+		return this._refreshes.get ();
+	}
+}//end RouteIndex
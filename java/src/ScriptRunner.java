@@ -0,0 +1,368 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This class runs the menu operations headless.  Every line of the command
+ * file is one operation, its arguments separated by blanks; an argument with
+ * blanks is written in double quotes.  Dates are given as "YYYY-MM-DD hh:mm"
+ * (quoted) or YYYY-MM-DD.
+ *
+ *   addplane <id> <make> <model> <age> <seats>
+ *   addpilot <id> <fullname> <nationality>
+ *   addflight <fnum> <cost> <sold> <stops> <departure> <arrival> <arrival airport> <departure airport>
+ *   addtechnician <id> <full name>
+ *   book <cid> <fid> <W|R|C>
+ *   seats <fnum> <departure>
+ *   repairsperplane
+ *   repairsperyear
+ *   passengers <fnum> <W|R|C>
+ *   search <from> <to> <first day> <last day> [departure|cost] [offset] [limit]
+ *   connect <from> <to> <first day> <last day> [cheapest|fastest] [max legs] [min layover days] [limit]
+ *
+ * Output goes through a large buffer instead of line by line, and a
+ * throughput summary is printed at the end.  With the write-behind buffer on,
+ * the add commands run without waiting for their rows; a row that fails to
+ * insert is reported under its line later.  Any other command first waits
+ * for the queued rows, so it sees every row added above it, e.g. a flight
+ * booked right after its addflight line.
+ *
+ */
+
+public class ScriptRunner{
+	static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern ("yyyy-MM-dd HH:mm");
+	//commands are timed under the name of the menu option they stand for
+	static final Map<String, String> OPERATIONS = new TreeMap<String, String>();
+	//lines with an unknown command, timed under one name whatever the typo
+	static final String UNKNOWN_OPERATION = "Unknown";
+	//commands that only queue their row when the write-behind buffer is on
+	static final Set<String> QUEUED = new HashSet<String>(Arrays.asList ("addplane", "addpilot", "addflight", "addtechnician"));
+	static{
+		String[] commands = { "addplane", "addpilot", "addflight", "addtechnician", "book", "seats",
+			"repairsperplane", "repairsperyear", "passengers" };
+		for (int i = 0; i < commands.length; ++i)
+			OPERATIONS.put (commands[i], DBproject.MENU_OPERATIONS[i]);
+		OPERATIONS.put ("search", "SearchFlights");
+		OPERATIONS.put ("connect", "FindConnections");
+	}
+
+	private final DBproject _esql;
+	private final PrintStream _out;
+	//operations run per command name
+	private final Map<String, long[]> _counts = new TreeMap<String, long[]>();
+	private long _operations = 0;
+	private long _errors = 0;
+	//rows queued on the write-behind buffer, with their line
+	private List<Queued> _queued = new ArrayList<Queued>();
+
+	private static final class Queued{
+		final int line;
+		final CompletableFuture<Void> ack;
+
+		Queued (int line, CompletableFuture<Void> ack) {
+			this.line = line;
+			this.ack = ack;
+		}
+	}//end Queued
+
+	public ScriptRunner(DBproject esql, PrintStream out) {
+		this._esql = esql;
+		this._out = out;
+	}
+
+	/**
+	 * Method to split a command line into arguments, honouring double quotes.
+	 *
+	 * @param line the command line
+	 * @return the arguments, empty for a blank line
+	 */
+	static List<String> tokenize (String line) {
+		List<String> tokens = new ArrayList<String>();
+		StringBuilder token = new StringBuilder ();
+		boolean quoted = false;
+		boolean inToken = false;
+		for (int i = 0; i < line.length (); ++i){
+			char c = line.charAt (i);
+			if (c == '"'){
+				quoted = !quoted;
+				inToken = true;
+			}else if (Character.isWhitespace (c) && !quoted){
+				if (inToken){
+					tokens.add (token.toString ());
+					token.setLength (0);
+					inToken = false;
+				}//end if
+			}else{
+				token.append (c);
+				inToken = true;
+			}//end if
+		}//end for
+		if (quoted)
+			throw new IllegalArgumentException ("unterminated quote");
+		if (inToken)
+			tokens.add (token.toString ());
+		return tokens;
+	}
+
+	static LocalDate date (String value) {
+		try{
+			return LocalDate.parse (value, DATE_TIME);
+		}catch (DateTimeParseException e){
+			return LocalDate.parse (value);
+		}//end try
+	}
+
+	static String status (String value) {
+		if (!value.equals ("W") && !value.equals ("R") && !value.equals ("C"))
+			throw new IllegalArgumentException ("invalid status " + value);
+		return value;
+	}
+
+	private static void arity (List<String> args, int expected) {
+		if (args.size () - 1 != expected)
+			throw new IllegalArgumentException (args.get (0) + " takes " + expected + " argument(s), got " + (args.size () - 1));
+	}
+
+	/**
+	 * Method to run one operation through the same code path as the menu.
+	 * The exception is book: the menu first shows the reservation and asks
+	 * whether to book or update it, the script books straight through the
+	 * upsert of bookFlight, like --book and the HTTP service.  With the
+	 * write-behind buffer on, the add commands only queue their row.
+	 *
+	 * @param args the command name followed by its arguments
+	 * @return the future of a queued row, or null when the operation is done
+	 * @throws Exception when the arguments are invalid or the operation fails
+	 */
+	CompletableFuture<Void> execute (List<String> args) throws Exception {
+		String command = args.get (0).toLowerCase ();
+		boolean behind = this._esql.getWriteBehind () != null;
+		switch (command){
+			case "addplane":
+				arity (args, 5);
+				if (behind)
+					return DBproject.queuePlane (this._esql, Integer.parseInt (args.get (1)), args.get (2), args.get (3),
+						Integer.parseInt (args.get (4)), Integer.parseInt (args.get (5)));
+				DBproject.insertPlane (this._esql, Integer.parseInt (args.get (1)), args.get (2), args.get (3),
+					Integer.parseInt (args.get (4)), Integer.parseInt (args.get (5)));
+				break;
+			case "addpilot":
+				arity (args, 3);
+				if (behind)
+					return DBproject.queuePilot (this._esql, Integer.parseInt (args.get (1)), args.get (2), args.get (3));
+				DBproject.insertPilot (this._esql, Integer.parseInt (args.get (1)), args.get (2), args.get (3));
+				break;
+			case "addflight":
+				arity (args, 8);
+				if (behind)
+					return DBproject.queueFlight (this._esql, Integer.parseInt (args.get (1)), Integer.parseInt (args.get (2)),
+						Integer.parseInt (args.get (3)), Integer.parseInt (args.get (4)), date (args.get (5)), date (args.get (6)),
+						args.get (7), args.get (8));
+				DBproject.insertFlight (this._esql, Integer.parseInt (args.get (1)), Integer.parseInt (args.get (2)),
+					Integer.parseInt (args.get (3)), Integer.parseInt (args.get (4)), date (args.get (5)), date (args.get (6)),
+					args.get (7), args.get (8));
+				break;
+			case "addtechnician":
+				arity (args, 2);
+				if (behind)
+					return DBproject.queueTechnician (this._esql, Integer.parseInt (args.get (1)), args.get (2));
+				DBproject.insertTechnician (this._esql, Integer.parseInt (args.get (1)), args.get (2));
+				break;
+			case "book":
+				arity (args, 3);
+				DBproject.bookFlight (this._esql, Integer.parseInt (args.get (1)), Integer.parseInt (args.get (2)), status (args.get (3)));
+				break;
+			case "seats":
+				arity (args, 2);
+				Integer available = this._esql.getSeatsAvailable (Integer.parseInt (args.get (1)), date (args.get (2)));
+				this._out.println (available == null ? "Does not exist." : "Seats Available\t\n" + available + "\t");
+				break;
+			case "repairsperplane":
+				arity (args, 0);
+				this._esql.executeQueryAndPrintResult (DBproject.REPAIRS_PER_PLANE_SQL);
+				break;
+			case "repairsperyear":
+				arity (args, 0);
+				this._esql.executeQueryAndPrintResult (DBproject.REPAIRS_PER_YEAR_SQL);
+				break;
+			case "passengers":
+				arity (args, 2);
+				this._esql.executeQueryAndPrintResult (DBproject.PASSENGERS_WITH_STATUS_SQL,
+					Integer.parseInt (args.get (1)), status (args.get (2)));
+				break;
+			case "search":{
+				if (args.size () < 5 || args.size () > 8)
+					throw new IllegalArgumentException ("search takes 4 to 7 arguments, got " + (args.size () - 1));
+				RouteIndex.Page page = this._esql.getRouteIndex ().search (args.get (1), args.get (2), date (args.get (3)), date (args.get (4)),
+					args.size () > 5 ? RouteIndex.Order.of (args.get (5)) : RouteIndex.Order.DEPARTURE,
+					args.size () > 6 ? Integer.parseInt (args.get (6)) : 0,
+					args.size () > 7 ? Integer.parseInt (args.get (7)) : RouteIndex.DEFAULT_LIMIT);
+				StringBuilder rows = new StringBuilder ("fnum\tdeparture\tarrival\tcost\tstops\tseats_left\t\n");
+				for (RouteIndex.Match match : page.flights)
+					rows.append (match.fnum).append ('\t').append (match.departure).append ('\t').append (match.arrival).append ('\t')
+						.append (match.cost).append ('\t').append (match.stops).append ('\t').append (match.seatsLeft).append ("\t\n");
+				rows.append (page.flights.size () == 0 ? 0 : page.offset + 1).append ('-').append (page.offset + page.flights.size ())
+					.append (" of ").append (page.total);
+				this._out.println (rows);
+				break;
+			}
+			case "connect":{
+				if (args.size () < 5 || args.size () > 9)
+					throw new IllegalArgumentException ("connect takes 4 to 8 arguments, got " + (args.size () - 1));
+				List<ConnectionFinder.Itinerary> itineraries = this._esql.getConnectionFinder ().search (args.get (1), args.get (2),
+					date (args.get (3)), date (args.get (4)),
+					args.size () > 5 ? ConnectionFinder.Objective.of (args.get (5)) : ConnectionFinder.Objective.CHEAPEST,
+					args.size () > 6 ? Integer.parseInt (args.get (6)) : 2,
+					args.size () > 7 ? Integer.parseInt (args.get (7)) : 0,
+					args.size () > 8 ? Integer.parseInt (args.get (8)) : 10);
+				StringBuilder rows = new StringBuilder ("cost\tdays\tlegs\t\n");
+				for (ConnectionFinder.Itinerary itinerary : itineraries){
+					rows.append (itinerary.cost).append ('\t').append (itinerary.getDays ()).append ('\t');
+					for (ConnectionFinder.Leg leg : itinerary.legs)
+						rows.append (leg.fnum).append (' ').append (leg.from).append ('>').append (leg.to)
+							.append (' ').append (leg.departure).append (' ').append (leg.arrival).append (' ');
+					rows.append ("\t\n");
+				}//end for
+				rows.append (itineraries.size ()).append (" itinerar").append (itineraries.size () == 1 ? "y" : "ies");
+				this._out.println (rows);
+				break;
+			}
+			default:
+				throw new IllegalArgumentException ("unknown command " + args.get (0));
+		}
+		return null;
+	}
+
+	/**
+	 * Method to report the queued rows that failed, as errors of their lines.
+	 *
+	 * @param wait whether to wait for every row, or only look at those done
+	 */
+	private void settle (boolean wait) {
+		List<Queued> pending = new ArrayList<Queued>();
+		for (Queued queued : this._queued){
+			if (!wait && !queued.ack.isDone ()){
+				pending.add (queued);
+				continue;
+			}//end if
+			try{
+				WriteBehind.await (queued.ack);
+			}catch (Exception e){
+				++this._errors;
+				this._out.println ("ERROR line " + queued.line + ": " + e.getMessage ());
+			}//end try
+		}//end for
+		this._queued = pending;
+	}
+
+	/**
+	 * Method to run every command of the input back to back.  A failing line
+	 * is reported and the run continues with the next one.
+	 *
+	 * @param input the command lines
+	 * @throws java.io.IOException when the input cannot be read
+	 */
+	public void run (BufferedReader input) throws java.io.IOException {
+		long start = System.nanoTime ();
+		int lineNo = 0;
+		String line;
+		while ((line = input.readLine ()) != null){
+			++lineNo;
+			String trimmed = line.trim ();
+			if (trimmed.isEmpty () || trimmed.startsWith ("#"))
+				continue;
+			String command = "?";
+			Metrics.Scope scope = null;
+			try{
+				List<String> args = tokenize (trimmed);
+				command = args.get (0).toLowerCase ();
+				// reads and bookings see the rows queued by the lines above
+				if (!QUEUED.contains (command))
+					settle (true);
+				scope = this._esql.getMetrics ().begin (OPERATIONS.containsKey (command) ? OPERATIONS.get (command) : UNKNOWN_OPERATION);
+				CompletableFuture<Void> ack = execute (args);
+				if (ack != null){
+					this._queued.add (new Queued (lineNo, ack));
+					if (this._queued.size () >= 2 * WriteBehind.CAPACITY)
+						settle (false);
+				}//end if
+			}catch (Exception e){
+				++this._errors;
+				this._esql.getMetrics ().error ();
+				this._out.println ("ERROR line " + lineNo + ": " + e.getMessage ());
+			}finally{
+				if (scope != null)
+					this._esql.getMetrics ().end (scope);
+			}//end try
+			++this._operations;
+			long[] count = this._counts.get (command);
+			if (count == null)
+				this._counts.put (command, count = new long[1]);
+			++count[0];
+		}//end while
+		settle (true);
+		long elapsed = System.nanoTime () - start;
+
+		this._out.println (String.format ("%d operations, %d errors in %.1f ms (%.0f ops/s)",
+			this._operations, this._errors, elapsed / 1e6, this._operations * 1e9 / Math.max (1, elapsed)));
+		for (Map.Entry<String, long[]> entry : this._counts.entrySet ())
+			this._out.println (String.format ("  %-16s %d", entry.getKey (), entry.getValue ()[0]));
+	}
+
+	public long getErrors () {
+		return this._errors;
+	}
+
+	/**
+	 * Method to run the --script command.  Standard out is replaced by a
+	 * buffered stream for the duration, so query results printed by
+	 * DBproject are buffered as well.
+	 *
+	 * @param esql the database connection
+	 * @param source the command file name or "-" for standard in
+	 * @throws Exception when the input cannot be read
+	 */
+	public static void main (DBproject esql, String source) throws Exception {
+		BufferedReader input = source.equals ("-")
+			? new BufferedReader (new InputStreamReader (System.in), 1 << 16)
+			: new BufferedReader (new FileReader (source), 1 << 16);
+		PrintStream console = System.out;
+		PrintStream out = new PrintStream (new BufferedOutputStream (new FileOutputStream (FileDescriptor.out), 1 << 16), false);
+		System.setOut (out);
+		try{
+			new ScriptRunner (esql, out).run (input);
+		}finally{
+			out.flush ();
+			System.setOut (console);
+			input.close ();
+		}
+	}
+}//end ScriptRunner
@@ -0,0 +1,247 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class stress tests the seat inventory.  It creates a scratch plane and
+ * flights, lets many threads book them at once - half of the attempts on one
+ * small "hot" flight, the rest on a flight per thread - and then checks that
+ * no flight sold more seats than its plane has and that num_sold matches the
+ * reserved rows.  Every attempt on the hot flight books another customer, so
+ * distinct customers compete for its last seats; an attempt only counts as
+ * a booking when it took a seat its customer did not hold yet.  The scratch
+ * rows are removed afterwards.
+ *
+ */
+
+public class SeatStress{
+	//SQL state raised by the seat trigger when a flight is full
+	static final String CHECK_VIOLATION = "23514";
+	//the lock book_reservation takes, held here so the check below sees what the booking will change
+	static final String LOCK_SQL = "SELECT pg_advisory_xact_lock(?, ?);";
+	static final String HELD_SQL = "SELECT COUNT(*)::int FROM Reservation WHERE cid = ? AND fid = ? AND status = 'R';";
+
+	private final DBproject _esql;
+	private final int _threads;
+	private final int _attempts;
+	private final int _hotSeats;
+
+	private int _planeId;
+	private int _hotFlight;
+	private int[] _coldFlights;
+	private int[] _customers;
+
+	//attempts that took a new seat, and those whose customer already held one
+	private final AtomicLong _booked = new AtomicLong ();
+	private final AtomicLong _held = new AtomicLong ();
+	private final AtomicLong _full = new AtomicLong ();
+	private final AtomicLong _errors = new AtomicLong ();
+
+	public SeatStress(DBproject esql, int threads, int attempts, int hotSeats) {
+		this._esql = esql;
+		this._threads = threads;
+		this._attempts = attempts;
+		this._hotSeats = hotSeats;
+	}
+
+	//creates the scratch plane, flights and FlightInfo rows
+	private void setUp () throws SQLException {
+		this._esql.executeTransaction (conn -> {
+			this._planeId = scalar (conn, "SELECT COALESCE(MAX(id), 0) + 1 FROM Plane;");
+			int fnum = scalar (conn, "SELECT COALESCE(MAX(fnum), 0) + 1 FROM Flight;");
+			int fiid = scalar (conn, "SELECT COALESCE(MAX(fiid), 0) + 1 FROM FlightInfo;");
+			int pilot = scalar (conn, "SELECT MIN(id) FROM Pilot;");
+
+			// the hot flight uses a small plane, the others the largest allowed
+			update (conn, "INSERT INTO Plane (id, make, model, age, seats) VALUES (?, 'Stress', 'Stress', 0, ?);",
+				this._planeId, this._hotSeats);
+			update (conn, "INSERT INTO Plane (id, make, model, age, seats) VALUES (?, 'Stress', 'Stress', 0, 499);",
+				this._planeId + 1);
+			this._hotFlight = fnum;
+			this._coldFlights = new int[this._threads];
+			for (int i = 0; i <= this._threads; ++i){
+				int plane = i == 0 ? this._planeId : this._planeId + 1;
+				update (conn, "INSERT INTO Flight (fnum, cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport) VALUES (?, 100, 0, 0, ?, ?, 'STRSA', 'STRSB');",
+					fnum + i, LocalDate.now (), LocalDate.now ().plusDays (1));
+				update (conn, "INSERT INTO FlightInfo (fiid, flight_id, pilot_id, plane_id) VALUES (?, ?, ?, ?);",
+					fiid + i, fnum + i, pilot, plane);
+				if (i > 0)
+					this._coldFlights[i - 1] = fnum + i;
+			}//end for
+			return null;
+		});
+
+		List<List<String>> customers = this._esql.executeQueryAndReturnResult ("SELECT id FROM Customer ORDER BY id;");
+		if (customers.isEmpty ())
+			throw new SQLException ("The stress test needs rows in Customer");
+		this._customers = new int[customers.size ()];
+		for (int i = 0; i < this._customers.length; ++i)
+			this._customers[i] = Integer.parseInt (customers.get (i).get (0));
+	}
+
+	//books from one thread, alternating between the hot and its own flight
+	private void book (int thread) {
+		for (int i = 0; i < this._attempts; ++i){
+			final int fid = i % 2 == 0 ? this._hotFlight : this._coldFlights[thread];
+			// the threads take turns through the customers, so each hot attempt books another customer
+			// until every customer is booked; the cold flight is the thread's own
+			final int cid = this._customers[(i / 2 * this._threads + thread) % this._customers.length];
+			try{
+				boolean held = this._esql.executeTransaction (conn -> {
+					PreparedStatement lock = conn.statements.prepare (LOCK_SQL);
+					DBproject.bind (lock, new Object[] { cid, fid });
+					lock.execute ();
+					boolean reserved = scalar (conn, HELD_SQL, cid, fid) != 0;
+					update (conn, BookingEngine.UPSERT_SQL, cid, fid, "R");
+					return reserved;
+				});
+				(held ? this._held : this._booked).incrementAndGet ();
+			}catch (SQLException e){
+				if (CHECK_VIOLATION.equals (e.getSQLState ()))
+					this._full.incrementAndGet ();
+				else
+					this._errors.incrementAndGet ();
+			}//end try
+		}//end for
+	}
+
+	/**
+	 * Method to check every scratch flight after the run.
+	 *
+	 * @return the number of flights that sold more seats than they have, or
+	 *         whose num_sold disagrees with their reserved rows
+	 * @throws java.sql.SQLException when the check query fails
+	 */
+	private int verify () throws SQLException {
+		List<List<String>> rows = this._esql.executeQueryAndReturnResult (
+			"SELECT F.fnum, P.seats, F.num_sold, (SELECT COUNT(*) FROM Reservation R WHERE R.fid = F.fnum AND R.status = 'R')\n" +
+			"FROM Flight F, FlightInfo FI, Plane P\n" +
+			"WHERE F.fnum BETWEEN ? AND ? AND FI.flight_id = F.fnum AND P.id = FI.plane_id\n" +
+			"ORDER BY F.fnum;", this._hotFlight, this._hotFlight + this._threads);
+		int bad = 0;
+		for (List<String> row : rows){
+			int seats = Integer.parseInt (row.get (1));
+			int sold = Integer.parseInt (row.get (2));
+			int reserved = Integer.parseInt (row.get (3));
+			if (sold > seats || sold != reserved){
+				System.out.println ("Flight " + row.get (0) + ": seats " + seats + ", num_sold " + sold + ", reserved " + reserved);
+				++bad;
+			}//end if
+			if (Integer.parseInt (row.get (0)) == this._hotFlight)
+				System.out.println ("Hot flight " + this._hotFlight + ": " + sold + " of " + seats + " seats sold");
+		}//end for
+		return bad;
+	}
+
+	//removes everything setUp created, releasing the seats on the way
+	private void tearDown () throws SQLException {
+		this._esql.executeTransaction (conn -> {
+			int last = this._hotFlight + this._threads;
+			update (conn, "DELETE FROM Reservation WHERE fid BETWEEN ? AND ?;", this._hotFlight, last);
+			update (conn, "DELETE FROM FlightInfo WHERE flight_id BETWEEN ? AND ?;", this._hotFlight, last);
+			update (conn, "DELETE FROM Flight WHERE fnum BETWEEN ? AND ?;", this._hotFlight, last);
+			// the counts the trigger kept for the flights, all zero by now
+			update (conn, "DELETE FROM PassengersPerFlight WHERE fid BETWEEN ? AND ?;", this._hotFlight, last);
+			update (conn, "DELETE FROM Plane WHERE id BETWEEN ? AND ?;", this._planeId, this._planeId + 1);
+			return null;
+		});
+	}
+
+	/**
+	 * Method to run the stress test and print its results.
+	 *
+	 * @return the number of oversold or inconsistent flights, 0 on success
+	 * @throws Exception when the scratch data cannot be set up or checked
+	 */
+	public int run () throws Exception {
+		setUp ();
+		try{
+			ExecutorService pool = Executors.newFixedThreadPool (this._threads);
+			final CountDownLatch go = new CountDownLatch (1);
+			for (int t = 0; t < this._threads; ++t){
+				final int thread = t;
+				pool.execute (() -> {
+					try{
+						go.await ();
+					}catch (InterruptedException e){
+						return;
+					}//end try
+					book (thread);
+				});
+			}//end for
+			long start = System.nanoTime ();
+			go.countDown ();
+			pool.shutdown ();
+			pool.awaitTermination (1, TimeUnit.HOURS);
+			long elapsed = System.nanoTime () - start;
+
+			long attempts = (long) this._threads * this._attempts;
+			System.out.println (String.format ("%d threads, %d attempts: %d booked, %d already held, %d rejected as full, %d errors"
+				+ " in %.1f ms (%.0f attempts/s, %.0f bookings/s)",
+				this._threads, attempts, this._booked.get (), this._held.get (), this._full.get (), this._errors.get (),
+				elapsed / 1e6, attempts * 1e9 / elapsed, this._booked.get () * 1e9 / elapsed));
+			int bad = verify ();
+			System.out.println (bad == 0 ? "No flight oversold" : bad + " flight(s) oversold or inconsistent");
+			return bad;
+		}finally{
+			tearDown ();
+		}
+	}
+
+	private static int scalar (ConnectionPool.Pooled conn, String sql, Object... params) throws SQLException {
+		PreparedStatement stmt = conn.statements.prepare (sql);
+		DBproject.bind (stmt, params);
+		ResultSet rs = stmt.executeQuery ();
+		try{
+			rs.next ();
+			return rs.getInt (1);
+		}finally{
+			rs.close ();
+		}
+	}
+
+	private static void update (ConnectionPool.Pooled conn, String sql, Object... params) throws SQLException {
+		PreparedStatement stmt = conn.statements.prepare (sql);
+		DBproject.bind (stmt, params);
+		stmt.executeUpdate ();
+	}
+
+	/**
+	 * Method to run the --stress-seats command.
+	 *
+	 * @param esql the database connection
+	 * @param args [threads] [attempts per thread] [seats of the hot flight]
+	 * @throws Exception when the test fails or finds an oversold flight
+	 */
+	public static void main (DBproject esql, String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt (args[0]) : 8;
+		int attempts = args.length > 1 ? Integer.parseInt (args[1]) : 500;
+		int hotSeats = args.length > 2 ? Integer.parseInt (args[2]) : 50;
+		if (threads > esql.getPool ().getMaxSize ())
+			System.out.println ("Note: " + threads + " threads share " + esql.getPool ().getMaxSize ()
+				+ " connections, raise -Ddbproject.pool.max to avoid waiting");
+		int bad = new SeatStress (esql, threads, attempts, hotSeats).run ();
+		if (bad > 0)
+			throw new IllegalStateException ("Seat inventory oversold " + bad + " flight(s)");
+	}
+}//end SeatStress
@@ -0,0 +1,224 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * This class writes the queries that ran longer than a threshold to a
+ * rotating log: the SQL, its bind values, the elapsed time, the row count
+ * and the operation that issued it.  A sample of the logged queries is run
+ * again under EXPLAIN (ANALYZE, BUFFERS) on a background thread, and the plan
+ * is appended under the number of the entry it belongs to.  Since ANALYZE
+ * executes the statement, only reads are explained: SELECT or WITH queries
+ * that read a table and neither write, lock rows nor call a function known
+ * to change state (sequences, advisory locks, partition maintenance).  The
+ * explaining transaction is rolled back all the same.
+ *
+ * The log is a text file, dbproject.slowlog.file, renamed to .1, .2, ... once
+ * it reaches dbproject.slowlog.maxBytes; dbproject.slowlog.files of them are
+ * kept.  A negative dbproject.slowlog.thresholdMs turns the log off.
+ *
+ */
+
+public class SlowQueryLog{
+	static final long THRESHOLD_MS = Long.getLong ("dbproject.slowlog.thresholdMs", 1000L);
+	static final String FILE = System.getProperty ("dbproject.slowlog.file", "slow-query.log");
+	static final long MAX_BYTES = Long.getLong ("dbproject.slowlog.maxBytes", 10L << 20);
+	static final int FILES = Integer.getInteger ("dbproject.slowlog.files", 5);
+	//share of the logged queries that get explained
+	static final double EXPLAIN_RATE = Double.parseDouble (System.getProperty ("dbproject.slowlog.explainRate", "0.1"));
+	//explains waiting for the background thread, more are dropped
+	static final int EXPLAIN_BACKLOG = 4;
+	//writes, row locks and state changing functions, never run again under ANALYZE
+	static final Pattern WRITES = Pattern.compile (
+		"\\b(insert|update|delete|merge|truncate|call|lock|share|setval|nextval|pg_advisory\\w*"
+		+ "|ensure_year_partitions|split_default_partition)\\b", Pattern.CASE_INSENSITIVE);
+	static final Pattern FROM = Pattern.compile ("\\bfrom\\b", Pattern.CASE_INSENSITIVE);
+
+	private final DBproject _esql;
+	private final long _thresholdNanos;
+	private final AtomicLong _entries = new AtomicLong ();
+	private final AtomicLong _explained = new AtomicLong ();
+	private final ThreadPoolExecutor _explainer;
+	//opened on the first slow query, guarded by this
+	private Writer _out = null;
+	private long _size = 0;
+
+	public SlowQueryLog(DBproject esql) {
+		this._esql = esql;
+		this._thresholdNanos = THRESHOLD_MS < 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos (THRESHOLD_MS);
+		this._explainer = new ThreadPoolExecutor (1, 1, 0, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(EXPLAIN_BACKLOG), r -> {
+				Thread thread = new Thread (r, "slow-query-explain");
+				thread.setDaemon (true);
+				return thread;
+			}, new ThreadPoolExecutor.DiscardPolicy ());
+	}
+
+	/**
+	 * Method to tell whether a call took long enough to be logged.
+	 *
+	 * @param nanos the elapsed time of the call
+	 * @return true when the call goes to the log
+	 */
+	public boolean isSlow (long nanos) {
+		return nanos >= this._thresholdNanos;
+	}
+
+	/**
+	 * Method to log a slow call and possibly queue its plan capture.
+	 *
+	 * @param sql the statement
+	 * @param params its bind values
+	 * @param nanos the elapsed time
+	 * @param rows the rows returned
+	 * @param ok whether the call completed without an exception
+	 * @param operation the operation that issued the call
+	 */
+	public void log (final String sql, final Object[] params, long nanos, int rows, boolean ok, String operation) {
+		final long id = this._entries.incrementAndGet ();
+		write (String.format (Locale.ROOT, "#%d %s %.1f ms, %d rows%s, operation %s\n  SQL: %s\n  Params: %s\n",
+			id, Instant.now (), nanos / 1e6, rows, ok ? "" : ", failed", operation,
+			sql.replaceAll ("\\s+", " ").trim (), Arrays.deepToString (params)));
+
+		if (ok && isReadOnly (sql) && ThreadLocalRandom.current ().nextDouble () < EXPLAIN_RATE)
+			this._explainer.execute (() -> explain (id, sql, params));
+	}
+
+	/**
+	 * Method to tell whether a statement can be run again under EXPLAIN
+	 * ANALYZE: a SELECT or WITH query reading a table, with no write, row
+	 * lock or state changing function anywhere in it.  A SELECT without a
+	 * FROM is a function call and is never explained.
+	 *
+	 * @param sql the statement
+	 * @return true when the statement only reads
+	 */
+	static boolean isReadOnly (String sql) {
+		String text = sql.trim ();
+		boolean query = text.regionMatches (true, 0, "SELECT", 0, 6) || text.regionMatches (true, 0, "WITH", 0, 4);
+		return query && FROM.matcher (text).find ()
+			&& !WRITES.matcher (text).find ();
+	}
+
+	//re-runs the statement under EXPLAIN ANALYZE and appends the plan
+	private void explain (long id, final String sql, final Object[] params) {
+		StringBuilder plan = new StringBuilder ("#").append (id).append (" plan:\n");
+		try{
+			List<String> lines = this._esql.executeTransaction (conn -> {
+				List<String> result = new ArrayList<String>();
+				// not cached, these statements are one-off
+				PreparedStatement stmt = conn.connection.prepareStatement ("EXPLAIN (ANALYZE, BUFFERS) " + sql);
+				try{
+					DBproject.bind (stmt, params);
+					ResultSet rs = stmt.executeQuery ();
+					while (rs.next ())
+						result.add (rs.getString (1));
+					rs.close ();
+				}finally{
+					stmt.close ();
+					conn.connection.rollback ();
+				}
+				return result;
+			});
+			for (String line : lines)
+				plan.append ("    ").append (line).append ('\n');
+			this._explained.incrementAndGet ();
+		}catch (SQLException e){
+			plan.append ("    EXPLAIN failed: ").append (e.getMessage ()).append ('\n');
+		}//end try
+		write (plan.toString ());
+	}
+
+	private synchronized void write (String entry) {
+		try{
+			if (this._out != null && this._size >= MAX_BYTES){
+				this._out.close ();
+				this._out = null;
+				rotate ();
+			}//end if
+			if (this._out == null){
+				File file = new File (FILE);
+				this._size = file.length ();
+				this._out = new BufferedWriter (new OutputStreamWriter (new FileOutputStream (file, true), StandardCharsets.UTF_8));
+			}//end if
+			this._out.write (entry);
+			this._out.flush ();
+			this._size += entry.getBytes (StandardCharsets.UTF_8).length;
+		}catch (IOException e){
+			System.err.println ("Unable to write the slow query log " + FILE + ": " + e.getMessage ());
+		}//end try
+	}
+
+	//shifts FILE.n to FILE.n+1, dropping the oldest, and FILE to FILE.1
+	private static void rotate () {
+		new File (FILE + "." + (FILES - 1)).delete ();
+		for (int i = FILES - 2; i >= 1; --i)
+			new File (FILE + "." + i).renameTo (new File (FILE + "." + (i + 1)));
+		File current = new File (FILE);
+		if (FILES > 1)
+			current.renameTo (new File (FILE + ".1"));
+		else
+			current.delete ();
+	}
+
+	public long getEntries () {
+		return this._entries.get ();
+	}
+
+	public long getExplained () {
+		return this._explained.get ();
+	}
+
+	/**
+	 * Method to finish the queued plan captures and close the log.  Called
+	 * while the pool is still open.
+	 */
+	public void close () {
+		this._explainer.shutdown ();
+		try{
+			this._explainer.awaitTermination (10, TimeUnit.SECONDS);
+		}catch (InterruptedException e){
+			Thread.currentThread ().interrupt ();
+		}//end try
+		synchronized (this){
+			try{
+				if (this._out != null)
+					this._out.close ();
+			}catch (IOException e){
+				// nothing left to report to
+			}//end try
+			this._out = null;
+		}
+	}
+}//end SlowQueryLog
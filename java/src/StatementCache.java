@@ -0,0 +1,113 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps a bounded, least-recently-used set of prepared statements
+ * for one physical connection, keyed by their SQL template.  Statements handed
+ * out by the cache must not be closed by the caller; they are closed when they
+ * are evicted or when the cache itself is closed.
+ *
+ */
+
+public class StatementCache{
+	//connection all cached statements belong to
+	private final Connection _connection;
+	private final int _capacity;
+	private final LinkedHashMap<String, PreparedStatement> _statements;
+
+	private final AtomicLong _hits = new AtomicLong ();
+	private final AtomicLong _misses = new AtomicLong ();
+	private final AtomicLong _evictions = new AtomicLong ();
+
+	public StatementCache(Connection connection, int capacity) {
+		this._connection = connection;
+		this._capacity = capacity;
+		// access ordered so that the eldest entry is the least recently used
+		this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+	}
+
+	/**
+	 * Method to fetch the prepared statement for an SQL template, preparing
+	 * it on the connection if it is not cached yet.
+	 *
+	 * @param sql the SQL template, with '?' placeholders for bind values
+	 * @return a prepared statement owned by the cache
+	 * @throws java.sql.SQLException when the statement could not be prepared
+	 */
+	public synchronized PreparedStatement prepare (String sql) throws SQLException {
+		PreparedStatement stmt = this._statements.get (sql);
+		if (stmt != null){
+			this._hits.incrementAndGet ();
+			return stmt;
+		}//end if
+		this._misses.incrementAndGet ();
+		stmt = this._connection.prepareStatement (sql);
+		this._statements.put (sql, stmt);
+		evict ();
+		return stmt;
+	}
+
+	//closes least recently used statements until the cache fits its capacity
+	private void evict () {
+		Iterator<Map.Entry<String, PreparedStatement>> it = this._statements.entrySet ().iterator ();
+		while (this._statements.size () > this._capacity && it.hasNext ()){
+			PreparedStatement eldest = it.next ().getValue ();
+			it.remove ();
+			this._evictions.incrementAndGet ();
+			try{
+				eldest.close ();
+			}catch (SQLException e){
+				// ignored.
+			}//end try
+		}//end while
+	}
+
+	public long getHits () {
+		return this._hits.get ();
+	}
+
+	public long getMisses () {
+		return this._misses.get ();
+	}
+
+	public long getEvictions () {
+		return this._evictions.get ();
+	}
+
+	public synchronized int size () {
+		return this._statements.size ();
+	}
+
+	/**
+	 * Method to close every cached statement.  The connection itself is left
+	 * open.
+	 */
+	public synchronized void close () {
+		for (PreparedStatement stmt : this._statements.values ()){
+			try{
+				stmt.close ();
+			}catch (SQLException e){
+				// ignored.
+			}//end try
+		}//end for
+		this._statements.clear ();
+	}
+}//end StatementCache
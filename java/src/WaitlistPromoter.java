@@ -0,0 +1,277 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * This class moves waitlisted reservations ('W') to reserved ('R') as seats
+ * free up.  A trigger on Reservation notifies the channel
+ * reservation_seat_freed with the flight number whenever a reservation gives
+ * back a seat (cancelled, waitlisted again or deleted); the promoter listens
+ * on its own connection and collects the flights.
+ *
+ * Pending flights are promoted dbproject.waitlist.batch at a time in one
+ * transaction.  The transaction locks the Flight rows in fnum order, so one
+ * promoter at a time works on a flight and bookers of it wait, then
+ * promotes the oldest waitlisted reservations (lowest rnum) of each flight,
+ * as many as the plane has seats left.  A waitlisted reservation that is
+ * being changed at that moment is skipped rather than waited for.
+ *
+ */
+
+public class WaitlistPromoter{
+	static final String CHANNEL = "reservation_seat_freed";
+	//flights promoted per transaction
+	static final int BATCH = Integer.getInteger ("dbproject.waitlist.batch", 100);
+	//how long to wait for notifications before checking for interruption
+	static final int POLL_MS = Integer.getInteger ("dbproject.waitlist.pollMs", 500);
+	//pause after a failed transaction or a lost listening connection
+	static final long RETRY_MS = Long.getLong ("dbproject.waitlist.retryMs", 1000L);
+
+	//promotes the oldest waiting reservations of the flights, within their free seats
+	static final String PROMOTE_SQL =
+		"WITH Free AS (\n" +
+		"SELECT F.fnum, P.seats - F.num_sold AS seats\n" +
+		"FROM Flight F, FlightInfo FI, Plane P\n" +
+		"WHERE F.fnum = ANY (?::int[]) AND FI.flight_id = F.fnum AND P.id = FI.plane_id\n" +
+		"ORDER BY F.fnum\n" +
+		"FOR UPDATE OF F),\n" +
+		"Waiting AS (\n" +
+		"SELECT W.rnum FROM Free, LATERAL (\n" +
+		"SELECT rnum FROM Reservation\n" +
+		"WHERE fid = Free.fnum AND status = 'W'\n" +
+		"ORDER BY rnum LIMIT GREATEST(Free.seats, 0)\n" +
+		"FOR UPDATE SKIP LOCKED) W)\n" +
+		"UPDATE Reservation R SET status = 'R'\n" +
+		"FROM Waiting WHERE R.rnum = Waiting.rnum\n" +
+		"RETURNING R.rnum, R.cid, R.fid;";
+	//flights with waiting reservations and a seat left, e.g. freed while nobody listened
+	static final String BACKLOG_SQL =
+		"SELECT F.fnum\n" +
+		"FROM PassengersPerFlight C, Flight F, FlightInfo FI, Plane P\n" +
+		"WHERE C.waitlisted > 0 AND F.fnum = C.fid AND FI.flight_id = F.fnum AND P.id = FI.plane_id AND F.num_sold < P.seats\n" +
+		"ORDER BY F.fnum;";
+
+	/**
+	 * A reservation moved from the waitlist to reserved.
+	 */
+	public static class Promotion{
+		public final int rnum;
+		public final int cid;
+		public final int fid;
+
+		public Promotion(int rnum, int cid, int fid) {
+			this.rnum = rnum;
+			this.cid = cid;
+			this.fid = fid;
+		}
+
+		public String toString () {
+			return "Reservation " + this.rnum + " of customer " + this.cid + " on flight " + this.fid + ": W -> R";
+		}
+	}//end Promotion
+
+	private final DBproject _esql;
+	private final int _batch;
+	//flights with a freed seat, in the order they were notified
+	private final Set<Integer> _pending = new LinkedHashSet<Integer>();
+	private long _promoted = 0;
+	private long _transactions = 0;
+
+	public WaitlistPromoter(DBproject esql, int batch) {
+		if (batch < 1)
+			throw new IllegalArgumentException ("Invalid waitlist batch: " + batch);
+		this._esql = esql;
+		this._batch = batch;
+	}
+
+	/**
+	 * Method to queue a flight for the next promotion pass.
+	 *
+	 * @param fid the flight that got a seat back
+	 */
+	public void offer (int fid) {
+		this._pending.add (fid);
+	}
+
+	/**
+	 * Method to queue every flight with waiting reservations and a seat left.
+	 *
+	 * @return the number of flights queued
+	 * @throws java.sql.SQLException when the query fails
+	 */
+	public int catchUp () throws SQLException {
+		int[] flights = this._esql.executeQueryForColumns (BACKLOG_SQL).ints (1);
+		for (int fid : flights)
+			offer (fid);
+		return flights.length;
+	}
+
+	public boolean hasPending () {
+		return !this._pending.isEmpty ();
+	}
+
+	/**
+	 * Method to promote the waiting reservations of the next pending flights
+	 * in one transaction.  When it fails, the flights stay pending.
+	 *
+	 * @return the promoted reservations, by flight and then in waiting order
+	 * @throws java.sql.SQLException when the transaction fails
+	 */
+	public List<Promotion> promote () throws SQLException {
+		final List<Integer> flights = new ArrayList<Integer>(this._batch);
+		Iterator<Integer> it = this._pending.iterator ();
+		while (it.hasNext () && flights.size () < this._batch)
+			flights.add (it.next ());
+		if (flights.isEmpty ())
+			return new ArrayList<Promotion>();
+		final String array = flights.toString ().replace ('[', '{').replace (']', '}').replace (" ", "");
+
+		Metrics.Scope scope = this._esql.getMetrics ().begin ("PromoteWaitlist");
+		try{
+			List<Promotion> promotions = this._esql.executeTransaction (conn -> {
+				List<Promotion> result = new ArrayList<Promotion>();
+				PreparedStatement stmt = conn.statements.prepare (PROMOTE_SQL);
+				DBproject.bind (stmt, new Object[] { array });
+				ResultSet rs = stmt.executeQuery ();
+				try{
+					while (rs.next ())
+						result.add (new Promotion (rs.getInt (1), rs.getInt (2), rs.getInt (3)));
+				}finally{
+					rs.close ();
+				}
+				return result;
+			});
+			this._pending.removeAll (flights);
+			promotions.sort ((a, b) -> a.fid != b.fid ? Integer.compare (a.fid, b.fid) : Integer.compare (a.rnum, b.rnum));
+			this._promoted += promotions.size ();
+			++this._transactions;
+			return promotions;
+		}catch (SQLException | RuntimeException e){
+			this._esql.getMetrics ().error ();
+			throw e;
+		}finally{
+			this._esql.getMetrics ().end (scope);
+		}
+	}
+
+	/**
+	 * Method to promote until no flight is pending.
+	 *
+	 * @param out receives one line per promotion
+	 * @throws java.sql.SQLException when a transaction fails
+	 */
+	public void drain (PrintStream out) throws SQLException {
+		while (hasPending ())
+			for (Promotion promotion : promote ())
+				out.println (promotion);
+	}
+
+	/**
+	 * Method to listen for freed seats and promote until interrupted.  The
+	 * flights that have a seat left are queued each time listening starts,
+	 * so seats freed while nobody listened are filled as well.
+	 *
+	 * @param out receives one line per promotion and the errors
+	 * @throws InterruptedException when the thread is interrupted
+	 */
+	public void listen (PrintStream out) throws InterruptedException {
+		while (!Thread.currentThread ().isInterrupted ()){
+			try (Connection connection = this._esql.getPool ().connect ()){
+				Statement stmt = connection.createStatement ();
+				try{
+					stmt.execute ("LISTEN " + CHANNEL + ";");
+				}finally{
+					stmt.close ();
+				}
+				PGConnection pg = connection.unwrap (PGConnection.class);
+				catchUp ();
+				while (!Thread.currentThread ().isInterrupted ()){
+					try{
+						drain (out);
+					}catch (SQLException e){
+						out.println ("ERROR promoting waitlisted reservations: " + e.getMessage ());
+						Thread.sleep (RETRY_MS);
+					}//end try
+					PGNotification[] notifications = pg.getNotifications (POLL_MS);
+					if (notifications != null)
+						for (PGNotification notification : notifications)
+							offer (Integer.parseInt (notification.getParameter ()));
+				}//end while
+			}catch (SQLException e){
+				out.println ("ERROR listening on " + CHANNEL + ": " + e.getMessage ());
+				Thread.sleep (RETRY_MS);
+			}//end try
+		}//end while
+		throw new InterruptedException ();
+	}
+
+	public long getPromoted () {
+		return this._promoted;
+	}
+
+	public long getTransactions () {
+		return this._transactions;
+	}
+
+	/**
+	 * Method to run the --promote-waitlist command: promote what can be
+	 * promoted now, then, unless --once is given, keep listening for freed
+	 * seats until Ctrl-C.
+	 *
+	 * @param esql the database connection
+	 * @param args [--once]
+	 * @throws Exception when a promotion fails with --once
+	 */
+	public static void main (DBproject esql, String[] args) throws Exception {
+		boolean once = args.length == 1 && args[0].equals ("--once");
+		if (args.length > (once ? 1 : 0))
+			throw new IllegalArgumentException ("Usage: --promote-waitlist [--once]");
+		WaitlistPromoter promoter = new WaitlistPromoter (esql, BATCH);
+		if (once){
+			promoter.catchUp ();
+			promoter.drain (System.out);
+		}else{
+			final Thread main = Thread.currentThread ();
+			// on Ctrl-C, returns from main so the pool is closed before the JVM exits
+			Runtime.getRuntime ().addShutdownHook (new Thread (() -> {
+				main.interrupt ();
+				try{
+					main.join (30000);
+				}catch (InterruptedException e){
+					// exiting anyway
+				}//end try
+			}));
+			System.out.println ("Listening on " + CHANNEL + ", " + BATCH + " flights per transaction; Ctrl-C to stop");
+			try{
+				promoter.listen (System.out);
+			}catch (InterruptedException e){
+				// stopped
+			}//end try
+		}//end if
+		System.out.println (promoter.getPromoted () + " reservation(s) promoted in " + promoter.getTransactions () + " transaction(s)");
+	}
+}//end WaitlistPromoter
@@ -0,0 +1,372 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class buffers the rows of AddPlane, AddPilot, AddFlight and
+ * AddTechnician when started with -Ddbproject.writeBehind=true.  Rows wait in
+ * a bounded queue; a background thread takes up to dbproject.writeBehind.batch
+ * of them, or what arrived within dbproject.writeBehind.flushMs of the first,
+ * and inserts them in one transaction with a single statement per table that
+ * unnests one array parameter per column.  A caller adding to a full queue
+ * waits for room, up to dbproject.writeBehind.maxWaitMs.
+ *
+ * Every row gets a future completed once its transaction committed, or
+ * exceptionally with the error of its row.  A batch that fails is written
+ * again row by row, so a duplicate key only fails the row that has it.
+ *
+ */
+
+public class WriteBehind{
+	static final boolean ENABLED = Boolean.getBoolean ("dbproject.writeBehind");
+	static final int CAPACITY = Integer.getInteger ("dbproject.writeBehind.capacity", 10000);
+	static final int BATCH = Integer.getInteger ("dbproject.writeBehind.batch", 500);
+	static final long FLUSH_MS = Long.getLong ("dbproject.writeBehind.flushMs", 50L);
+	static final long MAX_WAIT_MS = Long.getLong ("dbproject.writeBehind.maxWaitMs", DBproject.POOL_MAX_WAIT_MS);
+	//how often an idle flusher checks whether it was closed
+	static final long IDLE_POLL_MS = 100;
+
+	/**
+	 * A table rows are buffered for, with the array type of each column.
+	 */
+	static final class Table{
+		final String name;
+		final String[] types;
+		//inserts any number of rows, one array per column
+		final String sql;
+		//inserts one row, the statement of the synchronous path
+		final String rowSql;
+
+		Table (String name, String columns, String... types) {
+			this.name = name;
+			this.types = types;
+			StringBuilder arrays = new StringBuilder ();
+			StringBuilder values = new StringBuilder ();
+			for (int i = 0; i < types.length; ++i){
+				arrays.append (i == 0 ? "" : ", ").append ("?::").append (types[i]).append ("[]");
+				values.append (i == 0 ? "?" : ", ?");
+			}//end for
+			this.sql = "INSERT INTO " + name + " (" + columns + ") SELECT * FROM unnest(" + arrays + ");";
+			this.rowSql = "INSERT INTO " + name + " (" + columns + ") VALUES (" + values + ");";
+		}
+	}//end Table
+
+	static final Table PLANE = new Table ("Plane", "id, make, model, age, seats", "int", "text", "text", "int", "int");
+	static final Table PILOT = new Table ("Pilot", "id, fullname, nationality", "int", "text", "text");
+	static final Table FLIGHT = new Table ("Flight",
+		"fnum, cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport",
+		"int", "int", "int", "int", "date", "date", "text", "text");
+	static final Table TECHNICIAN = new Table ("Technician", "id, full_name", "int", "text");
+
+	private static final class Row{
+		final Table table;
+		final Object[] values;
+		final CompletableFuture<Void> ack = new CompletableFuture<Void>();
+
+		Row (Table table, Object[] values) {
+			this.table = table;
+			this.values = values;
+		}
+	}//end Row
+
+	private final DBproject _esql;
+	private final ArrayBlockingQueue<Row> _queue;
+	private final int _batch;
+	private final long _flushNanos;
+	private final long _maxWaitMillis;
+	private final Thread _flusher;
+	private volatile boolean _closed = false;
+
+	private final AtomicLong _written = new AtomicLong ();
+	private final AtomicLong _batches = new AtomicLong ();
+	private final AtomicLong _retries = new AtomicLong ();
+	private final AtomicLong _failed = new AtomicLong ();
+	private final AtomicLong _waits = new AtomicLong ();
+	private final AtomicLong _waitNanos = new AtomicLong ();
+
+	/**
+	 * @param esql the database connection
+	 * @param capacity rows the queue holds before callers wait
+	 * @param batch most rows written per transaction
+	 * @param flushMs how long a batch waits for more rows after its first
+	 * @param maxWaitMs how long a caller waits for room in a full queue
+	 */
+	public WriteBehind(DBproject esql, int capacity, int batch, long flushMs, long maxWaitMs) {
+		if (capacity < 1 || batch < 1)
+			throw new IllegalArgumentException ("Invalid write-behind sizes: capacity=" + capacity + ", batch=" + batch);
+		this._esql = esql;
+		this._queue = new ArrayBlockingQueue<Row>(capacity);
+		this._batch = batch;
+		this._flushNanos = TimeUnit.MILLISECONDS.toNanos (Math.max (0, flushMs));
+		this._maxWaitMillis = maxWaitMs;
+		this._flusher = new Thread (this::run, "write-behind");
+		this._flusher.setDaemon (true);
+		this._flusher.start ();
+	}
+
+	/**
+	 * Method to queue a row, waiting while the queue is full.
+	 *
+	 * @param table the table of the row
+	 * @param values the column values, in the order of the table's columns
+	 * @return a future completed once the row is committed
+	 * @throws java.sql.SQLException when no room freed up in time or the
+	 *         buffer is closed
+	 */
+	public CompletableFuture<Void> add (Table table, Object... values) throws SQLException {
+		if (values.length != table.types.length)
+			throw new IllegalArgumentException (table.name + " takes " + table.types.length + " values, got " + values.length);
+		if (this._closed)
+			throw new SQLException ("Write-behind buffer is closed");
+		Row row = new Row (table, values);
+		if (!this._queue.offer (row)){
+			this._waits.incrementAndGet ();
+			long start = System.nanoTime ();
+			try{
+				boolean queued = this._queue.offer (row, this._maxWaitMillis, TimeUnit.MILLISECONDS);
+				if (!queued)
+					throw new SQLException ("Timed out after " + this._maxWaitMillis + " ms waiting for room in the write-behind queue");
+			}catch (InterruptedException e){
+				Thread.currentThread ().interrupt ();
+				throw new SQLException ("Interrupted while waiting for room in the write-behind queue");
+			}finally{
+				this._waitNanos.addAndGet (System.nanoTime () - start);
+			}
+		}//end if
+		// queued after close() swept the queue, nobody would write it
+		if (this._closed && this._queue.remove (row))
+			throw new SQLException ("Write-behind buffer is closed");
+		// the row is the caller's write, whichever thread commits it
+		this._esql.getReplicaRouter ().wrote ();
+		return row.ack;
+	}
+
+	/**
+	 * Method to wait for the future of a queued row.
+	 *
+	 * @param ack the future returned by add
+	 * @throws java.sql.SQLException the error of the row
+	 */
+	static void await (CompletableFuture<?> ack) throws SQLException {
+		try{
+			ack.get ();
+		}catch (InterruptedException e){
+			Thread.currentThread ().interrupt ();
+			throw new SQLException ("Interrupted while waiting for a write-behind insert");
+		}catch (ExecutionException e){
+			Throwable cause = e.getCause ();
+			if (cause instanceof SQLException)
+				throw (SQLException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new SQLException (cause);
+		}//end try
+	}
+
+	//takes batches off the queue until closed and empty
+	private void run () {
+		List<Row> batch = new ArrayList<Row>(this._batch);
+		while (true){
+			try{
+				Row first = this._queue.poll (IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+				if (first == null){
+					if (this._closed)
+						break;
+					continue;
+				}//end if
+				batch.add (first);
+				long deadline = System.nanoTime () + this._flushNanos;
+				while (batch.size () < this._batch){
+					if (this._queue.drainTo (batch, this._batch - batch.size ()) > 0)
+						continue;
+					long left = deadline - System.nanoTime ();
+					if (left <= 0 || this._closed)
+						break;
+					Row next = this._queue.poll (left, TimeUnit.NANOSECONDS);
+					if (next == null)
+						break;
+					batch.add (next);
+				}//end while
+			}catch (InterruptedException e){
+				break;
+			}//end try
+			flush (batch);
+			batch.clear ();
+		}//end while
+		flush (batch);
+	}
+
+	//writes a batch and completes the futures of its rows
+	private void flush (List<Row> batch) {
+		if (batch.isEmpty ())
+			return;
+		Metrics.Scope scope = this._esql.getMetrics ().begin ("WriteBehindFlush");
+		try{
+			// one statement per table, in the order the tables were first queued
+			final Map<Table, List<Row>> byTable = new LinkedHashMap<Table, List<Row>>();
+			for (Row row : batch)
+				byTable.computeIfAbsent (row.table, t -> new ArrayList<Row>()).add (row);
+			try{
+				this._esql.executeTransaction (conn -> {
+					for (Map.Entry<Table, List<Row>> entry : byTable.entrySet ()){
+						PreparedStatement stmt = conn.statements.prepare (entry.getKey ().sql);
+						DBproject.bind (stmt, arrays (entry.getKey (), entry.getValue ()));
+						stmt.executeUpdate ();
+					}//end for
+					return null;
+				});
+				this._batches.incrementAndGet ();
+				this._written.addAndGet (batch.size ());
+				for (Row row : batch)
+					row.ack.complete (null);
+			}catch (SQLException e){
+				// the whole batch rolled back; only the rows that fail alone get the error
+				this._retries.incrementAndGet ();
+				for (Row row : batch){
+					try{
+						this._esql.executeUpdate (row.table.rowSql, row.values);
+						this._written.incrementAndGet ();
+						row.ack.complete (null);
+					}catch (SQLException f){
+						this._failed.incrementAndGet ();
+						this._esql.getMetrics ().error ();
+						row.ack.completeExceptionally (f);
+					}//end try
+				}//end for
+			}//end try
+		}catch (RuntimeException e){
+			for (Row row : batch)
+				row.ack.completeExceptionally (e);
+		}finally{
+			this._esql.getMetrics ().end (scope);
+		}
+	}
+
+	/**
+	 * Method to render the rows of one table as one array literal per column,
+	 * e.g. {1,2} and {"Airbus","Boeing"}.
+	 *
+	 * @param table the table of the rows
+	 * @param rows the rows
+	 * @return the array literals, in column order
+	 */
+	static Object[] arrays (Table table, List<Row> rows) {
+		Object[] arrays = new Object[table.types.length];
+		StringBuilder array = new StringBuilder ();
+		for (int c = 0; c < arrays.length; ++c){
+			array.setLength (0);
+			array.append ('{');
+			for (int r = 0; r < rows.size (); ++r){
+				if (r > 0)
+					array.append (',');
+				Object value = rows.get (r).values[c];
+				if (value == null)
+					array.append ("NULL");
+				else if (value instanceof Number)
+					array.append (value);
+				else
+					quote (array, value.toString ());
+			}//end for
+			arrays[c] = array.append ('}').toString ();
+		}//end for
+		return arrays;
+	}
+
+	//an array element in double quotes, so commas, braces and blanks stay in it
+	private static void quote (StringBuilder array, String value) {
+		array.append ('"');
+		for (int i = 0; i < value.length (); ++i){
+			char c = value.charAt (i);
+			if (c == '"' || c == '\\')
+				array.append ('\\');
+			array.append (c);
+		}//end for
+		array.append ('"');
+	}
+
+	public int getQueued () {
+		return this._queue.size ();
+	}
+
+	public int getCapacity () {
+		return this._queue.size () + this._queue.remainingCapacity ();
+	}
+
+	public long getWritten () {
+		return this._written.get ();
+	}
+
+	public long getBatches () {
+		return this._batches.get ();
+	}
+
+	public long getRetries () {
+		return this._retries.get ();
+	}
+
+	public long getFailed () {
+		return this._failed.get ();
+	}
+
+	public long getWaits () {
+		return this._waits.get ();
+	}
+
+	public long getWaitNanos () {
+		return this._waitNanos.get ();
+	}
+
+	/**
+	 * Method to stop taking rows and write everything queued.  Called while
+	 * the pool is still open.  Waits as long as the flusher keeps writing,
+	 * however long the queue takes to drain; only when it made no progress
+	 * for a whole wait are the rows left over failed, and their number
+	 * reported on standard error.
+	 */
+	public void close () {
+		this._closed = true;
+		long round = Math.max (this._maxWaitMillis, IDLE_POLL_MS) + TimeUnit.NANOSECONDS.toMillis (this._flushNanos);
+		try{
+			long progress = -1;
+			while (this._flusher.isAlive ()){
+				long done = this._written.get () + this._failed.get ();
+				if (done == progress)
+					break;
+				progress = done;
+				this._flusher.join (round);
+			}//end while
+		}catch (InterruptedException e){
+			Thread.currentThread ().interrupt ();
+		}//end try
+		int lost = 0;
+		Row row;
+		while ((row = this._queue.poll ()) != null){
+			row.ack.completeExceptionally (new SQLException ("Write-behind buffer is closed"));
+			++lost;
+		}//end while
+		if (lost > 0)
+			System.err.println ("ERROR: " + lost + " write-behind row(s) were not written, the flusher made no progress for "
+				+ round + " ms");
+	}
+}//end WriteBehind
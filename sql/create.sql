@@ -9,6 +9,11 @@ DROP TABLE IF EXISTS FlightInfo CASCADE;--OK
 DROP TABLE IF EXISTS Repairs CASCADE;--OK
 DROP TABLE IF EXISTS Schedule CASCADE;--OK
 
+DROP SEQUENCE IF EXISTS reservation_rnum_seq;--OK
+DROP TABLE IF EXISTS RepairsPerPlane CASCADE;--OK
+DROP TABLE IF EXISTS RepairsPerYear CASCADE;--OK
+DROP TABLE IF EXISTS PassengersPerFlight CASCADE;--OK
+
 -------------
 ---DOMAINS---
 -------------
@@ -79,6 +84,9 @@ CREATE TABLE Technician
 ---RELATIONS---
 ---------------
 
+-- reservation numbers handed out by bulk booking --
+CREATE SEQUENCE reservation_rnum_seq;
+
 CREATE TABLE Reservation
 (
 	rnum INTEGER NOT NULL,
@@ -110,11 +118,13 @@ CREATE TABLE Repairs
 	pilot_id INTEGER NOT NULL,
 	plane_id INTEGER NOT NULL,
 	technician_id INTEGER NOT NULL,
-	PRIMARY KEY (rid),
+	PRIMARY KEY (rid, repair_date),-- a partitioned key must include the partition column, rid is kept unique by trigger --
 	FOREIGN KEY (pilot_id) REFERENCES Pilot(id),
 	FOREIGN KEY (plane_id) REFERENCES Plane(id),
 	FOREIGN KEY (technician_id) REFERENCES Technician(id)
-);
+) PARTITION BY RANGE (repair_date);
+
+CREATE TABLE repairs_default PARTITION OF Repairs DEFAULT;
 
 CREATE TABLE Schedule
 (
@@ -122,8 +132,103 @@ CREATE TABLE Schedule
 	flightNum INTEGER NOT NULL,
 	departure_time DATE NOT NULL,
 	arrival_time DATE NOT NULL,
-	PRIMARY KEY (id),
+	PRIMARY KEY (id, departure_time),-- id is kept unique by trigger --
 	FOREIGN KEY (flightNum) REFERENCES Flight(fnum)
+) PARTITION BY RANGE (departure_time);
+
+CREATE TABLE schedule_default PARTITION OF Schedule DEFAULT;
+
+----------------
+---PARTITIONS---
+----------------
+-- Repairs and Schedule are split into one partition per year of repair_date
+-- and departure_time (PostgreSQL 11 or later), so queries bounded by date
+-- only read the partitions of their years.  Rows of a year without its own
+-- partition land in the default partition until ensure_year_partitions or
+-- split_default_partition creates it.  Flight stays a single table: it is
+-- the target of every flight foreign key, which would then have to carry
+-- the departure date.  Reservation has no date column to partition by.
+-- A unique key of a partitioned table must include the partition column,
+-- so the primary keys only make (rid, repair_date) and (id, departure_time)
+-- unique; the partitioned_id_unique trigger at the end keeps rid and id
+-- unique on their own.
+
+-- creates the missing yearly partitions of a table from first_day to
+-- last_day, moving the rows of those years out of its default partition;
+-- returns the number of partitions created --
+CREATE OR REPLACE FUNCTION ensure_year_partitions(parent regclass, first_day DATE, last_day DATE) RETURNS INTEGER AS $$
+DECLARE
+	base TEXT := lower(parent::text);
+	key TEXT := substring(pg_get_partkeydef(parent) FROM '\((.*)\)');
+	lower_bound DATE;
+	upper_bound DATE;
+	created INTEGER := 0;
+BEGIN
+	-- one caller at a time per table, until the end of its transaction
+	PERFORM pg_advisory_xact_lock(parent::oid::bigint);
+	FOR part_year IN EXTRACT(year FROM first_day)::int .. EXTRACT(year FROM last_day)::int LOOP
+		CONTINUE WHEN to_regclass(base || '_y' || part_year) IS NOT NULL;
+		lower_bound := make_date(part_year, 1, 1);
+		upper_bound := make_date(part_year + 1, 1, 1);
+		-- a partition cannot be created while the default one holds rows of
+		-- its range; they are deleted and inserted again through the parent,
+		-- so row triggers see a delete and an insert that cancel out
+		EXECUTE format('CREATE TEMP TABLE partition_rows AS SELECT * FROM %I WHERE %I >= %L AND %I < %L',
+			base || '_default', key, lower_bound, key, upper_bound);
+		EXECUTE format('DELETE FROM %I WHERE %I >= %L AND %I < %L',
+			base || '_default', key, lower_bound, key, upper_bound);
+		EXECUTE format('CREATE TABLE %I PARTITION OF %s FOR VALUES FROM (%L) TO (%L)',
+			base || '_y' || part_year, parent, lower_bound, upper_bound);
+		EXECUTE format('INSERT INTO %s SELECT * FROM partition_rows', parent);
+		DROP TABLE partition_rows;
+		created := created + 1;
+	END LOOP;
+	RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+-- gives every year found in the default partition of a table its own partition --
+CREATE OR REPLACE FUNCTION split_default_partition(parent regclass) RETURNS INTEGER AS $$
+DECLARE
+	key TEXT := substring(pg_get_partkeydef(parent) FROM '\((.*)\)');
+	first_day DATE;
+	last_day DATE;
+BEGIN
+	EXECUTE format('SELECT MIN(%I), MAX(%I) FROM %I', key, key, lower(parent::text) || '_default')
+		INTO first_day, last_day;
+	IF first_day IS NULL THEN
+		RETURN 0;
+	END IF;
+	RETURN ensure_year_partitions(parent, first_day, last_day);
+END;
+$$ LANGUAGE plpgsql;
+
+---------------
+---SUMMARIES---
+---------------
+-- repair counts kept current by a trigger on Repairs, read by menu 7 and 8 --
+CREATE TABLE RepairsPerPlane
+(
+	plane_id INTEGER NOT NULL,
+	repairs _PZEROINTEGER NOT NULL,
+	PRIMARY KEY (plane_id)
+);
+
+CREATE TABLE RepairsPerYear
+(
+	year INTEGER NOT NULL,
+	repairs _PZEROINTEGER NOT NULL,
+	PRIMARY KEY (year)
+);
+
+-- reservations per flight and status kept current by a trigger on Reservation, read by menu 9 --
+CREATE TABLE PassengersPerFlight
+(
+	fid INTEGER NOT NULL,
+	waitlisted _PZEROINTEGER NOT NULL,
+	reserved _PZEROINTEGER NOT NULL,
+	cancelled _PZEROINTEGER NOT NULL,
+	PRIMARY KEY (fid)
 );
 
 ----------------------------
@@ -217,4 +322,221 @@ COPY Schedule (
 	arrival_time
 )
 FROM 'schedule.csv'
-WITH DELIMITER ',';
\ No newline at end of file
+WITH DELIMITER ',';
+
+-- the rows were loaded into the default partitions, give each year its own --
+SELECT split_default_partition('Repairs');
+SELECT split_default_partition('Schedule');
+
+-------------
+---INDEXES---
+-------------
+-- built after the COPY so the bulk load does not maintain them row by row --
+-- seat availability and the seat trigger: flight -> plane without a heap visit --
+CREATE INDEX flightinfo_flight_id_idx ON FlightInfo (flight_id, plane_id);
+-- BookFlight lookup and upsert by customer and flight --
+CREATE INDEX reservation_cid_fid_idx ON Reservation (cid, fid);
+-- reservations of a flight by status, for recounting PassengersPerFlight --
+CREATE INDEX reservation_fid_status_idx ON Reservation (fid, status);
+-- waitlist of a flight in booking order, for the waitlist promoter --
+CREATE INDEX reservation_waitlist_idx ON Reservation (fid, rnum) WHERE status = 'W';
+-- repairs per plane, one index per partition --
+CREATE INDEX repairs_plane_id_idx ON Repairs (plane_id);
+-- schedule of a flight --
+CREATE INDEX schedule_flightnum_idx ON Schedule (flightNum);
+
+-- continue reservation numbers after the loaded data --
+SELECT setval('reservation_rnum_seq', (SELECT COALESCE(MAX(rnum), 0) + 1 FROM Reservation), false);
+
+-------------
+---BOOKING---
+-------------
+-- books or rebooks a customer on a flight: updates the status of the
+-- customer's reservations for the flight, or inserts one.  Reservation has
+-- no unique key on (cid, fid) - the sample data holds duplicate pairs - so
+-- bookings of the same pair are serialized with an advisory lock held to
+-- the end of the transaction; each statement of the procedure then sees
+-- the reservation a concurrent booking of the pair committed.
+CREATE OR REPLACE PROCEDURE book_reservation(customer INTEGER, flight INTEGER, new_status CHAR(1)) AS $$
+BEGIN
+	PERFORM pg_advisory_xact_lock(customer, flight);
+	UPDATE Reservation SET status = new_status WHERE cid = customer AND fid = flight;
+	IF NOT FOUND THEN
+		INSERT INTO Reservation (rnum, cid, fid, status)
+		VALUES (nextval('reservation_rnum_seq'), customer, flight, new_status);
+	END IF;
+END;
+$$ LANGUAGE plpgsql;
+
+-------------------
+---SEAT INVENTORY--
+-------------------
+-- A reservation with status 'R' holds one seat of its flight.  Every write
+-- to Reservation moves Flight.num_sold along with it; a seat is only taken
+-- while num_sold is below the seats of the plane assigned in FlightInfo
+-- (a flight without a plane yet takes any number of bookings),
+-- and the conditional UPDATE row-locks the flight so parallel bookers of
+-- the same flight are serialized while other flights proceed independently.
+CREATE OR REPLACE FUNCTION reservation_seat_sync() RETURNS trigger AS $$
+DECLARE
+	took_seat BOOLEAN := TG_OP <> 'DELETE' AND NEW.status = 'R';
+	held_seat BOOLEAN := TG_OP <> 'INSERT' AND OLD.status = 'R';
+BEGIN
+	IF took_seat AND held_seat AND NEW.fid = OLD.fid THEN
+		RETURN NEW;
+	END IF;
+	IF held_seat THEN
+		UPDATE Flight SET num_sold = num_sold - 1
+		WHERE fnum = OLD.fid AND num_sold > 0;
+	END IF;
+	IF took_seat THEN
+		UPDATE Flight F SET num_sold = F.num_sold + 1
+		FROM FlightInfo FI, Plane P
+		WHERE F.fnum = NEW.fid AND FI.flight_id = F.fnum AND P.id = FI.plane_id
+			AND F.num_sold < P.seats;
+		IF NOT FOUND THEN
+			IF EXISTS (SELECT 1 FROM FlightInfo WHERE flight_id = NEW.fid) THEN
+				RAISE EXCEPTION 'Flight % has no seat left', NEW.fid USING ERRCODE = 'check_violation';
+			END IF;
+			-- no plane assigned yet (e.g. a flight added by AddFlight), so
+			-- there is no capacity to check; the seat is counted all the same
+			UPDATE Flight SET num_sold = num_sold + 1 WHERE fnum = NEW.fid;
+		END IF;
+	END IF;
+	IF TG_OP = 'DELETE' THEN
+		RETURN OLD;
+	END IF;
+	RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+-- created after the COPY so the loaded num_sold values are kept as they are --
+CREATE TRIGGER reservation_seat_sync
+BEFORE INSERT OR DELETE OR UPDATE OF status, fid ON Reservation
+FOR EACH ROW EXECUTE PROCEDURE reservation_seat_sync();
+
+------------------------
+---REPAIR STATISTICS----
+------------------------
+-- applies the delta of every repair write to the per-plane and per-year counts --
+CREATE OR REPLACE FUNCTION repairs_stats_sync() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP <> 'INSERT' THEN
+		UPDATE RepairsPerPlane SET repairs = repairs - 1 WHERE plane_id = OLD.plane_id;
+		UPDATE RepairsPerYear SET repairs = repairs - 1 WHERE year = EXTRACT(year FROM OLD.repair_date);
+	END IF;
+	IF TG_OP <> 'DELETE' THEN
+		INSERT INTO RepairsPerPlane (plane_id, repairs) VALUES (NEW.plane_id, 1)
+		ON CONFLICT (plane_id) DO UPDATE SET repairs = RepairsPerPlane.repairs + 1;
+		INSERT INTO RepairsPerYear (year, repairs) VALUES (EXTRACT(year FROM NEW.repair_date), 1)
+		ON CONFLICT (year) DO UPDATE SET repairs = RepairsPerYear.repairs + 1;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- backfilled from the loaded rows, then maintained by the trigger --
+INSERT INTO RepairsPerPlane (plane_id, repairs)
+SELECT plane_id, COUNT(*) FROM Repairs GROUP BY plane_id;
+
+INSERT INTO RepairsPerYear (year, repairs)
+SELECT EXTRACT(year FROM repair_date), COUNT(*) FROM Repairs GROUP BY 1;
+
+CREATE TRIGGER repairs_stats_sync
+AFTER INSERT OR DELETE OR UPDATE OF plane_id, repair_date ON Repairs
+FOR EACH ROW EXECUTE PROCEDURE repairs_stats_sync();
+
+----------------------
+---PASSENGER COUNTS---
+----------------------
+-- applies the delta of every reservation write to the counts of its flight.
+-- All counts of a flight share one row, so concurrent writers of a flight
+-- queue on its row lock and each adds its delta to the latest committed
+-- counts; writers of different flights do not wait for each other.  A
+-- decrement is a plain UPDATE, since an upsert would check its insert row
+-- of -1 against the domain before finding the conflict.
+CREATE OR REPLACE FUNCTION passenger_counts_sync() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'UPDATE' AND NEW.fid = OLD.fid AND NEW.status IS NOT DISTINCT FROM OLD.status THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP <> 'INSERT' AND OLD.status IS NOT NULL THEN
+		UPDATE PassengersPerFlight SET
+			waitlisted = waitlisted - (OLD.status = 'W')::int,
+			reserved = reserved - (OLD.status = 'R')::int,
+			cancelled = cancelled - (OLD.status = 'C')::int
+		WHERE fid = OLD.fid;
+	END IF;
+	IF TG_OP <> 'DELETE' AND NEW.status IS NOT NULL THEN
+		INSERT INTO PassengersPerFlight AS P (fid, waitlisted, reserved, cancelled)
+		VALUES (NEW.fid, (NEW.status = 'W')::int, (NEW.status = 'R')::int, (NEW.status = 'C')::int)
+		ON CONFLICT (fid) DO UPDATE SET
+			waitlisted = P.waitlisted + EXCLUDED.waitlisted,
+			reserved = P.reserved + EXCLUDED.reserved,
+			cancelled = P.cancelled + EXCLUDED.cancelled;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- backfilled from the loaded rows, then maintained by the trigger --
+INSERT INTO PassengersPerFlight (fid, waitlisted, reserved, cancelled)
+SELECT fid, COUNT(*) FILTER (WHERE status = 'W'), COUNT(*) FILTER (WHERE status = 'R'), COUNT(*) FILTER (WHERE status = 'C')
+FROM Reservation WHERE status IS NOT NULL GROUP BY fid;
+
+CREATE TRIGGER passenger_counts_sync
+AFTER INSERT OR DELETE OR UPDATE OF status, fid ON Reservation
+FOR EACH ROW EXECUTE PROCEDURE passenger_counts_sync();
+
+--------------------
+---WAITLIST NOTIFY--
+--------------------
+-- tells the waitlist promoter (LISTEN reservation_seat_freed) that a flight
+-- got a seat back.  Notifications are delivered on commit, once per flight
+-- and transaction, and not at all when the transaction rolls back.
+CREATE OR REPLACE FUNCTION reservation_seat_freed() RETURNS trigger AS $$
+BEGIN
+	IF OLD.status = 'R' AND (TG_OP = 'DELETE' OR NEW.status IS DISTINCT FROM 'R' OR NEW.fid <> OLD.fid) THEN
+		PERFORM pg_notify('reservation_seat_freed', OLD.fid::text);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER reservation_seat_freed
+AFTER DELETE OR UPDATE OF status, fid ON Reservation
+FOR EACH ROW EXECUTE PROCEDURE reservation_seat_freed();
+
+----------------
+---UNIQUE IDS---
+----------------
+-- rid of Repairs and id of Schedule are unique across all partitions.  An
+-- insert, or an update of the id, locks the id's bucket (one of 256 per
+-- table, to bound the locks a bulk insert holds) until the end of its
+-- transaction and then counts the rows with that id through the primary
+-- key indexes.  A concurrent insert of the same id waits for the lock, and
+-- its count, taken after the first one committed (READ COMMITTED), sees
+-- both rows.  Bulk loads run with the trigger off and check afterwards.
+CREATE OR REPLACE FUNCTION partitioned_id_unique() RETURNS trigger AS $$
+DECLARE
+	id_column TEXT := TG_ARGV[1];
+	id_value INTEGER;
+	copies INTEGER;
+BEGIN
+	EXECUTE format('SELECT ($1).%I', id_column) INTO id_value USING NEW;
+	PERFORM pg_advisory_xact_lock((TG_ARGV[0]::regclass::oid::bigint << 32) | (id_value & 255));
+	EXECUTE format('SELECT COUNT(*) FROM %s WHERE %I = $1', TG_ARGV[0], id_column) INTO copies USING id_value;
+	IF copies > 1 THEN
+		RAISE unique_violation USING MESSAGE = format('%s %s %s already exists.', TG_ARGV[0], id_column, id_value);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER repairs_rid_unique
+AFTER INSERT OR UPDATE OF rid ON Repairs
+FOR EACH ROW EXECUTE PROCEDURE partitioned_id_unique('Repairs', 'rid');
+
+CREATE TRIGGER schedule_id_unique
+AFTER INSERT OR UPDATE OF id ON Schedule
+FOR EACH ROW EXECUTE PROCEDURE partitioned_id_unique('Schedule', 'id');